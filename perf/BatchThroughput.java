@@ -0,0 +1,73 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throughput of batched against per-call encryption of small payloads.
+ *
+ * For each payload size and batch size, encrypts the same payloads once
+ * through one {@link Crypto#encrypt} call each and once through
+ * {@link BatchTransposer#encrypt}, and prints payloads per second for both
+ * and the speedup of batching.
+ *
+ * Usage: BatchThroughput [seconds per measurement]
+ */
+public class BatchThroughput {
+
+    private static final int[] PAYLOAD_SIZES = {64, 256, 1024};
+    private static final int[] BATCH_SIZES = {1, 8, 64, 512, 4096};
+    private static final int KEY_SIZE = 8;
+
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        int[] key = ThroughputGate.fixedKey(KEY_SIZE);
+
+        System.out.printf("Batched vs per-call encrypt, key size %d, %.1f s per measurement%n", KEY_SIZE, seconds);
+        System.out.println();
+        System.out.printf("%-9s %-7s %15s %15s %9s%n", "Payload", "Batch", "Per-call/s", "Batched/s", "Speedup");
+        System.out.println("-".repeat(59));
+        for (int size : PAYLOAD_SIZES) {
+            String text = ThroughputGate.sampleText(size);
+            for (int batchSize : BATCH_SIZES) {
+                List<String> payloads = new ArrayList<>(batchSize);
+                for (int i = 0; i < batchSize; i++) {
+                    // Vary the payloads a little so nothing is shared between them
+                    payloads.add(text.substring(i % 8) + i);
+                }
+                double perCall = measure(seconds, batchSize, () -> {
+                    for (String payload : payloads) {
+                        Crypto.encrypt(payload, key);
+                    }
+                });
+                double batched = measure(seconds, batchSize, () -> {
+                    BatchTransposer.Batch batch = BatchTransposer.encrypt(payloads, key);
+                    for (int i = 0; i < batch.size(); i++) {
+                        batch.get(i);
+                    }
+                });
+                System.out.printf("%-9s %-7d %15.0f %15.0f %8.2fx%n", CryptoEngine.formatBytes(size), batchSize,
+                        perCall, batched, batched / perCall);
+            }
+        }
+    }
+
+    /**
+     * Runs the task repeatedly, first to warm up and then for the given time
+     * @return payloads per second
+     */
+    private static double measure(double seconds, int payloadsPerRun, Runnable task) {
+        long warmupEnd = System.nanoTime() + (long) (seconds * 0.3e9);
+        while (System.nanoTime() < warmupEnd) {
+            task.run();
+        }
+        long runs = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        long now;
+        do {
+            task.run();
+            runs++;
+            now = System.nanoTime();
+        } while (now < end);
+        return runs * payloadsPerRun / ((now - start) / 1e9);
+    }
+}
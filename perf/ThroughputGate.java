@@ -0,0 +1,247 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Throughput regression gate for the Crypto API.
+ *
+ * Runs a fixed benchmark set, measures throughput (MB/s) and heap
+ * allocation per processed byte, and compares the results to a checked-in
+ * baseline file. Used by the perf-gate and perf-baseline Ant targets.
+ *
+ * Usage:
+ *   ThroughputGate check  &lt;baseline file&gt; &lt;tolerance&gt;
+ *   ThroughputGate record &lt;baseline file&gt;
+ */
+public class ThroughputGate {
+
+    private static final long WARMUP_NANOS = 500_000_000L;
+    private static final long TRIAL_NANOS = 300_000_000L;
+    private static final int TRIALS = 5;
+    private static final int[] SMALL_KEY = {2, 0, 1};
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * One benchmark case: an operation over a fixed input
+     */
+    private interface Operation {
+        void run();
+    }
+
+    private static final class Case {
+        final String name;
+        final long bytesPerOp;
+        final Operation operation;
+
+        Case(String name, long bytesPerOp, Operation operation) {
+            this.name = name;
+            this.bytesPerOp = bytesPerOp;
+            this.operation = operation;
+        }
+    }
+
+    private static final class Result {
+        final double mbPerSec;
+        final double allocPerByte;
+
+        Result(double mbPerSec, double allocPerByte) {
+            this.mbPerSec = mbPerSec;
+            this.allocPerByte = allocPerByte;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !("check".equals(args[0]) || "record".equals(args[0]))) {
+            System.err.println("Usage: ThroughputGate check <baseline file> <tolerance>");
+            System.err.println("       ThroughputGate record <baseline file>");
+            System.exit(2);
+        }
+        File baselineFile = new File(args[1]);
+
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (Case c : benchmarkSet()) {
+            results.put(c.name, measure(c));
+        }
+
+        if ("record".equals(args[0])) {
+            writeBaseline(baselineFile, results);
+            printTable(results, null, 0);
+            System.out.println("Baseline written to: " + baselineFile);
+            return;
+        }
+
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.25;
+        if (!baselineFile.exists()) {
+            System.err.println("Baseline file not found: " + baselineFile + " (run ant perf-baseline first)");
+            System.exit(2);
+        }
+        Properties baseline = new Properties();
+        try (InputStream in = new FileInputStream(baselineFile)) {
+            baseline.load(in);
+        }
+
+        int regressions = printTable(results, baseline, tolerance);
+        if (regressions > 0) {
+            System.out.printf("%d benchmark metric(s) regressed beyond %.0f%% tolerance%n",
+                    regressions, tolerance * 100);
+            System.exit(1);
+        }
+        System.out.printf("All benchmarks within %.0f%% of baseline%n", tolerance * 100);
+    }
+
+    /**
+     * The fixed benchmark set. Changing it invalidates the baseline file.
+     */
+    private static List<Case> benchmarkSet() {
+        List<Case> cases = new ArrayList<>();
+        int[] sizes = {1_024, 16_384, 262_144};
+        int[][] keys = {SMALL_KEY, fixedKey(8), fixedKey(64)};
+        for (int size : sizes) {
+            String plain = sampleText(size);
+            for (int[] key : keys) {
+                String encrypted = Crypto.encrypt(plain, key);
+                String suffix = "-" + (size / 1024) + "KB-k" + key.length;
+                cases.add(new Case("encrypt" + suffix, size, () -> Crypto.encrypt(plain, key)));
+                cases.add(new Case("decrypt" + suffix, size, () -> Crypto.decrypt(encrypted, key)));
+            }
+        }
+        String keyText = Arrays.toString(fixedKey(4096));
+        cases.add(new Case("loadKey-4096", keyText.length(), () -> Crypto.loadEncryptionKey(keyText)));
+        return cases;
+    }
+
+    /**
+     * Measures one case on the current thread after a warm-up period.
+     * Throughput is the best of several trials, which filters out most
+     * scheduler and GC noise; allocation is averaged over all trials.
+     */
+    private static Result measure(Case c) {
+        long deadline = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < deadline) {
+            c.operation.run();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        double best = 0;
+        double totalBytes = 0;
+        long totalAllocated = 0;
+        for (int trial = 0; trial < TRIALS; trial++) {
+            long ops = 0;
+            long allocBefore = THREADS.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            long now;
+            do {
+                c.operation.run();
+                ops++;
+                now = System.nanoTime();
+            } while (now - start < TRIAL_NANOS);
+            totalAllocated += THREADS.getThreadAllocatedBytes(threadId) - allocBefore;
+
+            double bytes = (double) ops * c.bytesPerOp;
+            totalBytes += bytes;
+            best = Math.max(best, bytes / ((now - start) / 1_000_000_000.0) / (1024 * 1024));
+        }
+        return new Result(best, totalAllocated / totalBytes);
+    }
+
+    /**
+     * Prints the result table, diffed against the baseline when one is given
+     * @return the number of metrics that regressed beyond the tolerance
+     */
+    private static int printTable(Map<String, Result> results, Properties baseline, double tolerance) {
+        int regressions = 0;
+        System.out.println();
+        System.out.printf("%-22s %12s %12s %8s %12s %12s %8s  %s%n",
+                "Benchmark", "Base MB/s", "MB/s", "Diff", "Base B/B", "B/B", "Diff", "Status");
+        System.out.println("-".repeat(106));
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            String name = entry.getKey();
+            Result r = entry.getValue();
+            if (baseline == null) {
+                System.out.printf("%-22s %12s %12.2f %8s %12s %12.2f %8s  %s%n",
+                        name, "-", r.mbPerSec, "-", "-", r.allocPerByte, "-", "recorded");
+                continue;
+            }
+            String base = baseline.getProperty(name + ".mbPerSec");
+            String baseAlloc = baseline.getProperty(name + ".allocBytesPerByte");
+            if (base == null || baseAlloc == null) {
+                System.out.printf("%-22s %12s %12.2f %8s %12s %12.2f %8s  %s%n",
+                        name, "-", r.mbPerSec, "-", "-", r.allocPerByte, "-", "NEW (not in baseline)");
+                continue;
+            }
+            double baseMbPerSec = Double.parseDouble(base);
+            double baseAllocPerByte = Double.parseDouble(baseAlloc);
+            double speedDiff = (r.mbPerSec - baseMbPerSec) / baseMbPerSec;
+            double allocDiff = baseAllocPerByte == 0 ? 0 : (r.allocPerByte - baseAllocPerByte) / baseAllocPerByte;
+
+            List<String> problems = new ArrayList<>();
+            if (speedDiff < -tolerance) {
+                problems.add("SLOWER");
+            }
+            if (allocDiff > tolerance) {
+                problems.add("MORE ALLOCATION");
+            }
+            regressions += problems.size();
+            System.out.printf("%-22s %12.2f %12.2f %+7.1f%% %12.2f %12.2f %+7.1f%%  %s%n",
+                    name, baseMbPerSec, r.mbPerSec, speedDiff * 100,
+                    baseAllocPerByte, r.allocPerByte, allocDiff * 100,
+                    problems.isEmpty() ? "ok" : String.join(", ", problems));
+        }
+        System.out.println();
+        return regressions;
+    }
+
+    private static void writeBaseline(File file, Map<String, Result> results) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+            out.println("# Crypto throughput baseline, written by 'ant perf-baseline'");
+            out.println("# <benchmark>.mbPerSec          throughput in MB/s (higher is better)");
+            out.println("# <benchmark>.allocBytesPerByte heap bytes allocated per input byte (lower is better)");
+            out.println("# java.version=" + System.getProperty("java.version")
+                    + ", cpus=" + Runtime.getRuntime().availableProcessors());
+            for (Map.Entry<String, Result> entry : results.entrySet()) {
+                out.printf(Locale.ROOT, "%s.mbPerSec=%.2f%n", entry.getKey(), entry.getValue().mbPerSec);
+                out.printf(Locale.ROOT, "%s.allocBytesPerByte=%.2f%n", entry.getKey(), entry.getValue().allocPerByte);
+            }
+        }
+    }
+
+    /**
+     * Deterministic key so runs are comparable
+     */
+    static int[] fixedKey(int size) {
+        int[] key = new int[size];
+        for (int i = 0; i < size; i++) {
+            key[i] = i;
+        }
+        Random random = new Random(size);
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = key[i];
+            key[i] = key[j];
+            key[j] = tmp;
+        }
+        return key;
+    }
+
+    /**
+     * Deterministic text with a newline roughly every 70 characters
+     */
+    static String sampleText(int size) {
+        StringBuilder text = new StringBuilder(size);
+        String words = "The quick brown fox jumps over the lazy dog while 12345 clocks tick. ";
+        int i = 0;
+        while (text.length() < size) {
+            text.append(words, 0, Math.min(words.length() - 1, size - text.length()));
+            if (text.length() < size) {
+                text.append(++i % 3 == 0 ? ' ' : '\n');
+            }
+        }
+        return text.toString();
+    }
+}
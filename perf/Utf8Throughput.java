@@ -0,0 +1,92 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Throughput of the UTF-8 code-point mode on mostly-ASCII text.
+ *
+ * Encrypts the same sample text through {@link Utf8Transposer#encrypt}
+ * once as pure ASCII and once with one code point in 50 replaced by a
+ * two, three or four byte one, and prints MB/s for both. Fails when the
+ * mostly-ASCII run falls below the target share of the ASCII run, half
+ * of it by default, see {@link Utf8Transposer} for the measured ratios.
+ *
+ * Usage: Utf8Throughput [target ratio] [seconds per measurement]
+ */
+public class Utf8Throughput {
+
+    private static final int[] SIZES = {16_384, 262_144};
+    private static final int[] KEY_SIZES = {8, 64};
+    private static final int NON_ASCII_EVERY = 50;
+    private static final String[] NON_ASCII = {"é", "中", "😀"};
+
+    public static void main(String[] args) {
+        double target = args.length > 0 ? Double.parseDouble(args[0]) : 0.5;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+
+        System.out.printf("UTF-8 code-point encrypt, 1 in %d code points non-ASCII, %.1f s per measurement%n",
+                NON_ASCII_EVERY, seconds);
+        System.out.println();
+        System.out.printf("%-9s %-5s %12s %14s %8s  %s%n", "Input", "Key", "ASCII MB/s", "Mixed MB/s", "Ratio", "Status");
+        System.out.println("-".repeat(62));
+        int misses = 0;
+        for (int size : SIZES) {
+            String ascii = ThroughputGate.sampleText(size);
+            byte[] asciiBytes = ascii.getBytes(StandardCharsets.UTF_8);
+            byte[] mixedBytes = mostlyAscii(ascii).getBytes(StandardCharsets.UTF_8);
+            for (int keySize : KEY_SIZES) {
+                int[] key = ThroughputGate.fixedKey(keySize);
+                double asciiSpeed = measure(seconds, asciiBytes.length, () -> Utf8Transposer.encrypt(asciiBytes, key));
+                double mixedSpeed = measure(seconds, mixedBytes.length, () -> Utf8Transposer.encrypt(mixedBytes, key));
+                double ratio = mixedSpeed / asciiSpeed;
+                boolean ok = ratio >= target;
+                if (!ok) {
+                    misses++;
+                }
+                System.out.printf("%-9s %-5d %12.2f %14.2f %7.2fx  %s%n", CryptoEngine.formatBytes(size), keySize,
+                        asciiSpeed, mixedSpeed, ratio, ok ? "ok" : "BELOW TARGET");
+            }
+        }
+        System.out.println();
+        if (misses > 0) {
+            System.out.printf("%d measurement(s) below %.0f%% of the ASCII throughput%n", misses, target * 100);
+            System.exit(1);
+        }
+        System.out.printf("Mostly-ASCII input within %.0f%% of the ASCII throughput%n", target * 100);
+    }
+
+    /**
+     * The text with every 50th character swapped for a multi-byte code point
+     */
+    private static String mostlyAscii(String ascii) {
+        StringBuilder text = new StringBuilder(ascii.length() + ascii.length() / NON_ASCII_EVERY);
+        for (int i = 0; i < ascii.length(); i++) {
+            char c = ascii.charAt(i);
+            if (i % NON_ASCII_EVERY == NON_ASCII_EVERY - 1 && c != '\n') {
+                text.append(NON_ASCII[(i / NON_ASCII_EVERY) % NON_ASCII.length]);
+            } else {
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Runs the task repeatedly, first to warm up and then for the given time
+     * @return MB per second
+     */
+    private static double measure(double seconds, long bytesPerRun, Runnable task) {
+        long warmupEnd = System.nanoTime() + (long) (seconds * 0.3e9);
+        while (System.nanoTime() < warmupEnd) {
+            task.run();
+        }
+        long runs = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        long now;
+        do {
+            task.run();
+            runs++;
+            now = System.nanoTime();
+        } while (now < end);
+        return runs * bytesPerRun / ((now - start) / 1e9) / (1024 * 1024);
+    }
+}
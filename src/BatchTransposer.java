@@ -0,0 +1,210 @@
+import java.nio.CharBuffer;
+import java.util.List;
+
+/**
+ * Encrypts or decrypts many small payloads in one go.
+ *
+ * A call to {@link Crypto#encrypt} for a few hundred characters spends
+ * much of its time on key validation, allocation and bookkeeping rather
+ * than on the permutation. A batch validates each distinct key once and
+ * lays all payloads out back to back in one buffer, each padded to whole
+ * rows. With a shared key no row straddles two payloads, so one loop
+ * permutes the whole buffer. The results share one output array and are
+ * handed back as slices of it.
+ *
+ * Every result is exactly what {@link Crypto#encrypt} or
+ * {@link Crypto#decrypt} returns for that payload.
+ */
+final class BatchTransposer {
+
+    private BatchTransposer() {
+    }
+
+    /**
+     * Results of a batch, backed by one shared array
+     */
+    static final class Batch {
+        private final char[] output;
+        private final int[] offsets;
+        private final int[] lengths;
+
+        Batch(char[] output, int[] offsets, int[] lengths) {
+            this.output = output;
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+
+        /**
+         * @return number of payloads
+         */
+        int size() {
+            return lengths.length;
+        }
+
+        /**
+         * @return result i as a read-only view, without copying
+         */
+        CharSequence slice(int i) {
+            return CharBuffer.wrap(output, offsets[i], lengths[i]).slice().asReadOnlyBuffer();
+        }
+
+        /**
+         * @return result i as a String
+         */
+        String get(int i) {
+            return new String(output, offsets[i], lengths[i]);
+        }
+    }
+
+    /**
+     * Encrypts every payload with the same key
+     */
+    static Batch encrypt(List<String> payloads, int[] key) {
+        Crypto.validateKey(key);
+        return transform(payloads, key, null, false);
+    }
+
+    /**
+     * Encrypts every payload with its own key
+     * @param keys one key per payload; the same array may appear many times
+     */
+    static Batch encrypt(List<String> payloads, List<int[]> keys) {
+        return transform(payloads, null, orders(keys, payloads.size(), false), false);
+    }
+
+    /**
+     * Decrypts every payload with the same key
+     */
+    static Batch decrypt(List<String> payloads, int[] key) {
+        Crypto.validateKey(key);
+        return transform(payloads, TextTransposer.invert(key), null, true);
+    }
+
+    /**
+     * Decrypts every payload with its own key
+     * @param keys one key per payload; the same array may appear many times
+     */
+    static Batch decrypt(List<String> payloads, List<int[]> keys) {
+        return transform(payloads, null, orders(keys, payloads.size(), true), true);
+    }
+
+    /**
+     * Validates each distinct key once and inverts it for decrypt
+     */
+    private static int[][] orders(List<int[]> keys, int count, boolean decrypt) {
+        if (keys == null || keys.size() != count) {
+            throw new IllegalArgumentException("One key per payload is required.");
+        }
+        int[][] orders = new int[count][];
+        int[] lastKey = null;
+        int[] lastOrder = null;
+        for (int i = 0; i < count; i++) {
+            int[] key = keys.get(i);
+            if (key != lastKey) {
+                Crypto.validateKey(key);
+                lastKey = key;
+                lastOrder = decrypt ? TextTransposer.invert(key) : key;
+            }
+            orders[i] = lastOrder;
+        }
+        return orders;
+    }
+
+    /**
+     * @param sharedOrder the order for every payload, or null to use orders
+     * @param orders one order per payload when there is no shared one
+     */
+    private static Batch transform(List<String> payloads, int[] sharedOrder, int[][] orders, boolean decrypt) {
+        int count = payloads.size();
+        long totalInput = 0;
+        long totalPadded = 0;
+        for (int i = 0; i < count; i++) {
+            String text = payloads.get(i);
+            if (text == null || text.isEmpty()) {
+                throw new IllegalArgumentException((decrypt ? "Encrypted text cannot be null or empty"
+                        : "Text cannot be null or empty") + " (payload " + i + ")");
+            }
+            int k = sharedOrder != null ? sharedOrder.length : orders[i].length;
+            totalInput += text.length();
+            totalPadded += text.length() + k;
+        }
+        if (totalPadded + totalInput > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Batch is too large, split it into smaller batches.");
+        }
+
+        BufferPool pool = BufferPool.shared();
+        char[] work = pool.borrowChars((int) totalPadded);
+        char[] permuted = pool.borrowChars((int) totalPadded);
+        try {
+            // Lay the payloads out without line breaks, each padded to whole rows
+            int[] starts = new int[count + 1];
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                String text = payloads.get(i);
+                int k = sharedOrder != null ? sharedOrder.length : orders[i].length;
+                starts[i] = position;
+                for (int c = 0, n = text.length(); c < n; c++) {
+                    char ch = text.charAt(c);
+                    if (!TextTransposer.isLineBreak(ch)) {
+                        work[position++] = ch;
+                    }
+                }
+                int padded = starts[i] + (position - starts[i] + k - 1) / k * k;
+                while (position < padded) {
+                    work[position++] = ' ';
+                }
+            }
+            starts[count] = position;
+
+            // Permute; with a shared key the whole buffer is one run of rows
+            if (sharedOrder != null) {
+                permute(work, permuted, 0, position, sharedOrder);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    permute(work, permuted, starts[i], starts[i + 1], orders[i]);
+                }
+            }
+
+            // Put '\n' back per payload, as Crypto does
+            char[] output = new char[position + (int) totalInput];
+            int[] offsets = new int[count];
+            int[] lengths = new int[count];
+            int out = 0;
+            for (int i = 0; i < count; i++) {
+                String text = payloads.get(i);
+                int inputLength = text.length();
+                int next = starts[i];
+                int end = starts[i + 1];
+                int base = out;
+                while (next < end) {
+                    int o = out - base;
+                    if (o < inputLength && text.charAt(o) == '\n') {
+                        output[out++] = '\n';
+                    } else {
+                        output[out++] = permuted[next++];
+                    }
+                }
+                if (decrypt) {
+                    while (out > base && Character.isWhitespace(output[out - 1])) {
+                        out--;
+                    }
+                }
+                offsets[i] = base;
+                lengths[i] = out - base;
+            }
+            return new Batch(output, offsets, lengths);
+        } finally {
+            pool.release(work);
+            pool.release(permuted);
+        }
+    }
+
+    private static void permute(char[] in, char[] out, int start, int end, int[] order) {
+        int k = order.length;
+        for (int row = start; row < end; row += k) {
+            for (int j = 0; j < k; j++) {
+                out[row + j] = in[row + order[j]];
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import javax.management.*;
+
+/**
+ * Size-classed pool of reusable char[], byte[] and direct ByteBuffer
+ * buffers for the encrypt/decrypt engine.
+ *
+ * Every request is rounded up to the next power of two (at least
+ * {@link #MIN_CLASS_SIZE}), so a borrowed buffer may be longer than asked
+ * for. Each size class is a lock-free queue shared by all threads. Buffers
+ * above {@link #MAX_CLASS_SIZE} elements are never pooled.
+ *
+ * The pool keeps at most a fixed number of bytes, set with
+ * {@code -Dcrypto.pool.maxBytes} (default 64 MB) for the shared pool. A
+ * buffer returned to a full pool is dropped and left to the garbage
+ * collector. Reusing input-sized arrays keeps large short-lived
+ * allocations out of the old generation under concurrent load.
+ *
+ * Buffers are zeroed before they go back into a queue, so text one caller
+ * released is never handed to the next. A buffer must not be used after
+ * it has been released.
+ */
+final class BufferPool implements BufferPoolMXBean {
+
+    static final int MIN_CLASS_SIZE = 1024;
+    static final int MAX_CLASS_SIZE = 1 << 26;
+    static final String OBJECT_NAME = "Crypto:type=BufferPool";
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE) - MIN_SHIFT + 1;
+
+    private static final BufferPool SHARED = new BufferPool(
+            Long.getLong("crypto.pool.maxBytes", 64L * 1024 * 1024)).register();
+
+    private final long maxRetainedBytes;
+    private final Queue<char[]>[] chars = newQueues();
+    private final Queue<byte[]>[] bytes = newQueues();
+    private final Queue<ByteBuffer>[] direct = newQueues();
+
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicLong retainedDirectBytes = new AtomicLong();
+    private final AtomicInteger retainedBuffers = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param maxRetainedBytes the most bytes the pool will hold
+     */
+    BufferPool(long maxRetainedBytes) {
+        if (maxRetainedBytes < 0) {
+            throw new IllegalArgumentException("Pool size cannot be negative.");
+        }
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * @return the process-wide pool used by {@link Crypto}
+     */
+    static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param minLength smallest acceptable length
+     * @return a char array of at least minLength, with undefined contents
+     */
+    char[] borrowChars(int minLength) {
+        borrows.increment();
+        int index = classIndex(minLength);
+        char[] buffer = index < 0 ? null : take(chars[index], 2L << (index + MIN_SHIFT), false);
+        return buffer != null ? buffer : new char[allocationSize(minLength, index)];
+    }
+
+    /**
+     * Returns a char array obtained from {@link #borrowChars}
+     */
+    void release(char[] buffer) {
+        if (buffer != null) {
+            offer(chars, buffer, buffer.length, 2L * buffer.length, false, b -> Arrays.fill(b, '\0'));
+        }
+    }
+
+    /**
+     * @param minLength smallest acceptable length
+     * @return a byte array of at least minLength, with undefined contents
+     */
+    byte[] borrowBytes(int minLength) {
+        borrows.increment();
+        int index = classIndex(minLength);
+        byte[] buffer = index < 0 ? null : take(bytes[index], 1L << (index + MIN_SHIFT), false);
+        return buffer != null ? buffer : new byte[allocationSize(minLength, index)];
+    }
+
+    /**
+     * Returns a byte array obtained from {@link #borrowBytes}
+     */
+    void release(byte[] buffer) {
+        if (buffer != null) {
+            offer(bytes, buffer, buffer.length, buffer.length, false, b -> Arrays.fill(b, (byte) 0));
+        }
+    }
+
+    /**
+     * @param minCapacity smallest acceptable capacity
+     * @return a cleared direct buffer of at least minCapacity
+     */
+    ByteBuffer borrowDirect(int minCapacity) {
+        borrows.increment();
+        int index = classIndex(minCapacity);
+        ByteBuffer buffer = index < 0 ? null : take(direct[index], 1L << (index + MIN_SHIFT), true);
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(allocationSize(minCapacity, index));
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #borrowDirect}
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect()) {
+            offer(direct, buffer, buffer.capacity(), buffer.capacity(), true, BufferPool::zero);
+        }
+    }
+
+    /**
+     * @return the size class for a length, or -1 when it is too large to pool
+     */
+    private static int classIndex(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Buffer length cannot be negative.");
+        }
+        if (length > MAX_CLASS_SIZE) {
+            return -1;
+        }
+        int size = Math.max(MIN_CLASS_SIZE, length);
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    private static int allocationSize(int minLength, int index) {
+        return index < 0 ? minLength : 1 << (index + MIN_SHIFT);
+    }
+
+    private <T> T take(Queue<T> queue, long size, boolean isDirect) {
+        T buffer = queue.poll();
+        if (buffer != null) {
+            hits.increment();
+            retainedBuffers.decrementAndGet();
+            retainedBytes.addAndGet(-size);
+            if (isDirect) {
+                retainedDirectBytes.addAndGet(-size);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * @param wipe clears the buffer once it is known to be kept
+     */
+    private <T> void offer(Queue<T>[] queues, T buffer, int length, long size, boolean isDirect,
+            Consumer<T> wipe) {
+        if (length < MIN_CLASS_SIZE || length > MAX_CLASS_SIZE || Integer.bitCount(length) != 1) {
+            // Not one of ours
+            return;
+        }
+        long retained = retainedBytes.addAndGet(size);
+        if (retained > maxRetainedBytes) {
+            retainedBytes.addAndGet(-size);
+            dropped.increment();
+            return;
+        }
+        if (isDirect) {
+            retainedDirectBytes.addAndGet(size);
+        }
+        wipe.accept(buffer);
+        retainedBuffers.incrementAndGet();
+        queues[Integer.numberOfTrailingZeros(length) - MIN_SHIFT].offer(buffer);
+    }
+
+    private static void zero(ByteBuffer buffer) {
+        buffer.clear();
+        while (buffer.remaining() >= Long.BYTES) {
+            buffer.putLong(0);
+        }
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        buffer.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Queue<T>[] newQueues() {
+        Queue<T>[] queues = (Queue<T>[]) new Queue<?>[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            queues[i] = new ConcurrentLinkedQueue<>();
+        }
+        return queues;
+    }
+
+    private BufferPool register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            System.err.println("Failed to register buffer pool MBean: " + e.getMessage());
+        }
+        return this;
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return borrows.sum();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long total = borrows.sum();
+        return total == 0 ? 0.0 : (double) hits.sum() / total;
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    @Override
+    public int getRetainedBuffers() {
+        return retainedBuffers.get();
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    @Override
+    public long getRetainedDirectBytes() {
+        return retainedDirectBytes.get();
+    }
+
+    @Override
+    public long getMaxRetainedBytes() {
+        return maxRetainedBytes;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < CLASSES; i++) {
+            drain(chars[i], 2L << (i + MIN_SHIFT), false);
+            drain(bytes[i], 1L << (i + MIN_SHIFT), false);
+            drain(direct[i], 1L << (i + MIN_SHIFT), true);
+        }
+    }
+
+    private <T> void drain(Queue<T> queue, long size, boolean isDirect) {
+        while (queue.poll() != null) {
+            retainedBuffers.decrementAndGet();
+            retainedBytes.addAndGet(-size);
+            if (isDirect) {
+                retainedDirectBytes.addAndGet(-size);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Management interface of the shared {@link BufferPool}.
+ * Registered on the platform MBean server as {@code Crypto:type=BufferPool}
+ */
+public interface BufferPoolMXBean {
+
+    /**
+     * @return buffers handed out, pooled or freshly allocated
+     */
+    long getBorrowCount();
+
+    /**
+     * @return borrows answered with a pooled buffer
+     */
+    long getHitCount();
+
+    /**
+     * @return fraction of borrows answered with a pooled buffer, 0 when unused
+     */
+    double getHitRate();
+
+    /**
+     * @return buffers returned but not kept because the pool was full
+     */
+    long getDroppedCount();
+
+    /**
+     * @return buffers currently held by the pool
+     */
+    int getRetainedBuffers();
+
+    /**
+     * @return bytes currently held by the pool, heap and direct
+     */
+    long getRetainedBytes();
+
+    /**
+     * @return bytes of direct memory currently held by the pool
+     */
+    long getRetainedDirectBytes();
+
+    /**
+     * @return the most bytes the pool will hold
+     */
+    long getMaxRetainedBytes();
+
+    /**
+     * Releases every pooled buffer to the garbage collector
+     */
+    void clear();
+}
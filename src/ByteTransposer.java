@@ -0,0 +1,145 @@
+/**
+ * Transposition of arbitrary bytes, for data that is not text.
+ *
+ * The input is cut into rows of key-length bytes and each row is permuted
+ * with the key, like {@link Crypto#encrypt} does with characters. Nothing
+ * is padded and no byte is treated specially: a final short row of r bytes
+ * is permuted with the key restricted to the values below r, so the output
+ * is always exactly as long as the input and the permutation stays
+ * invertible.
+ *
+ * Only the current partial row is kept between {@link #update} calls.
+ */
+final class ByteTransposer {
+
+    private final int[] key;
+    private final boolean decrypt;
+    private final int[] order;
+    private final byte[] row;
+    private int rowFill;
+    private long processed;
+
+    /**
+     * @param key encryption key
+     * @param decrypt true to apply the inverse permutation
+     */
+    ByteTransposer(int[] key, boolean decrypt) {
+        Crypto.validateKey(key);
+        this.key = key.clone();
+        this.decrypt = decrypt;
+        this.order = decrypt ? TextTransposer.invert(key) : key.clone();
+        this.row = new byte[key.length];
+    }
+
+    /**
+     * @return the row length
+     */
+    int blockSize() {
+        return row.length;
+    }
+
+    /**
+     * @return bytes held back because they do not fill a row yet
+     */
+    int buffered() {
+        return rowFill;
+    }
+
+    /**
+     * @return bytes passed through since construction or the last reset
+     */
+    long processed() {
+        return processed;
+    }
+
+    /**
+     * @param inputLength bytes about to be passed to update
+     * @return how many bytes that update call will produce
+     */
+    int updateOutputSize(int inputLength) {
+        int total = rowFill + inputLength;
+        return total - total % row.length;
+    }
+
+    /**
+     * Permutes every row completed by the given input
+     * @param in input bytes
+     * @param inOff offset of the first input byte
+     * @param len number of input bytes
+     * @param out destination, needs room for {@link #updateOutputSize(int)} bytes
+     * @param outOff offset of the first output byte
+     * @return number of bytes written to out
+     */
+    int update(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        int k = row.length;
+        int produced = 0;
+        if (rowFill > 0) {
+            int n = Math.min(k - rowFill, len);
+            System.arraycopy(in, inOff, row, rowFill, n);
+            rowFill += n;
+            inOff += n;
+            len -= n;
+            if (rowFill < k) {
+                return 0;
+            }
+            permute(row, 0, out, outOff, order);
+            rowFill = 0;
+            produced = k;
+        }
+        // Whole rows go straight from input to output
+        while (len >= k) {
+            permute(in, inOff, out, outOff + produced, order);
+            inOff += k;
+            len -= k;
+            produced += k;
+        }
+        System.arraycopy(in, inOff, row, 0, len);
+        rowFill = len;
+        processed += produced;
+        return produced;
+    }
+
+    /**
+     * Permutes the final short row and resets for a new message
+     * @param out destination, needs room for {@link #buffered()} bytes
+     * @param outOff offset of the first output byte
+     * @return number of bytes written to out
+     */
+    int doFinal(byte[] out, int outOff) {
+        int r = rowFill;
+        if (r > 0) {
+            permute(row, 0, out, outOff, tailOrder(r));
+        }
+        processed += r;
+        rowFill = 0;
+        return r;
+    }
+
+    /**
+     * Forgets any buffered bytes and the processed count
+     */
+    void reset() {
+        rowFill = 0;
+        processed = 0;
+    }
+
+    /**
+     * Order for a row of r &lt; k bytes: the key entries below r, in key order
+     */
+    private int[] tailOrder(int r) {
+        int[] restricted = new int[r];
+        int n = 0;
+        for (int value : key) {
+            if (value < r) {
+                restricted[n++] = value;
+            }
+        }
+        return decrypt ? TextTransposer.invert(restricted) : restricted;
+    }
+
+    private static void permute(byte[] in, int inOff, byte[] out, int outOff, int[] order) {
+        for (int j = 0; j < order.length; j++) {
+            out[outOff + j] = in[inOff + order[j]];
+        }
+    }
+}
@@ -0,0 +1,420 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * Long running encryption of big files that survives being interrupted.
+ *
+ * Every file of a job is cut into row-aligned chunks that are transposed
+ * independently with {@link ShardedEncryption#processShard}, each into the
+ * same byte range of its output. The chunks of all files are queued on a
+ * {@link SizeAwareScheduler} by the size of their file, so the small files
+ * of a job are done early instead of after every large one. A journal
+ * next to the job records the files, a fingerprint of the key and, as work
+ * progresses, every chunk whose output has been forced to disk and every
+ * file that is complete.
+ * The journal is synced at most once per sync interval, so a crash loses
+ * at most that much progress; a chunk that is not in the journal is simply
+ * done again, which writes the same bytes. {@link #resume} reads the
+ * journal, checks that the inputs and the key are unchanged and does only
+ * the missing chunks, so the output is byte-identical to an uninterrupted
+ * run. When a file is encrypted its checksum file is written from the
+ * chunk CRCs, see {@link ChunkChecksums}. The journal is deleted when the
+ * job is done and left in place when it fails.
+ *
+ * Output is the length-preserving format of {@link TranspositionOutputStream},
+ * the same as {@link ShardedEncryption} writes. It is not the text format
+ * of {@link Crypto#encrypt}, so files a job encrypts from a directory are
+ * named with {@link #OUTPUT_PREFIX} instead of {@code encrypted_}, which
+ * {@link KeyRotation} takes for text.
+ */
+final class CheckpointedJob {
+
+    static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    static final long DEFAULT_SYNC_MILLIS = 1000;
+    /** Prefix of the files a job encrypts from a directory */
+    static final String OUTPUT_PREFIX = "transposed_";
+    private static final String HEADER = "crypto-job 1";
+
+    private final File journal;
+    private final int chunkSize;
+    private final long syncMillis;
+    private final int threads;
+    private final ChunkListener listener;
+
+    private FileChannel channel;
+    private long lastSync;
+    private volatile boolean journaled;
+
+    /**
+     * Told about every chunk once it is recorded in the journal
+     */
+    interface ChunkListener {
+        /**
+         * Called on the worker that did the chunk. An exception fails the job
+         * like an error in the chunk itself would; the chunk stays recorded.
+         * @param file index of the file in the job
+         */
+        void chunkDone(int file, long offset, long length) throws IOException;
+    }
+
+    /**
+     * Result of a run
+     */
+    static final class Summary {
+        final int files;
+        final int chunks;
+        final int skipped;
+
+        Summary(int files, int chunks, int skipped) {
+            this.files = files;
+            this.chunks = chunks;
+            this.skipped = skipped;
+        }
+
+        @Override
+        public String toString() {
+            return files + " file(s), " + chunks + " chunk(s), " + skipped + " already done";
+        }
+    }
+
+    /**
+     * One input file of a job and the chunks already done
+     */
+    private static final class Entry {
+        final File input;
+        final File output;
+        final long size;
+        final long modified;
+        /** CRC32C of every chunk done, by offset */
+        final Map<Long, Long> done = new ConcurrentHashMap<>();
+        boolean complete;
+
+        Entry(File input, File output, long size, long modified) {
+            this.input = input;
+            this.output = output;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * @param journal where progress is recorded
+     * @param chunkSize bytes per chunk, rounded down to whole rows
+     * @param syncMillis longest time between journal syncs; 0 syncs every record
+     * @param threads chunks processed at the same time
+     */
+    CheckpointedJob(File journal, int chunkSize, long syncMillis, int threads) {
+        this(journal, chunkSize, syncMillis, threads, null);
+    }
+
+    /**
+     * @param listener told about every chunk done, or null
+     */
+    CheckpointedJob(File journal, int chunkSize, long syncMillis, int threads, ChunkListener listener) {
+        if (journal == null) {
+            throw new IllegalArgumentException("A journal file is required.");
+        }
+        if (chunkSize <= 0 || threads <= 0 || syncMillis < 0) {
+            throw new IllegalArgumentException("Chunk size and threads must be greater than zero.");
+        }
+        this.journal = journal;
+        this.chunkSize = chunkSize;
+        this.syncMillis = syncMillis;
+        this.threads = threads;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts a new job, replacing any journal left at the same place
+     * @param inputs files to transform
+     * @param outputs destination of each input, created or overwritten
+     */
+    Summary run(List<File> inputs, List<File> outputs, int[] key, boolean decrypt)
+            throws IOException, InterruptedException {
+        Crypto.validateKey(key);
+        if (inputs.size() != outputs.size()) {
+            throw new IllegalArgumentException("One output per input is required.");
+        }
+        int step = Math.max(1, chunkSize / key.length) * key.length;
+        List<Entry> entries = new ArrayList<>();
+        StringBuilder header = new StringBuilder(HEADER).append('\n');
+        header.append("mode\t").append(decrypt ? "decrypt" : "encrypt").append('\n');
+        header.append("key\t").append(fingerprint(key)).append('\n');
+        header.append("chunk\t").append(step).append('\n');
+        for (int i = 0; i < inputs.size(); i++) {
+            File input = inputs.get(i);
+            if (input == null || !input.isFile()) {
+                throw new IllegalArgumentException("File error: invalid file or file path.");
+            }
+            // Absolute paths, so the job can be resumed from another directory
+            Entry entry = new Entry(input.getAbsoluteFile(), outputs.get(i).getAbsoluteFile(), input.length(),
+                    input.lastModified());
+            entries.add(entry);
+            header.append("file\t").append(entry.size).append('\t').append(entry.modified).append('\t')
+                    .append(entry.input.getPath()).append('\t').append(entry.output.getPath()).append('\n');
+        }
+        header.append("begin\n");
+        channel = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        Summary summary;
+        try {
+            write(header.toString());
+            channel.force(true);
+            journaled = true;
+            summary = process(entries, key, decrypt, step);
+        } finally {
+            channel.close();
+        }
+        Files.delete(journal.toPath());
+        return summary;
+    }
+
+    /**
+     * @return true once a run has written its journal, so a failed run can be resumed
+     */
+    boolean journaled() {
+        return journaled;
+    }
+
+    /**
+     * Continues the job recorded in the journal
+     * @param key the key the job was started with
+     */
+    Summary resume(int[] key) throws IOException, InterruptedException {
+        Crypto.validateKey(key);
+        if (!journal.isFile()) {
+            throw new IllegalArgumentException("No job journal found at " + journal);
+        }
+        List<String> lines = new ArrayList<>();
+        long validLength = readLines(lines);
+        Map<String, String> settings = new HashMap<>();
+        List<Entry> entries = new ArrayList<>();
+        int line = 0;
+        if (lines.isEmpty() || !lines.get(line++).equals(HEADER)) {
+            throw new IOException("Not a job journal: " + journal);
+        }
+        for (; line < lines.size() && !lines.get(line).equals("begin"); line++) {
+            String[] fields = lines.get(line).split("\t");
+            if (fields[0].equals("file") && fields.length == 5) {
+                entries.add(new Entry(new File(fields[3]), new File(fields[4]),
+                        Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+            } else if (fields.length == 2) {
+                settings.put(fields[0], fields[1]);
+            } else {
+                throw new IOException("Corrupt job journal: " + journal);
+            }
+        }
+        if (line == lines.size() || !settings.containsKey("mode") || !settings.containsKey("chunk")) {
+            throw new IOException("Job journal is incomplete: " + journal);
+        }
+        if (!fingerprint(key).equals(settings.get("key"))) {
+            throw new IllegalArgumentException("Key does not match the one the job was started with.");
+        }
+        for (Entry entry : entries) {
+            if (!entry.input.isFile() || entry.input.length() != entry.size
+                    || entry.input.lastModified() != entry.modified) {
+                throw new IOException("Input changed since the job started: " + entry.input);
+            }
+        }
+        for (line++; line < lines.size(); line++) {
+            String[] fields = lines.get(line).split("\t");
+            Entry entry = entries.get(Integer.parseInt(fields[1]));
+            if (fields[0].equals("done")) {
+                entry.done.put(Long.parseLong(fields[2]), Long.parseLong(fields[4], 16));
+            } else if (fields[0].equals("complete")) {
+                entry.complete = true;
+            }
+        }
+        for (Entry entry : entries) {
+            if (!entry.output.isFile() || entry.output.length() != entry.size) {
+                // Whatever was recorded for this output is gone
+                entry.done.clear();
+                entry.complete = false;
+            }
+        }
+
+        channel = FileChannel.open(journal.toPath(), StandardOpenOption.WRITE);
+        Summary summary;
+        try {
+            // Drop a record torn by the crash before appending to the journal
+            channel.truncate(validLength);
+            channel.position(validLength);
+            summary = process(entries, key, settings.get("mode").equals("decrypt"),
+                    Integer.parseInt(settings.get("chunk")));
+        } finally {
+            channel.close();
+        }
+        Files.delete(journal.toPath());
+        return summary;
+    }
+
+    private Summary process(List<Entry> entries, int[] key, boolean decrypt, int step)
+            throws IOException, InterruptedException {
+        if (step % key.length != 0) {
+            throw new IllegalArgumentException("Key does not match the one the job was started with.");
+        }
+        lastSync = System.currentTimeMillis();
+        int chunks = 0;
+        int skipped = 0;
+        List<Future<?>> futures = new ArrayList<>();
+        // Queued chunks are skipped once one fails, so the job stops early
+        AtomicBoolean failed = new AtomicBoolean();
+        try (SizeAwareScheduler scheduler = new SizeAwareScheduler(threads, SizeAwareScheduler.DEFAULT_SMALL_LIMIT,
+                SizeAwareScheduler.DEFAULT_LARGE_THRESHOLD, step, SizeAwareScheduler.DEFAULT_WEIGHTS)) {
+            for (int index = 0; index < entries.size(); index++) {
+                Entry entry = entries.get(index);
+                if (entry.complete) {
+                    long count = (entry.size + step - 1) / step;
+                    chunks += count;
+                    skipped += count;
+                    continue;
+                }
+                if (!entry.output.isFile() || entry.output.length() != entry.size) {
+                    File parent = entry.output.getAbsoluteFile().getParentFile();
+                    if (parent != null) {
+                        parent.mkdirs();
+                    }
+                    try (RandomAccessFile file = new RandomAccessFile(entry.output, "rw")) {
+                        file.setLength(entry.size);
+                    }
+                }
+                int fileIndex = index;
+                // The last chunk of a file to finish marks the file complete
+                AtomicLong remaining = new AtomicLong((entry.size + step - 1) / step - entry.done.size());
+                if (remaining.get() == 0) {
+                    complete(entry, fileIndex, step, decrypt);
+                }
+                for (long offset = 0; offset < entry.size; offset += step) {
+                    chunks++;
+                    if (entry.done.containsKey(offset)) {
+                        skipped++;
+                        continue;
+                    }
+                    long chunkOffset = offset;
+                    long chunkLength = Math.min(step, entry.size - offset);
+                    futures.add(scheduler.submit(entry.size, chunkLength, () -> {
+                        if (failed.get()) {
+                            return null;
+                        }
+                        try {
+                            long crc = ShardedEncryption.processShard(entry.input, entry.output, key, decrypt,
+                                    chunkOffset, chunkLength);
+                            record("done\t" + fileIndex + "\t" + chunkOffset + "\t" + chunkLength + "\t"
+                                    + String.format("%08x", crc), false);
+                            entry.done.put(chunkOffset, crc);
+                            if (listener != null) {
+                                listener.chunkDone(fileIndex, chunkOffset, chunkLength);
+                            }
+                            if (remaining.decrementAndGet() == 0) {
+                                complete(entry, fileIndex, step, decrypt);
+                            }
+                            return null;
+                        } catch (IOException | RuntimeException e) {
+                            failed.set(true);
+                            throw e;
+                        }
+                    }));
+                }
+            }
+            try {
+                await(futures);
+            } finally {
+                // Closing the scheduler runs what is still queued, which must do nothing now
+                failed.set(true);
+            }
+            return new Summary(entries.size(), chunks, skipped);
+        }
+    }
+
+    /**
+     * Writes the checksum file of an encrypted output, then records the file as complete
+     */
+    private void complete(Entry entry, int index, int step, boolean decrypt) throws IOException {
+        if (!decrypt && ChunkChecksums.ENABLED) {
+            long[] checksums = new long[entry.done.size()];
+            for (int i = 0; i < checksums.length; i++) {
+                checksums[i] = entry.done.get((long) i * step);
+            }
+            ChunkChecksums.write(entry.output, step, checksums);
+        }
+        record("complete\t" + index, true);
+    }
+
+    private static void await(List<Future<?>> futures) throws IOException, InterruptedException {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                for (Future<?> other : futures) {
+                    other.cancel(false);
+                }
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * Appends a record and syncs the journal when the interval has passed
+     * @param sync true to sync now regardless of the interval
+     */
+    private synchronized void record(String line, boolean sync) throws IOException {
+        write(line + "\n");
+        long now = System.currentTimeMillis();
+        if (sync || now - lastSync >= syncMillis) {
+            channel.force(false);
+            lastSync = now;
+        }
+    }
+
+    private void write(String text) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * Reads the complete lines of the journal
+     * @return length in bytes of the complete lines
+     */
+    private long readLines(List<String> lines) throws IOException {
+        byte[] bytes = Files.readAllBytes(journal.toPath());
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                lines.add(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * @return key length and CRC32C of the key, so a resume with another key is refused
+     */
+    private static String fingerprint(int[] key) {
+        CRC32C crc = new CRC32C();
+        ByteBuffer bytes = ByteBuffer.allocate(key.length * 4);
+        for (int value : key) {
+            bytes.putInt(value);
+        }
+        crc.update(bytes.array());
+        return key.length + "/" + String.format("%08x", crc.getValue());
+    }
+}
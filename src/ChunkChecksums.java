@@ -0,0 +1,258 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Per-chunk CRC32C checksums of encrypted files.
+ *
+ * When a file is encrypted a sidecar {@code <file>.crc32c} is written with
+ * the checksum of every fixed-size chunk of the encrypted bytes. Verifying
+ * recomputes the checksums from the encrypted file alone, so corruption is
+ * found at disk read speed without the key and without decrypting or
+ * writing anything. CRC32C is computed with the JDK intrinsic, which uses
+ * the CPU's CRC instructions where available.
+ */
+final class ChunkChecksums {
+
+    static final String SUFFIX = ".crc32c";
+    static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private static final String HEADER = "# Crypto chunk checksums v1";
+
+    /**
+     * Whether encrypting writes checksum files, disabled with -Dcrypto.checksums=false
+     */
+    static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("crypto.checksums"));
+
+    /**
+     * Outcome of verifying one file
+     */
+    static final class Report {
+        final File file;
+        final long chunks;
+        final List<Long> corruptedOffsets;
+        final String problem;
+
+        Report(File file, long chunks, List<Long> corruptedOffsets, String problem) {
+            this.file = file;
+            this.chunks = chunks;
+            this.corruptedOffsets = corruptedOffsets;
+            this.problem = problem;
+        }
+
+        boolean ok() {
+            return problem == null && corruptedOffsets.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            if (problem != null) {
+                return "FAILED  " + file + ": " + problem;
+            }
+            if (corruptedOffsets.isEmpty()) {
+                return "OK      " + file + " (" + chunks + " chunks)";
+            }
+            return "CORRUPT " + file + ": " + corruptedOffsets.size() + " of " + chunks
+                    + " chunks differ, at byte offsets " + corruptedOffsets;
+        }
+    }
+
+    private ChunkChecksums() {
+    }
+
+    /**
+     * @return the checksum file that belongs to an encrypted file
+     */
+    static File sidecar(File encrypted) {
+        return new File(encrypted.getPath() + SUFFIX);
+    }
+
+    /**
+     * Writes the checksum file for an encrypted file with the default chunk size
+     */
+    static void write(File encrypted) throws IOException {
+        write(encrypted, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Writes the checksum file for an encrypted file
+     * @param encrypted the encrypted file
+     * @param chunkSize bytes covered by each checksum
+     */
+    static void write(File encrypted, int chunkSize) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be greater than zero.");
+        }
+        write(encrypted, chunkSize, compute(encrypted, chunkSize));
+    }
+
+    /**
+     * Writes the checksum file from checksums computed while the file was written
+     * @param encrypted the encrypted file, already complete
+     * @param chunkSize bytes covered by each checksum
+     * @param checksums CRC32C of every chunk, in file order
+     */
+    static void write(File encrypted, int chunkSize, long[] checksums) throws IOException {
+        long length = encrypted.length();
+        if (chunkSize <= 0 || checksums.length != (length + chunkSize - 1) / chunkSize) {
+            throw new IllegalArgumentException("One checksum per chunk of the file is required.");
+        }
+        File sidecar = sidecar(encrypted);
+        File temp = new File(sidecar.getPath() + ".tmp");
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(temp)))) {
+            writer.println(HEADER);
+            writer.println("chunkSize=" + chunkSize + " length=" + length);
+            for (long checksum : checksums) {
+                writer.println(String.format("%08x", checksum));
+            }
+        }
+        Files.move(temp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Checks an encrypted file against its checksum file
+     * @param encrypted the encrypted file
+     * @return which chunks, if any, no longer match
+     */
+    static Report verify(File encrypted) {
+        File sidecar = sidecar(encrypted);
+        if (!encrypted.isFile()) {
+            return new Report(encrypted, 0, Collections.emptyList(), "file not found");
+        }
+        if (!sidecar.isFile()) {
+            return new Report(encrypted, 0, Collections.emptyList(), "no checksum file " + sidecar.getName());
+        }
+        int chunkSize;
+        long expectedLength;
+        List<Long> expected = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(sidecar))) {
+            String settings = HEADER.equals(reader.readLine()) ? reader.readLine() : null;
+            if (settings == null || !settings.matches("chunkSize=\\d+ length=\\d+")) {
+                return new Report(encrypted, 0, Collections.emptyList(), "unreadable checksum file");
+            }
+            String[] parts = settings.split("[ =]");
+            chunkSize = Integer.parseInt(parts[1]);
+            expectedLength = Long.parseLong(parts[3]);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                expected.add(Long.parseLong(line.trim(), 16));
+            }
+        } catch (IOException | NumberFormatException e) {
+            return new Report(encrypted, 0, Collections.emptyList(), "unreadable checksum file: " + e.getMessage());
+        }
+
+        long[] actual;
+        try {
+            actual = compute(encrypted, chunkSize);
+        } catch (IOException e) {
+            return new Report(encrypted, 0, Collections.emptyList(), "read error: " + e.getMessage());
+        }
+        List<Long> corrupted = new ArrayList<>();
+        long chunks = Math.max(actual.length, expected.size());
+        for (int i = 0; i < chunks; i++) {
+            if (i >= actual.length || i >= expected.size() || actual[i] != expected.get(i)) {
+                corrupted.add((long) i * chunkSize);
+            }
+        }
+        long length = encrypted.length();
+        String problem = length == expectedLength ? null
+                : String.format("length is %d bytes, expected %d; chunks differ at byte offsets %s",
+                        length, expectedLength, corrupted);
+        return new Report(encrypted, chunks, corrupted, problem);
+    }
+
+    /**
+     * Verifies many files in parallel
+     * @param files encrypted files
+     * @param threads number of files checked at the same time
+     * @return one report per file, in the given order
+     */
+    static List<Report> verifyAll(List<File> files, int threads) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "crypto-verify");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Report>> futures = new ArrayList<>();
+            for (File file : files) {
+                futures.add(pool.submit(() -> verify(file)));
+            }
+            List<Report> reports = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    reports.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    reports.add(new Report(files.get(i), 0, Collections.emptyList(),
+                            String.valueOf(e.getCause())));
+                }
+            }
+            return reports;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Expands directories into the encrypted files that have a checksum file
+     */
+    static List<File> collect(List<String> paths) {
+        List<File> files = new ArrayList<>();
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                File[] children = file.listFiles((dir, name) -> !name.endsWith(SUFFIX)
+                        && new File(dir, name + SUFFIX).isFile());
+                if (children != null) {
+                    Arrays.sort(children);
+                    files.addAll(Arrays.asList(children));
+                }
+            } else {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static long[] compute(File file, int chunkSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] checksums = new long[(int) ((size + chunkSize - 1) / chunkSize)];
+            BufferPool pool = BufferPool.shared();
+            ByteBuffer buffer = pool.borrowDirect(Math.min(chunkSize, 1024 * 1024));
+            try {
+                fill(channel, checksums, chunkSize, buffer);
+            } finally {
+                pool.release(buffer);
+            }
+            return checksums;
+        }
+    }
+
+    private static void fill(FileChannel channel, long[] checksums, int chunkSize, ByteBuffer buffer)
+            throws IOException {
+        long size = channel.size();
+        CRC32C crc = new CRC32C();
+        long position = 0;
+        for (int i = 0; i < checksums.length; i++) {
+            crc.reset();
+            long end = Math.min(size, position + chunkSize);
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new EOFException("File shrank while reading");
+                }
+                buffer.flip();
+                crc.update(buffer);
+                position += n;
+            }
+            checksums[i] = crc.getValue();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.*;
+
+/**
+ * Encryption with an optional compression stage for mostly-text archives.
+ *
+ * Encrypting deflates the plain bytes first and then transposes the
+ * compressed stream with a {@link ByteTransposer}; decrypting reverses the
+ * permutation and then inflates. Transposition keeps the size unchanged,
+ * so compressing first is what shrinks the file. Everything is streamed,
+ * and the compression level trades CPU time against bytes written.
+ *
+ * The output starts with a short unencrypted header so that decrypt can
+ * tell a compressed file from a plain one.
+ */
+final class CompressedTransposition {
+
+    static final byte[] MAGIC = {'C', 'T', 'Z', 1};
+
+    /**
+     * Level used when none is given, from -Dcrypto.compression.level.
+     * Defaults to {@link Deflater#BEST_SPEED} since the target workloads
+     * are I/O-bound.
+     */
+    static final int DEFAULT_LEVEL = Integer.getInteger("crypto.compression.level", Deflater.BEST_SPEED);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CompressedTransposition() {
+    }
+
+    /**
+     * Compresses and encrypts a stream
+     * @param in plain bytes
+     * @param out destination of the header and encrypted bytes, left open
+     * @param key encryption key
+     * @param level {@link Deflater} level from 0 (store only) to 9, or -1 for the zlib default
+     * @return number of bytes written to out
+     */
+    static long encrypt(InputStream in, OutputStream out, int[] key, int level) throws IOException {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between -1 and 9.");
+        }
+        out.write(MAGIC);
+        Deflater deflater = new Deflater(level);
+        try {
+            TranspositionOutputStream transposed = new TranspositionOutputStream(nonClosing(out), key, false);
+            try (DeflaterOutputStream deflated = new DeflaterOutputStream(transposed, deflater, BUFFER_SIZE)) {
+                copy(in, deflated);
+            }
+            return MAGIC.length + transposed.processed();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decrypts and decompresses a stream written by {@link #encrypt}
+     * @param in header and encrypted bytes
+     * @param out destination of the plain bytes, left open
+     * @param key encryption key
+     * @return number of plain bytes written
+     */
+    static long decrypt(InputStream in, OutputStream out, int[] key) throws IOException {
+        byte[] header = new byte[MAGIC.length];
+        int n = in.readNBytes(header, 0, header.length);
+        if (n != header.length || !Arrays.equals(header, MAGIC)) {
+            throw new IOException("Not a compressed Crypto stream");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            InputStream inflated = new InflaterInputStream(
+                    new TranspositionInputStream(in, key, true), inflater, BUFFER_SIZE);
+            long written = copy(inflated, out);
+            if (!inflater.finished()) {
+                throw new EOFException("Compressed stream is truncated");
+            }
+            return written;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Compresses and encrypts a file at {@link #DEFAULT_LEVEL}
+     * @param input plain file
+     * @param output encrypted file, removed again on failure
+     * @param key encryption key
+     * @return size of the encrypted file
+     */
+    static long encryptFile(File input, File output, int[] key) throws IOException {
+        return encryptFile(input, output, key, DEFAULT_LEVEL);
+    }
+
+    /**
+     * Compresses and encrypts a file
+     * @param input plain file
+     * @param output encrypted file, removed again on failure
+     * @param key encryption key
+     * @param level {@link Deflater} level, see {@link #encrypt}
+     * @return size of the encrypted file
+     */
+    static long encryptFile(File input, File output, int[] key, int level) throws IOException {
+        checkInput(input);
+        boolean completed = false;
+        try (InputStream in = new FileInputStream(input);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(output), BUFFER_SIZE)) {
+            long written = encrypt(in, out, key, level);
+            completed = true;
+            return written;
+        } finally {
+            if (!completed) {
+                Files.deleteIfExists(output.toPath());
+            }
+        }
+    }
+
+    /**
+     * Decrypts and decompresses a file written by {@link #encryptFile}
+     * @param input encrypted file
+     * @param output plain file, removed again on failure
+     * @param key encryption key
+     * @return size of the plain file
+     */
+    static long decryptFile(File input, File output, int[] key) throws IOException {
+        checkInput(input);
+        boolean completed = false;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(input), BUFFER_SIZE);
+             OutputStream out = new FileOutputStream(output)) {
+            long written = decrypt(in, out, key);
+            completed = true;
+            return written;
+        } finally {
+            if (!completed) {
+                Files.deleteIfExists(output.toPath());
+            }
+        }
+    }
+
+    /**
+     * Checks whether a file starts with the compressed format header
+     */
+    static boolean isCompressed(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] header = in.readNBytes(MAGIC.length);
+            return Arrays.equals(header, MAGIC);
+        }
+    }
+
+    private static void checkInput(File input) {
+        if (input == null || !input.isFile()) {
+            throw new IllegalArgumentException("File error: invalid file or file path.");
+        }
+    }
+
+    private static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Lets the stream chain be closed to finish it without closing the caller's stream
+     */
+    private static OutputStream nonClosing(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.flush();
+            }
+        };
+    }
+}
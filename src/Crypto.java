@@ -6,6 +6,10 @@ import java.nio.file.*;
 
 public class Crypto {
 
+    private static final CryptoMetrics METRICS = CryptoMetrics.get();
+    /** Longest array the JVM reliably allocates */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
     /**
      * Generates a dynamic encryption key
      * @param numColumns the size of the key
@@ -30,59 +34,24 @@ public class Crypto {
      * @return encrypted text
      */
     public static String encrypt(String text, int[] key) {
+        try {
+            return encryptText(text, key);
+        } catch (RuntimeException e) {
+            METRICS.error();
+            throw e;
+        }
+    }
+
+    private static String encryptText(String text, int[] key) {
         validateKey(key);  
         if (text == null || text.isEmpty()) {
             throw new IllegalArgumentException("Text cannot be null or empty");
         }
-
-        // Store newline positions for later restoration
-        List<Integer> newlinePositions = new ArrayList<>();
-        for (int i = 0; i < text.length(); i++) {
-            if (text.charAt(i) == '\n') {
-                newlinePositions.add(i);
-            }
-        }
-
-        // Remove all newlines for processing
-        text = text.replaceAll("\\R", "");
-        
-        int numColumns = key.length;
-        int numRows = (int) Math.ceil((double) text.length() / numColumns);
-        StringBuilder paddedText = new StringBuilder(text);
-        
-        // Pad the text with spaces if necessary
-        while (paddedText.length() < numRows * numColumns) {
-            paddedText.append(' ');
-        }
-
-        // Create and fill the matrix
-        char[][] matrix = new char[numRows][numColumns];
-        for (int i = 0; i < numRows; i++) {
-            String row = paddedText.substring(i * numColumns, 
-                                        Math.min((i + 1) * numColumns, paddedText.length()));
-            matrix[i] = Arrays.copyOf(row.toCharArray(), numColumns);
-            // Fill any remaining spaces with spaces
-            for (int j = row.length(); j < numColumns; j++) {
-                matrix[i][j] = ' ';
-            }
-        }
-
-        // Build encrypted text
-        StringBuilder encryptedText = new StringBuilder();
-        for (char[] row : matrix) {
-            for (int k : key) {
-                encryptedText.append(row[k]);
-            }
-        }
-
-        // Reinsert newlines at their original positions
-        for (int pos : newlinePositions) {
-            if (pos < encryptedText.length()) {
-                encryptedText.insert(pos, '\n');
-            }
-        }
-
-        return encryptedText.toString();
+        CryptoEvents.Encrypt event = new CryptoEvents.Encrypt();
+        event.begin();
+        String encryptedText = transpose(text, key, false, event);
+        METRICS.encrypted(text.length());
+        return encryptedText;
     }
 
     /**
@@ -92,89 +61,129 @@ public class Crypto {
      * @return decrypted text
      */
     public static String decrypt(String encryptedText, int[] key) {
+        try {
+            return decryptText(encryptedText, key);
+        } catch (RuntimeException e) {
+            METRICS.error();
+            throw e;
+        }
+    }
+
+    private static String decryptText(String encryptedText, int[] key) {
         validateKey(key);
         if (encryptedText == null || encryptedText.isEmpty()) {
             throw new IllegalArgumentException("Encrypted text cannot be null or empty");
         }
-
-        // Store newline positions for later restoration
-        List<Integer> newlinePositions = new ArrayList<>();
-        for (int i = 0; i < encryptedText.length(); i++) {
-            if (encryptedText.charAt(i) == '\n') {
-                newlinePositions.add(i);
-            }
-        }
-
-        // Remove all newlines for processing
-        encryptedText = encryptedText.replaceAll("\\R", "");
-
-        int numColumns = key.length;
-        int textLength = encryptedText.length();
-        
-        // Add padding if necessary
-        if (textLength % numColumns != 0) {
-            int paddingNeeded = numColumns - (textLength % numColumns);
-            StringBuilder paddedText = new StringBuilder(encryptedText);
-            for (int i = 0; i < paddingNeeded; i++) {
-                paddedText.append(' ');
-            }
-            encryptedText = paddedText.toString();
-        }
-
-        int numRows = encryptedText.length() / numColumns;
-        char[][] matrix = new char[numRows][numColumns];
-        int index = 0;
-
-        // Fill the matrix with encrypted text
-        for (int i = 0; i < numRows; i++) {
-            for (int j = 0; j < numColumns; j++) {
-                matrix[i][j] = encryptedText.charAt(index++);
-            }
-        }
+        CryptoEvents.Decrypt event = new CryptoEvents.Decrypt();
+        event.begin();
 
         // Create reverse mapping
-        int[] reverseKey = new int[numColumns];
+        int[] reverseKey = new int[key.length];
         for (int i = 0; i < key.length; i++) {
             reverseKey[key[i]] = i;
         }
+        String decryptedText = transpose(encryptedText, reverseKey, true, event);
+        METRICS.decrypted(encryptedText.length());
+        return decryptedText;
+    }
 
-        // Build decrypted text
-        StringBuilder decryptedText = new StringBuilder();
-        for (char[] row : matrix) {
-            char[] decryptedRow = new char[numColumns];
-            for (int i = 0; i < numColumns; i++) {
-                decryptedRow[reverseKey[i]] = row[i];
-            }
-            decryptedText.append(decryptedRow);
+    /**
+     * Shared core of encrypt and decrypt. Line breaks are removed, the
+     * last row is padded with spaces, every row is permuted with the given
+     * order and '\n' is put back at its original positions. All working
+     * arrays are borrowed from the shared {@link BufferPool}.
+     * @param text text to transform
+     * @param order the key for encrypt, its inverse for decrypt
+     * @param decrypt true to strip trailing whitespace from the result
+     * @param event flight recorder event to complete
+     * @return the transformed text
+     */
+    private static String transpose(String text, int[] order, boolean decrypt, CryptoEvents.CipherEvent event) {
+        long stageStart = CryptoMetrics.now();
+        int inputLength = text.length();
+        int numColumns = order.length;
+        // The largest buffer is the text plus up to a row of padding, every
+        // later size is below it
+        if ((long) inputLength + numColumns > MAX_ARRAY_LENGTH) {
+            throw new IllegalArgumentException("Text is too large to transpose in memory with a key of "
+                    + numColumns + ", process it as a file instead.");
         }
+        BufferPool pool = BufferPool.shared();
+        char[] work = pool.borrowChars(inputLength + numColumns);
+        char[] permuted = null;
+        char[] output = null;
+        try {
+            // Remove all line breaks for processing
+            text.getChars(0, inputLength, work, 0);
+            int length = 0;
+            for (int i = 0; i < inputLength; i++) {
+                char c = work[i];
+                if (!TextTransposer.isLineBreak(c)) {
+                    work[length++] = c;
+                }
+            }
+
+            // Pad the text with spaces if necessary
+            int numRows = (length + numColumns - 1) / numColumns;
+            int paddedLength = numRows * numColumns;
+            Arrays.fill(work, length, paddedLength, ' ');
 
-        // Reinsert newlines at their original positions
-        for (int pos : newlinePositions) {
-            if (pos < decryptedText.length()) {
-                decryptedText.insert(pos, '\n');
+            permuted = pool.borrowChars(paddedLength);
+            for (int row = 0; row < paddedLength; row += numColumns) {
+                for (int j = 0; j < numColumns; j++) {
+                    permuted[row + j] = work[row + order[j]];
+                }
             }
+            stageStart = METRICS.record(decrypt ? CryptoMetrics.Stage.DECRYPT_PERMUTE
+                    : CryptoMetrics.Stage.ENCRYPT_PERMUTE, stageStart);
+
+            // Reinsert newlines at their original positions; one that would
+            // land past the end of the permuted text is dropped
+            output = pool.borrowChars(paddedLength + inputLength - length);
+            int outLength = 0;
+            int next = 0;
+            while (next < paddedLength) {
+                if (outLength < inputLength && text.charAt(outLength) == '\n') {
+                    output[outLength++] = '\n';
+                } else {
+                    output[outLength++] = permuted[next++];
+                }
+            }
+            if (decrypt) {
+                while (outLength > 0 && Character.isWhitespace(output[outLength - 1])) {
+                    outLength--;
+                }
+            }
+            String result = new String(output, 0, outLength);
+            METRICS.record(decrypt ? CryptoMetrics.Stage.DECRYPT_NEWLINE_RESTORE
+                    : CryptoMetrics.Stage.ENCRYPT_NEWLINE_RESTORE, stageStart);
+            event.complete(inputLength, numColumns, numRows);
+            return result;
+        } finally {
+            pool.release(work);
+            pool.release(permuted);
+            pool.release(output);
         }
-
-        return decryptedText.toString().stripTrailing();
     }
 
     /**
      * Validates the encryption/decryption key
      * @param key the key to validate
      */
-    private static void validateKey(int[] key) {
+    static void validateKey(int[] key) {
         if (key == null || key.length == 0) {
             throw new IllegalArgumentException("Invalid key: key cannot be null or empty.");
         }
         
-        Set<Integer> uniqueValues = new HashSet<>();
+        boolean[] seen = new boolean[key.length];
         for (int k : key) {
             if (k < 0 || k >= key.length) {
                 throw new IllegalArgumentException("Invalid key: values must be between 0 and " + (key.length - 1));
             }
-            if (!uniqueValues.add(k)) {
+            if (seen[k]) {
                 throw new IllegalArgumentException("Invalid key: key contains duplicate values.");
             }
+            seen[k] = true;
         }
     }
 
@@ -185,14 +194,43 @@ public class Crypto {
      */
     static String readFileContent(File file) throws IOException {
         if (file == null || !file.exists() || !file.isFile()) {
+            METRICS.error();
             throw new IllegalArgumentException("File error: invalid file or file path.");
         }
         
+        CryptoEvents.ReadFile event = new CryptoEvents.ReadFile();
+        event.begin();
+        long stageStart = CryptoMetrics.now();
         try {
             // Read all content at once to preserve original formatting
-            byte[] bytes = Files.readAllBytes(file.toPath());
-            return new String(bytes).trim();
+            BufferPool pool = BufferPool.shared();
+            byte[] bytes = pool.borrowBytes((int) Math.min(file.length() + 1, MAX_ARRAY_LENGTH));
+            int length = 0;
+            try (InputStream in = new FileInputStream(file)) {
+                int n;
+                while ((n = in.read(bytes, length, bytes.length - length)) != -1) {
+                    length += n;
+                    if (length == bytes.length) {
+                        // The file grew since its size was taken
+                        if (bytes.length >= MAX_ARRAY_LENGTH) {
+                            throw new IOException("File is too large to read into memory.");
+                        }
+                        byte[] larger = pool.borrowBytes((int) Math.min(bytes.length * 2L, MAX_ARRAY_LENGTH));
+                        System.arraycopy(bytes, 0, larger, 0, length);
+                        pool.release(bytes);
+                        bytes = larger;
+                    }
+                }
+                METRICS.bytesRead(length);
+                String content = new String(bytes, 0, length).trim();
+                METRICS.record(CryptoMetrics.Stage.READ, stageStart);
+                event.complete(file.getPath(), length);
+                return content;
+            } finally {
+                pool.release(bytes);
+            }
         } catch (IOException e) {
+            METRICS.error();
             throw new IOException("Error reading file: " + e.getMessage());
         }
     }
@@ -204,9 +242,11 @@ public class Crypto {
      */
     static void saveToFile(String content, String filePath) throws IOException {
         if (content == null) {
+            METRICS.error();
             throw new IllegalArgumentException("Content cannot be null.");
         }
         if (filePath == null || filePath.isEmpty()) {
+            METRICS.error();
             throw new IllegalArgumentException("File path cannot be null or empty.");
         }
 
@@ -217,43 +257,64 @@ public class Crypto {
             parent.mkdirs();
         }
 
-        // Use system-specific line separator
-        content = content.replaceAll("\\R", System.lineSeparator());
-        
+        CryptoEvents.SaveFile event = new CryptoEvents.SaveFile();
+        event.begin();
+        long stageStart = CryptoMetrics.now();
+
+        // Use system-specific line separator, written segment by segment
+        // instead of building a second copy of the content
+        String separator = System.lineSeparator();
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-            writer.write(content);
+            int length = content.length();
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                char c = content.charAt(i);
+                if (TextTransposer.isLineBreak(c)) {
+                    writer.write(content, start, i - start);
+                    writer.write(separator);
+                    if (c == '\r' && i + 1 < length && content.charAt(i + 1) == '\n') {
+                        i++;
+                    }
+                    start = i + 1;
+                }
+            }
+            writer.write(content, start, length - start);
+        } catch (IOException e) {
+            METRICS.error();
+            throw e;
         }
+        long written = file.length();
+        METRICS.bytesWritten(written);
+        METRICS.record(CryptoMetrics.Stage.WRITE, stageStart);
+        event.complete(file.getPath(), written);
     }
 
     /**
      * Loads encryption key from a string
-     * @param keyString the string containing the key array
+     * @param keyString the string containing the key array, optionally
+     *        preceded by the key size on its own line
      * @return the encryption key as an integer array
      */
     static int[] loadEncryptionKey(String keyString) {
+        try {
+            return parseKey(keyString);
+        } catch (RuntimeException e) {
+            METRICS.error();
+            throw e;
+        }
+    }
+
+    private static int[] parseKey(String keyString) {
         if (keyString == null || keyString.isEmpty()) {
             throw new IllegalArgumentException("Key string cannot be null or empty.");
         }
 
-        try {
-            // Remove brackets and split by comma
-            String cleanKeyString = keyString.replaceAll("[\\[\\]]", "").trim();
-            
-            // Handle possible spaces after commas
-            String[] keyParts = cleanKeyString.split("\\s*,\\s*");
-            
-            // Parse each number
-            int[] key = new int[keyParts.length];
-            for (int i = 0; i < keyParts.length; i++) {
-                key[i] = Integer.parseInt(keyParts[i].trim());
-            }
-            
-            // Validate the key
-            validateKey(key);
-            return key;
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("Invalid key format: " + e.getMessage());
-        }
+        CryptoEvents.LoadKey event = new CryptoEvents.LoadKey();
+        event.begin();
+        // Single pass over the text, validating as it goes
+        int[] key = KeyFiles.parse(keyString);
+        event.complete(keyString.length(), key.length);
+        return key;
     }
 
     /**
@@ -300,13 +361,16 @@ public class Crypto {
                         String encryptedText = encrypt(content, currentKey);
 
                         saveToFile(encryptedText, encryptedFilePath);
+                        if (ChunkChecksums.ENABLED) {
+                            ChunkChecksums.write(new File(encryptedFilePath));
+                        }
                         saveToFile(Arrays.toString(currentKey), keyFilePath);
                         System.out.println("Encryption key saved to: " + keyFilePath);
                         System.out.println("Encrypted text saved to: " + encryptedFilePath);
 
                     } else if ("2".equals(action)) {
-                        String keyContent = readFileContent(new File(keyFilePath));
-                        int[] currentKey = loadEncryptionKey(keyContent);
+                        // Text or binary key file
+                        int[] currentKey = KeyFiles.load(new File(keyFilePath));
                         String decryptedText = decrypt(content, currentKey);
                         saveToFile(decryptedText, decryptedFilePath);
                         System.out.println("Decrypted text saved as: " + decryptedFilePath);
@@ -325,13 +389,462 @@ public class Crypto {
         scanner.close();
     }
 
+    /**
+     * Verifies encrypted files against their chunk checksums without decrypting
+     * @param paths files, or directories whose checksummed files are all verified
+     * @return process exit code, 0 when every file is intact
+     */
+    static int runVerify(List<String> paths) {
+        List<File> files = ChunkChecksums.collect(paths);
+        if (files.isEmpty()) {
+            System.err.println("Error: --verify requires at least one file or directory.");
+            return 2;
+        }
+        try {
+            int failed = 0;
+            for (ChunkChecksums.Report report : ChunkChecksums.verifyAll(files,
+                    Runtime.getRuntime().availableProcessors())) {
+                if (report.ok()) {
+                    System.out.println(report);
+                } else {
+                    System.err.println(report);
+                    failed++;
+                }
+            }
+            System.out.printf("Verified %d file(s), %d failed%n", files.size(), failed);
+            return failed == 0 ? 0 : 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 2;
+        }
+    }
+
+    /**
+     * Encrypts or decrypts a file in line mode, see {@link LineTransposer}
+     * @param args encrypt|decrypt, input file, output file and key file
+     * @return process exit code, 0 on success
+     */
+    static int runLines(List<String> args) {
+        if (args.size() != 4 || !(args.get(0).equals("encrypt") || args.get(0).equals("decrypt"))) {
+            System.err.println("Usage: --lines encrypt|decrypt <input> <output> <key file>");
+            return 2;
+        }
+        try {
+            int[] key = KeyFiles.load(new File(args.get(3)));
+            LineTransposer.transformFile(new File(args.get(1)), new File(args.get(2)), key,
+                    args.get(0).equals("decrypt"));
+            System.out.println("Line mode " + args.get(0) + "ion saved to: " + args.get(2));
+            return 0;
+        } catch (IOException e) {
+            System.err.println("File error: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+        return 1;
+    }
+
+    /**
+     * Watches a drop directory and encrypts every file that lands in it
+     * until the process is stopped, see {@link DropFolderWatcher}
+     * @param args input directory, output directory, key file and optionally the number of workers
+     * @return process exit code
+     */
+    static int runWatch(List<String> args) {
+        if (args.size() < 3 || args.size() > 4) {
+            System.err.println("Usage: --watch <input directory> <output directory> <key file> [workers]");
+            return 2;
+        }
+        try {
+            int[] key = KeyFiles.load(new File(args.get(2)));
+            int workers = args.size() == 4 ? Integer.parseInt(args.get(3))
+                    : Runtime.getRuntime().availableProcessors();
+            DropFolderWatcher watcher = new DropFolderWatcher(Paths.get(args.get(0)), Paths.get(args.get(1)),
+                    key, workers, workers * 4, Long.getLong("crypto.watch.quietMillis", 1000));
+            watcher.register(args.get(0));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    watcher.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to stop watcher: " + e.getMessage());
+                }
+            }));
+            watcher.start();
+            System.out.println("Watching " + args.get(0) + " with " + workers + " workers, press Ctrl+C to stop");
+            long reported = 0;
+            while (true) {
+                Thread.sleep(5000);
+                long processed = watcher.getProcessedFiles();
+                if (processed != reported) {
+                    reported = processed;
+                    System.out.printf("Encrypted %d file(s), %s, backlog %d, mean latency %.0f ms%n", processed,
+                            CryptoEngine.formatBytes(watcher.getProcessedBytes()), watcher.getBacklog(),
+                            watcher.getMeanLatencyMillis());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("File error: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 1;
+    }
+
+    /**
+     * Encrypts or decrypts one large file with several worker JVMs, see {@link ShardedEncryption}
+     * @param args encrypt|decrypt, input file, output file, key file and optionally the number of workers
+     * @return process exit code, 0 on success
+     */
+    static int runSharded(List<String> args) {
+        if (args.size() < 4 || args.size() > 5 || !(args.get(0).equals("encrypt") || args.get(0).equals("decrypt"))) {
+            System.err.println("Usage: --shard encrypt|decrypt <input> <output> <key file> [workers]");
+            return 2;
+        }
+        try {
+            int[] key = KeyFiles.load(new File(args.get(3)));
+            int workers = args.size() == 5 ? Integer.parseInt(args.get(4))
+                    : Runtime.getRuntime().availableProcessors();
+            ShardedEncryption coordinator = new ShardedEncryption(
+                    new ShardedEncryption.LocalLauncher(Collections.emptyList()), workers,
+                    ShardedEncryption.DEFAULT_ATTEMPTS);
+            int shards = coordinator.run(new File(args.get(1)), new File(args.get(2)), key,
+                    args.get(0).equals("decrypt")).size();
+            System.out.println("Processed " + shards + " shard(s), saved to: " + args.get(2));
+            return 0;
+        } catch (IOException e) {
+            System.err.println("File error: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 1;
+    }
+
+    /**
+     * Encrypts or decrypts a file where it is, see {@link InPlaceTransposer}
+     * @param args encrypt|decrypt, file and key file
+     * @return process exit code, 0 on success
+     */
+    static int runInPlace(List<String> args) {
+        if (args.size() != 3 || !(args.get(0).equals("encrypt") || args.get(0).equals("decrypt"))) {
+            System.err.println("Usage: --in-place encrypt|decrypt <file> <key file>");
+            System.err.println("No copy is kept: an interrupted run cannot be undone, so back the file up first");
+            return 2;
+        }
+        try {
+            int[] key = KeyFiles.load(new File(args.get(2)));
+            long bytes = InPlaceTransposer.transformFile(new File(args.get(1)), key, args.get(0).equals("decrypt"));
+            System.out.println("Processed " + CryptoEngine.formatBytes(bytes) + " in place: " + args.get(1));
+            return 0;
+        } catch (IOException e) {
+            System.err.println("File error: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+        return 1;
+    }
+
+    /**
+     * Transposes a UTF-8 file one code point per unit, see {@link Utf8Transposer}
+     * @param args mode, input, output and key file
+     * @return process exit code, 0 on success
+     */
+    static int runUtf8(List<String> args) {
+        if (args.size() != 4 || !(args.get(0).equals("encrypt") || args.get(0).equals("decrypt"))) {
+            System.err.println("Usage: --utf8 encrypt|decrypt <input> <output> <key file>");
+            return 2;
+        }
+        try {
+            int[] key = KeyFiles.load(new File(args.get(3)));
+            Utf8Transposer.transformFile(new File(args.get(1)), new File(args.get(2)), key,
+                    args.get(0).equals("decrypt"));
+            System.out.println("Processed " + args.get(1) + " by code point, saved to: " + args.get(2));
+            return 0;
+        } catch (IOException e) {
+            System.err.println("File error: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+        return 1;
+    }
+
+    /**
+     * Brings an encrypted file up to date with its plain text, rewriting
+     * only the changed chunks, see {@link IncrementalEncryptor}
+     * @param args input, output and key file
+     * @return process exit code, 0 on success
+     */
+    static int runIncremental(List<String> args) {
+        if (args.size() != 3) {
+            System.err.println("Usage: --incremental <input> <output> <key file>");
+            return 2;
+        }
+        try {
+            int[] key = KeyFiles.load(new File(args.get(2)));
+            IncrementalEncryptor.Result result = new IncrementalEncryptor(key)
+                    .encrypt(new File(args.get(0)), new File(args.get(1)));
+            System.out.println("Updated " + args.get(1) + ": " + result);
+            return 0;
+        } catch (IOException e) {
+            System.err.println("File error: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+        return 1;
+    }
+
+    /**
+     * Moves encrypted files to a new key, see {@link KeyRotation}
+     * @param args old key file, new key file and the files or directories to rekey
+     * @return process exit code, 0 when every file was rekeyed
+     */
+    static int runRekey(List<String> args) {
+        if (args.size() < 3) {
+            System.err.println("Usage: --rekey <old key file> <new key file> <file or directory>...");
+            return 2;
+        }
+        try {
+            int[] oldKey = KeyFiles.load(new File(args.get(0)));
+            int[] newKey = KeyFiles.load(new File(args.get(1)));
+            List<File> files = new ArrayList<>();
+            for (String path : args.subList(2, args.size())) {
+                File file = new File(path);
+                File[] children = file.isDirectory()
+                        ? file.listFiles((dir, name) -> name.startsWith("encrypted_")
+                                && !name.endsWith(ChunkChecksums.SUFFIX))
+                        : new File[] {file};
+                if (children != null) {
+                    Arrays.sort(children);
+                    files.addAll(Arrays.asList(children));
+                }
+            }
+            int failures = 0;
+            for (KeyRotation.Outcome outcome : KeyRotation.rekeyAll(files, oldKey, newKey,
+                    Runtime.getRuntime().availableProcessors())) {
+                System.out.println(outcome);
+                if (!outcome.ok()) {
+                    failures++;
+                }
+            }
+            System.out.println("Rekeyed " + (files.size() - failures) + " of " + files.size() + " file(s)");
+            return failures == 0 ? 0 : 1;
+        } catch (IOException e) {
+            System.err.println("File error: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 1;
+    }
+
+    /**
+     * Starts a resumable job over a file or the files of a directory, see {@link CheckpointedJob}
+     * @param args encrypt|decrypt, input, output, key file and journal file
+     * @return process exit code, 0 on success
+     */
+    static int runJob(List<String> args) {
+        if (args.size() != 5 || !(args.get(0).equals("encrypt") || args.get(0).equals("decrypt"))) {
+            System.err.println("Usage: --job encrypt|decrypt <input file or directory> <output file or directory> "
+                    + "<key file> <journal>");
+            return 2;
+        }
+        CheckpointedJob job = null;
+        try {
+            boolean decrypt = args.get(0).equals("decrypt");
+            int[] key = KeyFiles.load(new File(args.get(3)));
+            File input = new File(args.get(1));
+            File output = new File(args.get(2));
+            List<File> inputs = new ArrayList<>();
+            List<File> outputs = new ArrayList<>();
+            if (input.isDirectory()) {
+                File[] children = input.listFiles(file -> file.isFile() && !file.isHidden());
+                if (children != null) {
+                    Arrays.sort(children);
+                    for (File child : children) {
+                        inputs.add(child);
+                        outputs.add(new File(output, (decrypt ? "decrypted_" : CheckpointedJob.OUTPUT_PREFIX)
+                                + child.getName()));
+                    }
+                }
+            } else {
+                inputs.add(input);
+                outputs.add(output);
+            }
+            job = newJob(new File(args.get(4)));
+            CheckpointedJob.Summary summary = job.run(inputs, outputs, key, decrypt);
+            System.out.println("Job done: " + summary);
+            return 0;
+        } catch (IOException e) {
+            System.err.println("File error: " + e.getMessage());
+            if (job != null && job.journaled()) {
+                System.err.println("Continue with: --resume " + args.get(4) + " " + args.get(3));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 1;
+    }
+
+    /**
+     * Continues a job started with --job from its journal
+     * @param args journal file and key file
+     * @return process exit code, 0 on success
+     */
+    static int runResume(List<String> args) {
+        if (args.size() != 2) {
+            System.err.println("Usage: --resume <journal> <key file>");
+            return 2;
+        }
+        try {
+            int[] key = KeyFiles.load(new File(args.get(1)));
+            CheckpointedJob.Summary summary = newJob(new File(args.get(0))).resume(key);
+            System.out.println("Job done: " + summary);
+            return 0;
+        } catch (IOException e) {
+            System.err.println("File error: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 1;
+    }
+
+    private static CheckpointedJob newJob(File journal) {
+        return new CheckpointedJob(journal, CheckpointedJob.DEFAULT_CHUNK_SIZE,
+                Long.getLong("crypto.job.syncMillis", CheckpointedJob.DEFAULT_SYNC_MILLIS),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Compresses and encrypts a file, or decrypts and decompresses one, see {@link CompressedTransposition}
+     * @param args encrypt|decrypt, input file, output file, key file and optionally the compression level
+     * @return process exit code, 0 on success
+     */
+    static int runCompressed(List<String> args) {
+        boolean decrypt = !args.isEmpty() && args.get(0).equals("decrypt");
+        if (args.size() < 4 || args.size() > (decrypt ? 4 : 5) || !(decrypt || args.get(0).equals("encrypt"))) {
+            System.err.println("Usage: --compress encrypt <input> <output> <key file> [level 0-9]");
+            System.err.println("       --compress decrypt <input> <output> <key file>");
+            return 2;
+        }
+        try {
+            int[] key = KeyFiles.load(new File(args.get(3)));
+            File input = new File(args.get(1));
+            File output = new File(args.get(2));
+            if (decrypt) {
+                long written = CompressedTransposition.decryptFile(input, output, key);
+                System.out.println("Decrypted " + CryptoEngine.formatBytes(written) + ", saved to: " + output);
+            } else {
+                int level = args.size() == 5 ? Integer.parseInt(args.get(4)) : CompressedTransposition.DEFAULT_LEVEL;
+                long written = CompressedTransposition.encryptFile(input, output, key, level);
+                System.out.println("Encrypted " + CryptoEngine.formatBytes(input.length()) + " into "
+                        + CryptoEngine.formatBytes(written) + ", saved to: " + output);
+            }
+            return 0;
+        } catch (IOException e) {
+            System.err.println("File error: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+        return 1;
+    }
+
+    /**
+     * Encrypts or decrypts the entries of a ZIP or JAR archive into a new archive, see {@link ZipTransposer}
+     * @param args encrypt|decrypt, input archive, output archive, key file and optionally the number of threads
+     * @return process exit code, 0 on success
+     */
+    static int runZip(List<String> args) {
+        if (args.size() < 4 || args.size() > 5 || !(args.get(0).equals("encrypt") || args.get(0).equals("decrypt"))) {
+            System.err.println("Usage: --zip encrypt|decrypt <input archive> <output archive> <key file> [threads]");
+            return 2;
+        }
+        try {
+            int[] key = KeyFiles.load(new File(args.get(3)));
+            int threads = args.size() == 5 ? Integer.parseInt(args.get(4))
+                    : Runtime.getRuntime().availableProcessors();
+            ZipTransposer transposer = new ZipTransposer(key, args.get(0).equals("decrypt"), threads,
+                    ZipTransposer.DEFAULT_MEMORY_BUDGET);
+            int entries = transposer.transform(new File(args.get(1)), new File(args.get(2)));
+            System.out.println("Processed " + entries + " entries, saved to: " + args.get(2));
+            return 0;
+        } catch (IOException e) {
+            System.err.println("File error: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 1;
+    }
+
     /**
      * Main method - launches GUI by default
      * Use --cli argument to run in command-line mode
+     * Use --jfr &lt;file&gt; to record a flight recording that is dumped on exit
+     * Use --verify &lt;file or directory&gt;... to check encrypted files against their checksums
+     * Use --lines encrypt|decrypt &lt;input&gt; &lt;output&gt; &lt;key file&gt; to process each line on its own
+     * Use --shard encrypt|decrypt &lt;input&gt; &lt;output&gt; &lt;key file&gt; [workers] to split one file across JVMs
+     * Use --in-place encrypt|decrypt &lt;file&gt; &lt;key file&gt; to overwrite a file with its binary transposition, keeping no copy
+     * Use --utf8 encrypt|decrypt &lt;input&gt; &lt;output&gt; &lt;key file&gt; to keep emoji and other code points whole
+     * Use --incremental &lt;input&gt; &lt;output&gt; &lt;key file&gt; to re-encrypt only what changed since the last run
+     * Use --rekey &lt;old key file&gt; &lt;new key file&gt; &lt;file or dir&gt;... to move encrypted files to a new key
+     * Use --job encrypt|decrypt &lt;input&gt; &lt;output&gt; &lt;key file&gt; &lt;journal&gt; to run a resumable job
+     * Use --resume &lt;journal&gt; &lt;key file&gt; to continue an interrupted job
+     * Use --compress encrypt|decrypt &lt;input&gt; &lt;output&gt; &lt;key file&gt; [level] to deflate before encrypting
+     * Use --zip encrypt|decrypt &lt;input&gt; &lt;output&gt; &lt;key file&gt; [threads] to process the entries of an archive
+     * Use --watch &lt;input dir&gt; &lt;output dir&gt; &lt;key file&gt; [workers] to encrypt files dropped into a directory
      * @param args command line arguments
      */
     public static void main(String[] args) {
-        if (args.length > 0 && args[0].equals("--cli")) {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        int jfrIndex = options.indexOf("--jfr");
+        if (jfrIndex >= 0) {
+            if (jfrIndex + 1 >= options.size()) {
+                System.err.println("Error: --jfr requires an output file.");
+                return;
+            }
+            String recordingPath = options.remove(jfrIndex + 1);
+            options.remove(jfrIndex);
+            try {
+                CryptoEvents.startRecording(Paths.get(recordingPath));
+                System.out.println("Flight recording started, will be saved to: " + recordingPath);
+            } catch (IOException | IllegalStateException | SecurityException e) {
+                System.err.println("Failed to start flight recording: " + e.getMessage());
+            }
+        }
+
+        if (!options.isEmpty() && options.get(0).equals("--verify")) {
+            System.exit(runVerify(options.subList(1, options.size())));
+        } else if (!options.isEmpty() && options.get(0).equals("--lines")) {
+            System.exit(runLines(options.subList(1, options.size())));
+        } else if (!options.isEmpty() && options.get(0).equals("--watch")) {
+            System.exit(runWatch(options.subList(1, options.size())));
+        } else if (!options.isEmpty() && options.get(0).equals("--shard")) {
+            System.exit(runSharded(options.subList(1, options.size())));
+        } else if (!options.isEmpty() && options.get(0).equals("--in-place")) {
+            System.exit(runInPlace(options.subList(1, options.size())));
+        } else if (!options.isEmpty() && options.get(0).equals("--utf8")) {
+            System.exit(runUtf8(options.subList(1, options.size())));
+        } else if (!options.isEmpty() && options.get(0).equals("--incremental")) {
+            System.exit(runIncremental(options.subList(1, options.size())));
+        } else if (!options.isEmpty() && options.get(0).equals("--rekey")) {
+            System.exit(runRekey(options.subList(1, options.size())));
+        } else if (!options.isEmpty() && options.get(0).equals("--job")) {
+            System.exit(runJob(options.subList(1, options.size())));
+        } else if (!options.isEmpty() && options.get(0).equals("--resume")) {
+            System.exit(runResume(options.subList(1, options.size())));
+        } else if (!options.isEmpty() && options.get(0).equals("--compress")) {
+            System.exit(runCompressed(options.subList(1, options.size())));
+        } else if (!options.isEmpty() && options.get(0).equals("--zip")) {
+            System.exit(runZip(options.subList(1, options.size())));
+        } else if (!options.isEmpty() && options.get(0).equals("--cli")) {
             runCommandLine();
         } else {
             SwingUtilities.invokeLater(() -> {
@@ -0,0 +1,458 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import javax.management.*;
+
+/**
+ * Result cache for repeated encrypt/decrypt calls on identical payloads.
+ *
+ * Entries are addressed by a 128-bit hash of the text plus a fingerprint of
+ * the key, so a hit skips {@link Crypto#encrypt}/{@link Crypto#decrypt}
+ * entirely. The in-memory tier is an LRU bounded by estimated heap bytes;
+ * the optional on-disk tier keeps one file per entry bounded by total
+ * bytes. Both tiers drop entries older than the maximum age, counted
+ * from when the result was computed.
+ *
+ * The hash only finds the entry; it is not collision resistant. A memory
+ * entry keeps its input and key and a disk entry starts with the SHA-256
+ * of them, and a hit is only used when they match the request. Decrypt
+ * results are plain text, so they are only written to disk when the cache
+ * is created with persistDecrypted.
+ *
+ * The disk directory may hold other files: only files named like cache
+ * entries are counted, evicted or cleared.
+ */
+public class CryptoCache implements CryptoCacheMXBean {
+
+    private static final long ENTRY_OVERHEAD = 96;
+    private static final int DIGEST_LENGTH = 32;
+    /** Names of entry files, see {@link CacheKey#fileName()}, and of their temporary files */
+    private static final Pattern ENTRY_FILE = Pattern.compile("[de][0-9a-f]{56}");
+    private static final Pattern TEMP_FILE = Pattern.compile("[de][0-9a-f]{56}\\.[0-9]+\\.tmp");
+
+    private final long maxMemoryBytes;
+    private final long maxAgeMillis;
+    private final File diskDirectory;
+    private final long maxDiskBytes;
+    private final boolean persistDecrypted;
+
+    private final LinkedHashMap<CacheKey, Entry> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes;
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a memory-only cache
+     * @param maxMemoryBytes heap bytes the cached results may take
+     * @param maxAgeMillis how long a result stays valid
+     */
+    public CryptoCache(long maxMemoryBytes, long maxAgeMillis) {
+        this(maxMemoryBytes, maxAgeMillis, null, 0);
+    }
+
+    /**
+     * Creates a cache with an on-disk second tier for encrypt results
+     * @param maxMemoryBytes heap bytes the cached results may take
+     * @param maxAgeMillis how long a result stays valid
+     * @param diskDirectory directory for the disk tier, or null for none
+     * @param maxDiskBytes bytes the disk tier may take
+     */
+    public CryptoCache(long maxMemoryBytes, long maxAgeMillis, File diskDirectory, long maxDiskBytes) {
+        this(maxMemoryBytes, maxAgeMillis, diskDirectory, maxDiskBytes, false);
+    }
+
+    /**
+     * Creates a cache with an on-disk second tier
+     * @param maxMemoryBytes heap bytes the cached results may take
+     * @param maxAgeMillis how long a result stays valid
+     * @param diskDirectory directory for the disk tier, or null for none
+     * @param maxDiskBytes bytes the disk tier may take
+     * @param persistDecrypted true to also write decrypt results, which are plain text, to disk
+     */
+    public CryptoCache(long maxMemoryBytes, long maxAgeMillis, File diskDirectory, long maxDiskBytes,
+            boolean persistDecrypted) {
+        if (maxMemoryBytes < 0 || maxDiskBytes < 0) {
+            throw new IllegalArgumentException("Cache size cannot be negative.");
+        }
+        if (maxAgeMillis <= 0) {
+            throw new IllegalArgumentException("Maximum age must be greater than zero.");
+        }
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.diskDirectory = diskDirectory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.persistDecrypted = persistDecrypted;
+        if (diskDirectory != null) {
+            diskDirectory.mkdirs();
+            for (File file : listDisk(ENTRY_FILE)) {
+                diskBytes.addAndGet(file.length());
+            }
+        }
+    }
+
+    /**
+     * Cached {@link Crypto#encrypt}
+     */
+    public String encrypt(String text, int[] key) {
+        return lookup(text, key, false);
+    }
+
+    /**
+     * Cached {@link Crypto#decrypt}
+     */
+    public String decrypt(String encryptedText, int[] key) {
+        return lookup(encryptedText, key, true);
+    }
+
+    /**
+     * Publishes the cache statistics on the platform MBean server
+     * @param name value of the name key in the object name
+     */
+    public void register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("Crypto:type=Cache,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+            }
+        } catch (JMException e) {
+            System.err.println("Failed to register cache MBean: " + e.getMessage());
+        }
+    }
+
+    private String lookup(String text, int[] key, boolean decrypt) {
+        if (text == null || text.isEmpty() || key == null) {
+            // Let Crypto produce the usual error
+            return decrypt ? Crypto.decrypt(text, key) : Crypto.encrypt(text, key);
+        }
+        CacheKey cacheKey = new CacheKey(text, key, decrypt);
+        long now = System.currentTimeMillis();
+
+        synchronized (memory) {
+            Entry entry = memory.get(cacheKey);
+            if (entry != null) {
+                if (now - entry.createdAt <= maxAgeMillis && entry.matches(text, key)) {
+                    memoryHits.increment();
+                    return entry.value;
+                }
+                removeFromMemory(cacheKey);
+            }
+        }
+
+        boolean onDisk = diskDirectory != null && (!decrypt || persistDecrypted);
+        byte[] digest = onDisk ? digest(text, key, decrypt) : null;
+        if (onDisk) {
+            File file = new File(diskDirectory, cacheKey.fileName());
+            String value = readFromDisk(file, digest, now);
+            if (value != null) {
+                diskHits.increment();
+                // The result keeps the age it had on disk
+                putInMemory(cacheKey, new Entry(value, text, key, file.lastModified()));
+                return value;
+            }
+        }
+
+        misses.increment();
+        String value = decrypt ? Crypto.decrypt(text, key) : Crypto.encrypt(text, key);
+        putInMemory(cacheKey, new Entry(value, text, key, now));
+        if (onDisk) {
+            writeToDisk(cacheKey, digest, value);
+        }
+        return value;
+    }
+
+    private void putInMemory(CacheKey cacheKey, Entry entry) {
+        long size = entry.size;
+        if (size > maxMemoryBytes) {
+            return;
+        }
+        synchronized (memory) {
+            Entry previous = memory.put(cacheKey, entry);
+            if (previous != null) {
+                memoryBytes -= previous.size;
+            }
+            memoryBytes += size;
+            Iterator<Map.Entry<CacheKey, Entry>> eldest = memory.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+                Entry evicted = eldest.next().getValue();
+                eldest.remove();
+                memoryBytes -= evicted.size;
+                evictions.increment();
+            }
+        }
+    }
+
+    private void removeFromMemory(CacheKey cacheKey) {
+        Entry removed = memory.remove(cacheKey);
+        if (removed != null) {
+            memoryBytes -= removed.size;
+            evictions.increment();
+        }
+    }
+
+    /**
+     * @param digest SHA-256 of the request, which the file must start with
+     * @return the cached result, or null when there is none for this request
+     */
+    private String readFromDisk(File file, byte[] digest, long now) {
+        if (!file.isFile()) {
+            return null;
+        }
+        if (now - file.lastModified() > maxAgeMillis) {
+            deleteFromDisk(file);
+            return null;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            if (bytes.length < DIGEST_LENGTH
+                    || !MessageDigest.isEqual(digest, Arrays.copyOf(bytes, DIGEST_LENGTH))) {
+                // Another request with the same hash
+                return null;
+            }
+            // UTF-16 keeps lone surrogates that UTF-8 would replace
+            return new String(bytes, DIGEST_LENGTH, bytes.length - DIGEST_LENGTH, StandardCharsets.UTF_16BE);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeToDisk(CacheKey cacheKey, byte[] digest, String value) {
+        long size = DIGEST_LENGTH + 2L * value.length();
+        if (size > maxDiskBytes) {
+            return;
+        }
+        File file = new File(diskDirectory, cacheKey.fileName());
+        File temp = new File(diskDirectory, cacheKey.fileName() + "." + Thread.currentThread().getId() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+            out.write(digest);
+            out.write(value.getBytes(StandardCharsets.UTF_16BE));
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        try {
+            long replaced = file.length();
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            diskBytes.addAndGet(size - replaced);
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        if (diskBytes.get() > maxDiskBytes) {
+            trimDisk();
+        }
+    }
+
+    /**
+     * Deletes expired files, then the least recently written ones, until
+     * the disk tier fits its budget
+     */
+    private synchronized void trimDisk() {
+        File[] files = listDisk(ENTRY_FILE);
+        long now = System.currentTimeMillis();
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (diskBytes.get() <= maxDiskBytes && now - file.lastModified() <= maxAgeMillis) {
+                break;
+            }
+            deleteFromDisk(file);
+        }
+    }
+
+    private void deleteFromDisk(File file) {
+        long size = file.length();
+        if (file.delete()) {
+            diskBytes.addAndGet(-size);
+            evictions.increment();
+        }
+    }
+
+    @Override
+    public long getMemoryHits() {
+        return memoryHits.sum();
+    }
+
+    @Override
+    public long getDiskHits() {
+        return diskHits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = memoryHits.sum() + diskHits.sum();
+        long total = hits + misses.sum();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public int getMemoryEntries() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        synchronized (memory) {
+            return memoryBytes;
+        }
+    }
+
+    @Override
+    public long getDiskBytes() {
+        return diskDirectory == null ? 0 : diskBytes.get();
+    }
+
+    @Override
+    public void clear() {
+        synchronized (memory) {
+            memory.clear();
+            memoryBytes = 0;
+        }
+        if (diskDirectory != null) {
+            for (File file : listDisk(ENTRY_FILE)) {
+                file.delete();
+            }
+            // Left behind by a process that died while writing
+            for (File file : listDisk(TEMP_FILE)) {
+                file.delete();
+            }
+            diskBytes.set(0);
+        }
+    }
+
+    /**
+     * @return the files of the disk directory whose whole name matches
+     */
+    private File[] listDisk(Pattern names) {
+        File[] files = diskDirectory.listFiles((dir, name) -> names.matcher(name).matches());
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * @return SHA-256 of the operation, the key and the text
+     */
+    private static byte[] digest(String text, int[] key, boolean decrypt) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            ByteBuffer header = ByteBuffer.allocate(5 + 4 * key.length);
+            header.put((byte) (decrypt ? 'd' : 'e')).putInt(key.length);
+            for (int value : key) {
+                header.putInt(value);
+            }
+            sha.update(header.array());
+            sha.update(text.getBytes(StandardCharsets.UTF_16BE));
+            return sha.digest();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+        final String value;
+        final String input;
+        final int[] key;
+        final long createdAt;
+        final long size;
+
+        Entry(String value, String input, int[] key, long createdAt) {
+            this.value = value;
+            this.input = input;
+            this.key = key.clone();
+            this.createdAt = createdAt;
+            this.size = ENTRY_OVERHEAD + 2L * value.length() + 2L * input.length() + 4L * key.length;
+        }
+
+        /**
+         * @return true when this result belongs to the given request
+         */
+        boolean matches(String text, int[] key) {
+            return input.equals(text) && Arrays.equals(this.key, key);
+        }
+    }
+
+    /**
+     * Content address of one result: operation, text hash and key fingerprint.
+     * Different requests can share an address; entries check the request.
+     */
+    static final class CacheKey {
+        private final boolean decrypt;
+        private final int length;
+        private final long textHigh;
+        private final long textLow;
+        private final long keyHash;
+
+        CacheKey(String text, int[] key, boolean decrypt) {
+            this.decrypt = decrypt;
+            this.length = text.length();
+            // Two independent 64-bit lanes give a 128-bit text hash
+            long h1 = 0x9E3779B97F4A7C15L;
+            long h2 = 0xC2B2AE3D27D4EB4FL;
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                h1 = (h1 ^ c) * 0x100000001B3L;
+                h2 = Long.rotateLeft(h2 + c * 0xFF51AFD7ED558CCDL, 31) * 0x87C37B91114253D5L;
+            }
+            this.textHigh = mix(h1 ^ length);
+            this.textLow = mix(h2 ^ h1);
+            long k = key.length;
+            for (int value : key) {
+                k = mix(k * 31 + value);
+            }
+            this.keyHash = k;
+        }
+
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB9FE1A85EC53L;
+            h ^= h >>> 33;
+            return h;
+        }
+
+        String fileName() {
+            return String.format("%c%016x%016x%016x%08x", decrypt ? 'd' : 'e',
+                    textHigh, textLow, keyHash, length);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return decrypt == other.decrypt && length == other.length && textHigh == other.textHigh
+                    && textLow == other.textLow && keyHash == other.keyHash;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (textHigh ^ keyHash);
+        }
+    }
+}
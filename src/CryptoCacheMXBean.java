@@ -0,0 +1,51 @@
+/**
+ * Management interface of a {@link CryptoCache}.
+ * Registered on the platform MBean server as {@code Crypto:type=Cache,name=...}
+ */
+public interface CryptoCacheMXBean {
+
+    /**
+     * @return lookups answered from the in-memory tier
+     */
+    long getMemoryHits();
+
+    /**
+     * @return lookups answered from the on-disk tier
+     */
+    long getDiskHits();
+
+    /**
+     * @return lookups that had to run encrypt or decrypt
+     */
+    long getMisses();
+
+    /**
+     * @return fraction of lookups answered from either tier, 0 when unused
+     */
+    double getHitRate();
+
+    /**
+     * @return entries removed because of the size or age limits
+     */
+    long getEvictions();
+
+    /**
+     * @return number of entries in the in-memory tier
+     */
+    int getMemoryEntries();
+
+    /**
+     * @return estimated heap bytes held by the in-memory tier
+     */
+    long getMemoryBytes();
+
+    /**
+     * @return bytes stored in the on-disk tier, 0 when it is disabled
+     */
+    long getDiskBytes();
+
+    /**
+     * Drops every cached result from both tiers
+     */
+    void clear();
+}
@@ -0,0 +1,381 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * File-level facade over {@link Crypto} that picks a processing strategy
+ * from the input size, the number of cores and a memory budget.
+ *
+ * All strategies produce the same file as
+ * {@code saveToFile(encrypt(readFileContent(in), key), out)}; they only
+ * differ in how much memory and how many cores they use:
+ * <ul>
+ *   <li>IN_MEMORY - the String API, cheapest for small files</li>
+ *   <li>PARALLEL - whole file in arrays, rows permuted on all cores</li>
+ *   <li>STREAMING - constant memory through {@link TextTransposer}</li>
+ *   <li>MAPPED - like STREAMING but reads through memory-mapped windows
+ *       sized by the off-heap budget</li>
+ * </ul>
+ */
+public final class CryptoEngine {
+
+    private static final Logger LOG = Logger.getLogger(CryptoEngine.class.getName());
+
+    /** Largest file handed to the String API */
+    static final long SMALL_FILE_LIMIT = 256 * 1024;
+    /** Smallest file worth splitting across cores */
+    static final long PARALLEL_THRESHOLD = 4 * 1024 * 1024;
+    /** Estimated heap bytes needed per input byte by the String API */
+    static final int IN_MEMORY_FACTOR = 16;
+    /** Estimated heap bytes needed per input byte by the parallel path */
+    static final int PARALLEL_FACTOR = 10;
+    /** Smallest mapping window worth the mmap overhead */
+    static final long MIN_MAP_WINDOW = 1024 * 1024;
+    /** Largest mapping window (a MappedByteBuffer is int indexed) */
+    static final long MAX_MAP_WINDOW = 256 * 1024 * 1024;
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final int ROWS_PER_TASK = 16 * 1024;
+
+    enum Strategy { IN_MEMORY, PARALLEL, STREAMING, MAPPED }
+
+    /**
+     * The strategy chosen for one file, with the reason for the choice
+     */
+    static final class Plan {
+        final Strategy strategy;
+        final String reason;
+        final long mapWindow;
+
+        Plan(Strategy strategy, String reason, long mapWindow) {
+            this.strategy = strategy;
+            this.reason = reason;
+            this.mapWindow = mapWindow;
+        }
+
+        @Override
+        public String toString() {
+            return strategy + " (" + reason + ")";
+        }
+    }
+
+    private final long heapBudget;
+    private final long offHeapBudget;
+    private final int cores;
+
+    /**
+     * @param heapBudget heap bytes the engine may use for one file
+     * @param offHeapBudget bytes of address space the engine may map at once, 0 to never map
+     */
+    public CryptoEngine(long heapBudget, long offHeapBudget) {
+        this(heapBudget, offHeapBudget, Runtime.getRuntime().availableProcessors());
+    }
+
+    CryptoEngine(long heapBudget, long offHeapBudget, int cores) {
+        if (heapBudget <= 0) {
+            throw new IllegalArgumentException("Heap budget must be greater than zero.");
+        }
+        if (offHeapBudget < 0) {
+            throw new IllegalArgumentException("Off-heap budget cannot be negative.");
+        }
+        this.heapBudget = heapBudget;
+        this.offHeapBudget = offHeapBudget;
+        this.cores = Math.max(1, cores);
+    }
+
+    /**
+     * Creates an engine that may use half of the currently free heap and never maps files
+     */
+    public static CryptoEngine withDefaults() {
+        return withDefaults(1);
+    }
+
+    /**
+     * Creates an engine for files processed at the same time: each file
+     * may use an equal share of half the currently free heap, so all of
+     * them together stay within the half. Never maps files.
+     * @param concurrentFiles most files the engine works on at once
+     */
+    static CryptoEngine withDefaults(int concurrentFiles) {
+        if (concurrentFiles <= 0) {
+            throw new IllegalArgumentException("Concurrent files must be greater than zero.");
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return new CryptoEngine(Math.max(1, (runtime.maxMemory() - used) / 2 / concurrentFiles), 0);
+    }
+
+    /**
+     * @return heap bytes the engine may use for one file
+     */
+    long heapBudget() {
+        return heapBudget;
+    }
+
+    /**
+     * Encrypts a file into another file
+     * @param input plain text file
+     * @param output destination of the encrypted text
+     * @param key encryption key
+     * @return the strategy that was used
+     */
+    public Strategy encryptFile(File input, File output, int[] key) throws IOException {
+        return process(input, output, key, false);
+    }
+
+    /**
+     * Decrypts a file into another file
+     * @param input encrypted file
+     * @param output destination of the decrypted text
+     * @param key decryption key
+     * @return the strategy that was used
+     */
+    public Strategy decryptFile(File input, File output, int[] key) throws IOException {
+        return process(input, output, key, true);
+    }
+
+    /**
+     * Chooses a strategy for a file of the given size
+     * @param size input file size in bytes
+     * @return the plan with a human readable reason
+     */
+    Plan plan(long size) {
+        String sizeText = formatBytes(size);
+        if (size <= SMALL_FILE_LIMIT && size * IN_MEMORY_FACTOR <= heapBudget) {
+            return new Plan(Strategy.IN_MEMORY, String.format(
+                    "%s is below the %s small-file limit", sizeText, formatBytes(SMALL_FILE_LIMIT)), 0);
+        }
+        boolean fitsParallel = size * PARALLEL_FACTOR <= heapBudget;
+        if (cores > 1 && size >= PARALLEL_THRESHOLD && fitsParallel) {
+            return new Plan(Strategy.PARALLEL, String.format(
+                    "%s on %d cores, ~%s working set fits the %s heap budget",
+                    sizeText, cores, formatBytes(size * PARALLEL_FACTOR), formatBytes(heapBudget)), 0);
+        }
+        String why = !fitsParallel
+                ? String.format("~%s working set exceeds the %s heap budget",
+                        formatBytes(size * PARALLEL_FACTOR), formatBytes(heapBudget))
+                : cores == 1 ? "single core" : String.format("%s is below the %s parallel threshold",
+                        sizeText, formatBytes(PARALLEL_THRESHOLD));
+        if (offHeapBudget >= MIN_MAP_WINDOW && size > 0) {
+            long window = Math.min(Math.min(offHeapBudget, MAX_MAP_WINDOW), size);
+            return new Plan(Strategy.MAPPED, why + String.format(
+                    ", mapping %s windows from the %s off-heap budget",
+                    formatBytes(window), formatBytes(offHeapBudget)), window);
+        }
+        return new Plan(Strategy.STREAMING, why + ", streaming in constant memory", 0);
+    }
+
+    private Strategy process(File input, File output, int[] key, boolean decrypt) throws IOException {
+        if (input == null || !input.isFile()) {
+            throw new IllegalArgumentException("File error: invalid file or file path.");
+        }
+        if (output == null) {
+            throw new IllegalArgumentException("File path cannot be null or empty.");
+        }
+        Crypto.validateKey(key);
+
+        Plan plan = plan(input.length());
+        LOG.info(() -> String.format("%s %s with %s", decrypt ? "Decrypting" : "Encrypting",
+                input.getName(), plan));
+
+        switch (plan.strategy) {
+            case IN_MEMORY:
+                String content = Crypto.readFileContent(input);
+                Crypto.saveToFile(decrypt ? Crypto.decrypt(content, key) : Crypto.encrypt(content, key),
+                        output.getPath());
+                break;
+            case PARALLEL:
+                String text = Crypto.readFileContent(input);
+                Crypto.saveToFile(transposeParallel(text, key, decrypt), output.getPath());
+                break;
+            case MAPPED:
+                streamMapped(input, output, key, decrypt, plan.mapWindow);
+                break;
+            default:
+                stream(input, output, key, decrypt);
+                break;
+        }
+        if (!decrypt && ChunkChecksums.ENABLED) {
+            ChunkChecksums.write(output);
+        }
+        return plan.strategy;
+    }
+
+    /**
+     * Array based encrypt/decrypt that permutes row blocks on the common
+     * fork/join pool. Same result as the String API in linear time.
+     * @param text text to transform
+     * @param key encryption key
+     * @param decrypt true to decrypt
+     * @return the transformed text
+     */
+    static String transposeParallel(String text, int[] key, boolean decrypt) {
+        Crypto.validateKey(key);
+        if (text == null || text.isEmpty()) {
+            throw new IllegalArgumentException(decrypt
+                    ? "Encrypted text cannot be null or empty"
+                    : "Text cannot be null or empty");
+        }
+        int k = key.length;
+        int[] order = decrypt ? TextTransposer.invert(key) : key;
+
+        // Strip line breaks, remembering where '\n' was
+        int length = text.length();
+        char[] stripped = new char[length + k];
+        int[] newlines = new int[16];
+        int newlineCount = 0;
+        int strippedLength = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                if (newlineCount == newlines.length) {
+                    newlines = Arrays.copyOf(newlines, newlineCount * 2);
+                }
+                newlines[newlineCount++] = i;
+            } else if (!TextTransposer.isLineBreak(c)) {
+                stripped[strippedLength++] = c;
+            }
+        }
+        int rows = (strippedLength + k - 1) / k;
+        int padded = rows * k;
+        Arrays.fill(stripped, strippedLength, padded, ' ');
+
+        char[] permuted = new char[padded];
+        int tasks = (rows + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+        IntStream.range(0, tasks).parallel().forEach(task -> {
+            int endRow = Math.min(rows, (task + 1) * ROWS_PER_TASK);
+            for (int r = task * ROWS_PER_TASK; r < endRow; r++) {
+                int base = r * k;
+                for (int j = 0; j < k; j++) {
+                    permuted[base + j] = stripped[base + order[j]];
+                }
+            }
+        });
+
+        // Merge the line breaks back in; those past the end are dropped
+        char[] result = new char[padded + newlineCount];
+        int out = 0;
+        int next = 0;
+        int nl = 0;
+        while (next < padded) {
+            if (nl < newlineCount && newlines[nl] == out) {
+                result[out++] = '\n';
+                nl++;
+            } else {
+                result[out++] = permuted[next++];
+            }
+        }
+        if (decrypt) {
+            while (out > 0 && Character.isWhitespace(result[out - 1])) {
+                out--;
+            }
+        }
+        return new String(result, 0, out);
+    }
+
+    /**
+     * Streams a file through a {@link TextTransposer}
+     */
+    static void stream(File input, File output, int[] key, boolean decrypt) throws IOException {
+        createParent(output);
+        boolean done = false;
+        try (Reader reader = new InputStreamReader(new FileInputStream(input), Charset.defaultCharset());
+             Writer writer = new BufferedWriter(new OutputStreamWriter(
+                     new FileOutputStream(output), Charset.defaultCharset()), STREAM_BUFFER_SIZE)) {
+            TextTransposer transposer = new TextTransposer(key, decrypt, true, System.lineSeparator(), writer);
+            char[] buffer = new char[STREAM_BUFFER_SIZE];
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                transposer.update(buffer, 0, n);
+            }
+            transposer.finish();
+            done = true;
+        } finally {
+            if (!done) {
+                output.delete();
+            }
+        }
+    }
+
+    /**
+     * Like {@link #stream} but decodes straight from memory-mapped windows of the input
+     */
+    static void streamMapped(File input, File output, int[] key, boolean decrypt, long window)
+            throws IOException {
+        createParent(output);
+        CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        boolean done = false;
+        try (FileChannel channel = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(
+                     new FileOutputStream(output), Charset.defaultCharset()), STREAM_BUFFER_SIZE)) {
+            TextTransposer transposer = new TextTransposer(key, decrypt, true, System.lineSeparator(), writer);
+            CharBuffer chars = CharBuffer.allocate(STREAM_BUFFER_SIZE);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                // A window always fits at least one encoded character
+                long length = Math.min(Math.max(window, 16), size - position);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean last = position + length == size;
+                decodeInto(decoder, mapped, chars, transposer, last);
+                // Bytes of a character split across windows are decoded with the next window
+                position += mapped.position();
+                if (mapped.position() == 0 && !last) {
+                    throw new IOException("Mapping window too small to decode " + input);
+                }
+            }
+            if (size > 0) {
+                chars.clear();
+                decoder.flush(chars);
+                chars.flip();
+                transposer.update(chars.array(), 0, chars.limit());
+            }
+            transposer.finish();
+            done = true;
+        } finally {
+            if (!done) {
+                output.delete();
+            }
+        }
+    }
+
+    private static void decodeInto(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars,
+                                   TextTransposer transposer, boolean endOfInput) throws IOException {
+        while (true) {
+            chars.clear();
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            chars.flip();
+            transposer.update(chars.array(), 0, chars.limit());
+            if (result.isUnderflow()) {
+                return;
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+        }
+    }
+
+    private static void createParent(File output) {
+        File parent = output.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        if (bytes < 1024L * 1024 * 1024) return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+        return String.format(Locale.ROOT, "%.1f GB", bytes / (1024.0 * 1024.0 * 1024.0));
+    }
+}
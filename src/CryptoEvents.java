@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import jdk.jfr.*;
+
+/**
+ * Java Flight Recorder events for the Crypto pipeline stages.
+ *
+ * Every event records its duration and, implicitly, the thread that ran it.
+ * The events are enabled by default, so any recording started with
+ * {@code -XX:StartFlightRecording} or {@code jcmd JFR.start} picks them up;
+ * {@link #startRecording(Path)} backs the {@code --jfr} command line flag.
+ */
+final class CryptoEvents {
+
+    private CryptoEvents() {
+    }
+
+    /**
+     * Common fields of the encrypt and decrypt events
+     */
+    abstract static class CipherEvent extends Event {
+        @Label("Characters")
+        long chars;
+
+        @Label("Key Length")
+        int keyLength;
+
+        @Label("Rows")
+        int rows;
+
+        /**
+         * Ends the event and commits it if the recording wants it
+         * @param chars number of input characters
+         * @param keyLength number of key columns
+         * @param rows number of matrix rows processed
+         */
+        void complete(long chars, int keyLength, int rows) {
+            end();
+            if (shouldCommit()) {
+                this.chars = chars;
+                this.keyLength = keyLength;
+                this.rows = rows;
+                commit();
+            }
+        }
+    }
+
+    @Name("crypto.Encrypt")
+    @Label("Encrypt")
+    @Category({"Crypto", "Cipher"})
+    @Description("Transposition of plain text into cipher text")
+    static final class Encrypt extends CipherEvent {
+    }
+
+    @Name("crypto.Decrypt")
+    @Label("Decrypt")
+    @Category({"Crypto", "Cipher"})
+    @Description("Transposition of cipher text back into plain text")
+    static final class Decrypt extends CipherEvent {
+    }
+
+    /**
+     * Common fields of the file events
+     */
+    abstract static class FileEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        /**
+         * Ends the event and commits it if the recording wants it
+         * @param path the file that was read or written
+         * @param bytes number of bytes transferred
+         */
+        void complete(String path, long bytes) {
+            end();
+            if (shouldCommit()) {
+                this.path = path;
+                this.bytes = bytes;
+                commit();
+            }
+        }
+    }
+
+    @Name("crypto.ReadFile")
+    @Label("Read File")
+    @Category({"Crypto", "I/O"})
+    static final class ReadFile extends FileEvent {
+    }
+
+    @Name("crypto.SaveFile")
+    @Label("Save File")
+    @Category({"Crypto", "I/O"})
+    static final class SaveFile extends FileEvent {
+    }
+
+    @Name("crypto.LoadKey")
+    @Label("Load Key")
+    @Category({"Crypto", "Key"})
+    static final class LoadKey extends Event {
+        @Label("Characters")
+        long chars;
+
+        @Label("Key Length")
+        int keyLength;
+
+        /**
+         * Ends the event and commits it if the recording wants it
+         * @param chars length of the parsed key text
+         * @param keyLength number of key columns
+         */
+        void complete(long chars, int keyLength) {
+            end();
+            if (shouldCommit()) {
+                this.chars = chars;
+                this.keyLength = keyLength;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Starts a flight recording with the JDK "profile" settings plus the
+     * Crypto events, and writes it to the given file when the JVM exits
+     * @param destination the .jfr file to write
+     * @return the running recording
+     */
+    static Recording startRecording(Path destination) throws IOException {
+        Configuration profile;
+        try {
+            profile = Configuration.getConfiguration("profile");
+        } catch (ParseException e) {
+            throw new IOException("Cannot load JFR profile settings: " + e.getMessage());
+        }
+        Recording recording = new Recording(profile);
+        recording.setName("Crypto");
+        recording.setToDisk(true);
+        // JFR stops the recording and writes it to the destination on exit
+        recording.setDestination(destination);
+        recording.setDumpOnExit(true);
+        recording.start();
+        return recording;
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.Map;
+
+/**
+ * Management interface for the Crypto operation metrics.
+ * Registered on the platform MBean server as {@code Crypto:type=Metrics}
+ */
+public interface CryptoMetricsMXBean {
+
+    /**
+     * @return number of completed encrypt calls
+     */
+    long getEncryptCount();
+
+    /**
+     * @return number of completed decrypt calls
+     */
+    long getDecryptCount();
+
+    /**
+     * @return number of instrumented operations that ended with an exception
+     */
+    long getErrorCount();
+
+    /**
+     * @return bytes read from disk by readFileContent
+     */
+    long getBytesIn();
+
+    /**
+     * @return bytes written to disk by saveToFile
+     */
+    long getBytesOut();
+
+    /**
+     * @return characters passed through encrypt
+     */
+    long getCharsEncrypted();
+
+    /**
+     * @return characters passed through decrypt
+     */
+    long getCharsDecrypted();
+
+    /**
+     * Latency histograms per stage, e.g. "encrypt.permute" or "read".
+     * Bucket i counts samples below {@link #getLatencyBucketBoundsNanos()}[i]
+     * and at or above the previous bound; the last bucket is open ended.
+     * @return bucket counts keyed by stage name
+     */
+    Map<String, long[]> getLatencyHistograms();
+
+    /**
+     * @return the exclusive upper bound of each histogram bucket in nanoseconds
+     */
+    long[] getLatencyBucketBoundsNanos();
+
+    /**
+     * @return mean latency per stage in nanoseconds
+     */
+    Map<String, Long> getMeanLatencyNanos();
+
+    /**
+     * @return the slowest sample seen per stage in nanoseconds
+     */
+    Map<String, Long> getMaxLatencyNanos();
+
+    /**
+     * Clears all counters and histograms
+     */
+    void reset();
+}
@@ -0,0 +1,161 @@
+import java.util.Arrays;
+
+/**
+ * Read-only view of the decryption of a text, computed on demand.
+ *
+ * Every character of the plain text comes from one fixed position of the
+ * encrypted text, found from the inverse key. {@link #charAt} looks it up
+ * when it is asked for instead of decrypting the whole text up front, so
+ * code that only scans, searches or parses part of a document never pays
+ * for a full {@link Crypto#decrypt} copy. The view keeps the positions of
+ * the line breaks of the encrypted text, 4 bytes per line, and nothing
+ * else, and {@link #subSequence} shares that index.
+ *
+ * The characters are exactly those of {@code Crypto.decrypt(encrypted, key)}.
+ * A lookup costs a binary search over the line breaks, so it is constant
+ * time for text without them. The encrypted text must not change while
+ * the view is in use.
+ */
+final class DecryptedView implements CharSequence {
+
+    private final CharSequence encrypted;
+    private final int[] inverse;
+    /** Positions of '\n' in the encrypted text, they stay in place */
+    private final int[] newlines;
+    /** Positions of every line break in the encrypted text, they are not permuted */
+    private final int[] breaks;
+    /** Characters that are permuted, line breaks excluded */
+    private final int stripped;
+    private final int offset;
+    private final int length;
+
+    /**
+     * @param encrypted text produced by {@link Crypto#encrypt}
+     * @param key the key it was encrypted with
+     */
+    DecryptedView(CharSequence encrypted, int[] key) {
+        Crypto.validateKey(key);
+        if (encrypted == null || encrypted.length() == 0) {
+            throw new IllegalArgumentException("Encrypted text cannot be null or empty");
+        }
+        this.encrypted = encrypted;
+        this.inverse = TextTransposer.invert(key);
+
+        int inputLength = encrypted.length();
+        int[] newlinePositions = new int[16];
+        int[] breakPositions = new int[16];
+        int newlineCount = 0;
+        int breakCount = 0;
+        for (int i = 0; i < inputLength; i++) {
+            char c = encrypted.charAt(i);
+            if (TextTransposer.isLineBreak(c)) {
+                if (breakCount == breakPositions.length) {
+                    breakPositions = Arrays.copyOf(breakPositions, breakCount * 2);
+                }
+                breakPositions[breakCount++] = i;
+                if (c == '\n') {
+                    if (newlineCount == newlinePositions.length) {
+                        newlinePositions = Arrays.copyOf(newlinePositions, newlineCount * 2);
+                    }
+                    newlinePositions[newlineCount++] = i;
+                }
+            }
+        }
+        this.stripped = inputLength - breakCount;
+        this.breaks = Arrays.copyOf(breakPositions, breakCount);
+
+        // Newlines are put back until the permuted text runs out; later ones are dropped
+        int k = key.length;
+        long padded = (stripped + k - 1L) / k * k;
+        int kept = 0;
+        while (kept < newlineCount && newlinePositions[kept] - kept < padded) {
+            kept++;
+        }
+        this.newlines = Arrays.copyOf(newlinePositions, kept);
+        this.offset = 0;
+
+        // Decrypt drops trailing whitespace
+        int end = (int) (padded + kept);
+        while (end > 0 && Character.isWhitespace(decryptedAt(end - 1))) {
+            end--;
+        }
+        this.length = end;
+    }
+
+    private DecryptedView(DecryptedView parent, int offset, int length) {
+        this.encrypted = parent.encrypted;
+        this.inverse = parent.inverse;
+        this.newlines = parent.newlines;
+        this.breaks = parent.breaks;
+        this.stripped = parent.stripped;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+        }
+        return decryptedAt(offset + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of bounds for length " + length);
+        }
+        return new DecryptedView(this, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = decryptedAt(offset + i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @param position index into the untrimmed decrypted text
+     */
+    private char decryptedAt(int position) {
+        int found = Arrays.binarySearch(newlines, position);
+        if (found >= 0) {
+            return '\n';
+        }
+        // Not a newline: -found - 1 newlines come before it
+        int permutedIndex = position + found + 1;
+        int k = inverse.length;
+        int column = permutedIndex % k;
+        int source = permutedIndex - column + inverse[column];
+        return source < stripped ? encrypted.charAt(sourcePosition(source)) : ' ';
+    }
+
+    /**
+     * @return the position in the encrypted text of the given non-break character
+     */
+    private int sourcePosition(int index) {
+        if (breaks.length == 0 || index < breaks[0]) {
+            return index;
+        }
+        // Smallest j with breaks[j] - j > index: j breaks come before the character
+        int low = 0;
+        int high = breaks.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (breaks[mid] - mid > index) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return index + low;
+    }
+}
@@ -0,0 +1,396 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+/**
+ * Encrypts every file dropped into an ingestion directory.
+ *
+ * A {@link WatchService} reports new and changed files. A file is treated
+ * as complete once its size and modification time have not changed for
+ * the quiet period, so files that are still being written are left alone.
+ * Settled files are queued on a {@link SizeAwareScheduler}, up to the
+ * queue capacity, so a small file waiting with big ones is taken first and
+ * a burst of big files does not hold small ones back; when the queue is
+ * full they stay in the backlog until a worker frees up.
+ *
+ * Each worker encrypts with {@link CryptoEngine} into a hidden temporary
+ * file in the output directory, moves it atomically to
+ * {@code encrypted_<name>} and then deletes the plain input. Files that
+ * fail are left in place and retried only after they change again. The
+ * workers share the engine's heap budget equally, so files dropped at the
+ * same time together stay within it.
+ */
+final class DropFolderWatcher implements DropFolderWatcherMXBean, Closeable {
+
+    static final String OUTPUT_PREFIX = "encrypted_";
+
+    private final Path inbox;
+    private final Path outbox;
+    private final int[] key;
+    private final long quietMillis;
+    private final int threads;
+    private final CryptoEngine engine;
+
+    private final int queueCapacity;
+    private final SizeAwareScheduler workers;
+    private final AtomicInteger queuedFiles = new AtomicInteger();
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private final WatchService watchService;
+    private final Thread watchThread;
+    private volatile boolean running;
+    private volatile long startedAt;
+
+    /** Files waiting to settle, only touched by the watch thread */
+    private final Map<Path, Candidate> settling = new HashMap<>();
+    private final AtomicInteger settlingCount = new AtomicInteger();
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    /** Files that failed, by the modification time they had */
+    private final Map<Path, Long> failed = new ConcurrentHashMap<>();
+
+    private final LongAdder processedFiles = new LongAdder();
+    private final LongAdder failedFiles = new LongAdder();
+    private final LongAdder processedBytes = new LongAdder();
+    private final LongAdder latencySum = new LongAdder();
+    private final LongAdder processingSum = new LongAdder();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * A file seen in the inbox and the state it had when last checked
+     */
+    private static final class Candidate {
+        final long firstSeen;
+        long size;
+        long modified;
+        long lastChange;
+
+        Candidate(long now, long size, long modified) {
+            this.firstSeen = now;
+            this.size = size;
+            this.modified = modified;
+            this.lastChange = now;
+        }
+    }
+
+    /**
+     * @param inbox directory to watch
+     * @param outbox directory for the encrypted files, not the inbox
+     * @param key encryption key
+     * @param threads number of files encrypted at the same time
+     * @param queueCapacity settled files that may wait for a worker
+     * @param quietMillis how long a file must stay unchanged before it is picked up
+     */
+    DropFolderWatcher(Path inbox, Path outbox, int[] key, int threads, int queueCapacity, long quietMillis)
+            throws IOException {
+        Crypto.validateKey(key);
+        if (threads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Threads and queue capacity must be greater than zero.");
+        }
+        if (quietMillis < 0) {
+            throw new IllegalArgumentException("Quiet period cannot be negative.");
+        }
+        if (!Files.isDirectory(inbox)) {
+            throw new IllegalArgumentException("File error: " + inbox + " is not a directory.");
+        }
+        Files.createDirectories(outbox);
+        if (Files.isSameFile(inbox, outbox)) {
+            throw new IllegalArgumentException("The output directory must differ from the watched directory.");
+        }
+        this.inbox = inbox;
+        this.outbox = outbox;
+        this.key = key.clone();
+        this.quietMillis = quietMillis;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        // Every worker may hold a file in memory, so they split the heap budget
+        this.engine = CryptoEngine.withDefaults(threads);
+        this.watchService = inbox.getFileSystem().newWatchService();
+        this.workers = SizeAwareScheduler.withDefaults(threads);
+        this.watchThread = new Thread(this::watch, "crypto-drop-watch");
+        this.watchThread.setDaemon(true);
+    }
+
+    /**
+     * Starts watching; files already in the inbox are picked up too
+     */
+    synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("Watcher already started.");
+        }
+        inbox.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        running = true;
+        startedAt = System.nanoTime();
+        watchThread.start();
+    }
+
+    /**
+     * Stops watching and waits for the files in progress to finish.
+     * Queued files that have not started are left in the inbox.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        watchService.close();
+        try {
+            watchThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Queued files see that the watcher stopped and are skipped
+        workers.close();
+    }
+
+    /**
+     * Publishes the watcher statistics on the platform MBean server
+     * @param name value of the name key in the object name
+     */
+    void register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("Crypto:type=DropFolder,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+            }
+        } catch (JMException e) {
+            System.err.println("Failed to register drop folder MBean: " + e.getMessage());
+        }
+    }
+
+    private void watch() {
+        scanInbox();
+        long pollMillis = Math.max(10, Math.min(quietMillis / 2, 500));
+        while (running) {
+            try {
+                WatchKey watchKey = watchService.poll(pollMillis, TimeUnit.MILLISECONDS);
+                if (watchKey != null) {
+                    for (WatchEvent<?> event : watchKey.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scanInbox();
+                        } else {
+                            seen(inbox.resolve((Path) event.context()));
+                        }
+                    }
+                    watchKey.reset();
+                }
+                dispatchSettled();
+            } catch (ClosedWatchServiceException e) {
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    private void scanInbox() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(inbox)) {
+            for (Path file : files) {
+                seen(file);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to list " + inbox + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts or restarts the quiet period of a file
+     */
+    private void seen(Path file) {
+        String name = file.getFileName().toString();
+        if (name.startsWith(".") || inFlight.contains(file)) {
+            return;
+        }
+        BasicFileAttributes attributes = attributes(file);
+        if (attributes == null || !attributes.isRegularFile()) {
+            return;
+        }
+        Long failedAt = failed.get(file);
+        long modified = attributes.lastModifiedTime().toMillis();
+        if (failedAt != null && failedAt == modified) {
+            return;
+        }
+        long now = System.nanoTime();
+        Candidate candidate = settling.get(file);
+        if (candidate == null) {
+            settling.put(file, new Candidate(now, attributes.size(), modified));
+            settlingCount.incrementAndGet();
+        } else {
+            candidate.lastChange = now;
+        }
+    }
+
+    /**
+     * Hands files that stayed unchanged for the quiet period to the workers
+     */
+    private void dispatchSettled() {
+        long now = System.nanoTime();
+        long quietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+        Iterator<Map.Entry<Path, Candidate>> iterator = settling.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Candidate> entry = iterator.next();
+            Path file = entry.getKey();
+            Candidate candidate = entry.getValue();
+            BasicFileAttributes attributes = attributes(file);
+            if (attributes == null) {
+                // Removed before it settled
+                iterator.remove();
+                settlingCount.decrementAndGet();
+                continue;
+            }
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            if (size != candidate.size || modified != candidate.modified) {
+                candidate.size = size;
+                candidate.modified = modified;
+                candidate.lastChange = now;
+                continue;
+            }
+            if (now - candidate.lastChange < quietNanos || queuedFiles.get() >= queueCapacity) {
+                continue;
+            }
+            iterator.remove();
+            settlingCount.decrementAndGet();
+            inFlight.add(file);
+            failed.remove(file);
+            queuedFiles.incrementAndGet();
+            workers.submit(size, size, () -> {
+                queuedFiles.decrementAndGet();
+                if (!running) {
+                    inFlight.remove(file);
+                    return null;
+                }
+                activeWorkers.incrementAndGet();
+                try {
+                    process(file, candidate.firstSeen, size, modified);
+                } finally {
+                    activeWorkers.decrementAndGet();
+                }
+                return null;
+            });
+        }
+    }
+
+    private void process(Path file, long firstSeen, long size, long modified) {
+        long start = System.nanoTime();
+        Path target = outbox.resolve(OUTPUT_PREFIX + file.getFileName());
+        Path temp = outbox.resolve("." + file.getFileName() + ".tmp");
+        try {
+            engine.encryptFile(file.toFile(), temp.toFile(), key);
+            Path tempChecksums = ChunkChecksums.sidecar(temp.toFile()).toPath();
+            if (Files.exists(tempChecksums)) {
+                Files.move(tempChecksums, ChunkChecksums.sidecar(target.toFile()).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(file);
+
+            long end = System.nanoTime();
+            long latency = TimeUnit.NANOSECONDS.toMillis(end - firstSeen);
+            processedFiles.increment();
+            processedBytes.add(size);
+            latencySum.add(latency);
+            processingSum.add(TimeUnit.NANOSECONDS.toMillis(end - start));
+            maxLatency.accumulateAndGet(latency, Math::max);
+        } catch (IOException | RuntimeException e) {
+            failedFiles.increment();
+            failed.put(file, modified);
+            System.err.println("Failed to encrypt " + file + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+                Files.deleteIfExists(ChunkChecksums.sidecar(temp.toFile()).toPath());
+            } catch (IOException cleanup) {
+                System.err.println("Failed to remove " + temp + ": " + cleanup.getMessage());
+            }
+        } finally {
+            inFlight.remove(file);
+        }
+    }
+
+    private static BasicFileAttributes attributes(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public int getBacklog() {
+        return settlingCount.get() + inFlight.size();
+    }
+
+    @Override
+    public int getSettlingFiles() {
+        return settlingCount.get();
+    }
+
+    @Override
+    public int getQueuedFiles() {
+        return queuedFiles.get();
+    }
+
+    @Override
+    public int getActiveWorkers() {
+        return activeWorkers.get();
+    }
+
+    @Override
+    public int getWorkerThreads() {
+        return threads;
+    }
+
+    @Override
+    public long getProcessedFiles() {
+        return processedFiles.sum();
+    }
+
+    @Override
+    public long getFailedFiles() {
+        return failedFiles.sum();
+    }
+
+    @Override
+    public long getProcessedBytes() {
+        return processedBytes.sum();
+    }
+
+    @Override
+    public double getMeanLatencyMillis() {
+        long count = processedFiles.sum();
+        return count == 0 ? 0.0 : (double) latencySum.sum() / count;
+    }
+
+    @Override
+    public long getMaxLatencyMillis() {
+        return maxLatency.get();
+    }
+
+    @Override
+    public double getMeanProcessingMillis() {
+        long count = processedFiles.sum();
+        return count == 0 ? 0.0 : (double) processingSum.sum() / count;
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        double seconds = elapsedSeconds();
+        return seconds == 0 ? 0.0 : processedFiles.sum() / seconds;
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        double seconds = elapsedSeconds();
+        return seconds == 0 ? 0.0 : processedBytes.sum() / seconds;
+    }
+
+    private double elapsedSeconds() {
+        long started = startedAt;
+        return started == 0 ? 0 : (System.nanoTime() - started) / 1e9;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Management interface of a {@link DropFolderWatcher}.
+ * Registered on the platform MBean server as {@code Crypto:type=DropFolder,name=...}
+ */
+public interface DropFolderWatcherMXBean {
+
+    /**
+     * @return files seen but not finished yet: settling, queued or in progress
+     */
+    int getBacklog();
+
+    /**
+     * @return files waiting for their size and timestamp to settle
+     */
+    int getSettlingFiles();
+
+    /**
+     * @return settled files waiting for a free worker
+     */
+    int getQueuedFiles();
+
+    /**
+     * @return files being encrypted right now
+     */
+    int getActiveWorkers();
+
+    /**
+     * @return number of worker threads
+     */
+    int getWorkerThreads();
+
+    /**
+     * @return files encrypted since the watcher started
+     */
+    long getProcessedFiles();
+
+    /**
+     * @return files that could not be encrypted
+     */
+    long getFailedFiles();
+
+    /**
+     * @return plain bytes encrypted since the watcher started
+     */
+    long getProcessedBytes();
+
+    /**
+     * @return mean time from a file being seen to its output being in place
+     */
+    double getMeanLatencyMillis();
+
+    /**
+     * @return longest time from a file being seen to its output being in place
+     */
+    long getMaxLatencyMillis();
+
+    /**
+     * @return mean time a worker spent on one file
+     */
+    double getMeanProcessingMillis();
+
+    /**
+     * @return files encrypted per second since the watcher started
+     */
+    double getFilesPerSecond();
+
+    /**
+     * @return plain bytes encrypted per second since the watcher started
+     */
+    double getBytesPerSecond();
+}
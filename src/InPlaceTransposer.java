@@ -0,0 +1,262 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Permutes rows where they are, without a second buffer.
+ *
+ * The key is broken into its cycles once. Row position p receives the
+ * value at order[p], so walking a cycle p0, order[p0], order[order[p0]],
+ * ... and shifting every value one step back along it permutes the row
+ * with a single temporary. Fixed points are skipped. Every row, or every
+ * block when the key is as long as a block, is rotated cycle by cycle, so
+ * the only memory besides the data is the cycle table of key length.
+ *
+ * The result is the length-preserving format of {@link ByteTransposer}:
+ * a final short row is permuted with the key restricted to the values
+ * below its length. Char arrays use the same layout, which for text that
+ * is already padded to whole rows and free of line breaks is the
+ * permutation step of {@link Crypto#encrypt}.
+ *
+ * A file run has no copy to fall back on: a run that is killed part way
+ * leaves a file that is neither plain nor encrypted, and a window that was
+ * being written may be half permuted, so it cannot be finished or undone.
+ * A marker file next to it records the mode and how far the run got, and
+ * while it exists the file is refused until it is restored from a copy
+ * and the marker removed. The checksum file ({@link ChunkChecksums}) is
+ * dropped first and written again after an encrypt.
+ */
+final class InPlaceTransposer {
+
+    /** Largest part of a file that is mapped at once */
+    static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+
+    /** Appended to the file name for the marker of a run in progress */
+    static final String MARKER_SUFFIX = ".inplace";
+
+    private final int[] key;
+    private final boolean decrypt;
+    private final int[] cycles;
+
+    /**
+     * @param key encryption key
+     * @param decrypt true to apply the inverse permutation
+     */
+    InPlaceTransposer(int[] key, boolean decrypt) {
+        Crypto.validateKey(key);
+        this.key = key.clone();
+        this.decrypt = decrypt;
+        this.cycles = cycles(decrypt ? TextTransposer.invert(key) : key);
+    }
+
+    /**
+     * @return the row length
+     */
+    int blockSize() {
+        return key.length;
+    }
+
+    /**
+     * Breaks an order into cycles of length two or more
+     * @return the positions of each cycle in walking order, each cycle
+     *         preceded by its length
+     */
+    static int[] cycles(int[] order) {
+        int k = order.length;
+        boolean[] seen = new boolean[k];
+        int[] table = new int[k + k / 2];
+        int n = 0;
+        for (int start = 0; start < k; start++) {
+            if (seen[start] || order[start] == start) {
+                continue;
+            }
+            int lengthAt = n++;
+            int length = 0;
+            for (int p = start; !seen[p]; p = order[p]) {
+                seen[p] = true;
+                table[n++] = p;
+                length++;
+            }
+            table[lengthAt] = length;
+        }
+        int[] trimmed = new int[n];
+        System.arraycopy(table, 0, trimmed, 0, n);
+        return trimmed;
+    }
+
+    /**
+     * Permutes the given range, whole rows first and then a short tail row
+     */
+    void transform(byte[] data, int offset, int length) {
+        int k = key.length;
+        int end = offset + length;
+        int tail = length % k;
+        for (int row = offset; row < end - tail; row += k) {
+            rotate(data, row, cycles);
+        }
+        if (tail > 0) {
+            rotate(data, end - tail, cycles(tailOrder(tail)));
+        }
+    }
+
+    /**
+     * Permutes the given range, whole rows first and then a short tail row
+     */
+    void transform(char[] data, int offset, int length) {
+        int k = key.length;
+        int end = offset + length;
+        int tail = length % k;
+        for (int row = offset; row < end - tail; row += k) {
+            rotate(data, row, cycles);
+        }
+        if (tail > 0) {
+            rotate(data, end - tail, cycles(tailOrder(tail)));
+        }
+    }
+
+    /**
+     * Permutes the bytes between position and limit; neither is changed.
+     * Works on direct and mapped buffers without copying them.
+     */
+    void transform(ByteBuffer data) {
+        int k = key.length;
+        int start = data.position();
+        int end = data.limit();
+        int tail = (end - start) % k;
+        for (int row = start; row < end - tail; row += k) {
+            rotate(data, row, cycles);
+        }
+        if (tail > 0) {
+            rotate(data, end - tail, cycles(tailOrder(tail)));
+        }
+    }
+
+    /**
+     * Encrypts or decrypts a file in place by mapping it a window at a time
+     * @return number of bytes processed
+     */
+    static long transformFile(File file, int[] key, boolean decrypt) throws IOException {
+        return transformFile(file, key, decrypt, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize largest part of the file mapped at once, rounded down to whole rows
+     */
+    static long transformFile(File file, int[] key, boolean decrypt, int windowSize) throws IOException {
+        InPlaceTransposer transposer = new InPlaceTransposer(key, decrypt);
+        if (file == null || !file.isFile()) {
+            throw new IllegalArgumentException("File error: invalid file or file path.");
+        }
+        File marker = marker(file);
+        if (marker.exists()) {
+            throw new IOException(interrupted(file, marker));
+        }
+        String mode = decrypt ? "decrypt" : "encrypt";
+        writeMarker(marker, mode, 0);
+        File sidecar = ChunkChecksums.sidecar(file);
+        if (sidecar.exists() && !sidecar.delete()) {
+            throw new IOException("Cannot remove checksum file " + sidecar);
+        }
+        long step = Math.max(1, windowSize / key.length) * (long) key.length;
+        long size;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            size = channel.size();
+            for (long position = 0; position < size; position += step) {
+                // Windows end on row boundaries, so only the last one has a tail
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                        Math.min(step, size - position));
+                transposer.transform(window);
+                window.force();
+                writeMarker(marker, mode, Math.min(position + step, size));
+            }
+        }
+        if (!decrypt && ChunkChecksums.ENABLED) {
+            ChunkChecksums.write(file);
+        }
+        // Only a finished run removes the marker; a failed one keeps the file refused
+        Files.delete(marker.toPath());
+        return size;
+    }
+
+    /**
+     * @return the marker a run on the file leaves until it finishes
+     */
+    static File marker(File file) {
+        return new File(file.getPath() + MARKER_SUFFIX);
+    }
+
+    private static void writeMarker(File marker, String mode, long done) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(marker)) {
+            out.write((mode + " " + done + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.getFD().sync();
+        }
+    }
+
+    private static String interrupted(File file, File marker) {
+        String progress;
+        try {
+            String[] fields = new String(Files.readAllBytes(marker.toPath()), StandardCharsets.US_ASCII)
+                    .trim().split(" ");
+            progress = "an in-place " + fields[0] + " got through " + fields[1] + " bytes";
+        } catch (IOException | RuntimeException e) {
+            progress = "an in-place run did not finish";
+        }
+        return "Cannot transform " + file + ": " + progress + " and the rest may be half permuted."
+                + " Restore it from a copy and delete " + marker;
+    }
+
+    /**
+     * Order for a row of r &lt; k elements: the key entries below r, in key order
+     */
+    private int[] tailOrder(int r) {
+        int[] restricted = new int[r];
+        int n = 0;
+        for (int value : key) {
+            if (value < r) {
+                restricted[n++] = value;
+            }
+        }
+        return decrypt ? TextTransposer.invert(restricted) : restricted;
+    }
+
+    private static void rotate(byte[] data, int row, int[] cycles) {
+        for (int c = 0; c < cycles.length; ) {
+            int length = cycles[c++];
+            int end = c + length - 1;
+            byte first = data[row + cycles[c]];
+            for (; c < end; c++) {
+                data[row + cycles[c]] = data[row + cycles[c + 1]];
+            }
+            data[row + cycles[c++]] = first;
+        }
+    }
+
+    private static void rotate(char[] data, int row, int[] cycles) {
+        for (int c = 0; c < cycles.length; ) {
+            int length = cycles[c++];
+            int end = c + length - 1;
+            char first = data[row + cycles[c]];
+            for (; c < end; c++) {
+                data[row + cycles[c]] = data[row + cycles[c + 1]];
+            }
+            data[row + cycles[c++]] = first;
+        }
+    }
+
+    private static void rotate(ByteBuffer data, int row, int[] cycles) {
+        for (int c = 0; c < cycles.length; ) {
+            int length = cycles[c++];
+            int end = c + length - 1;
+            byte first = data.get(row + cycles[c]);
+            for (; c < end; c++) {
+                data.put(row + cycles[c], data.get(row + cycles[c + 1]));
+            }
+            data.put(row + cycles[c++], first);
+        }
+    }
+}
@@ -0,0 +1,351 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Incremental re-encryption of documents that change a little between runs.
+ *
+ * The plain text is cut into chunks of whole rows and a manifest with the
+ * SHA-256 of each chunk is kept next to the encrypted file
+ * ({@code <output>.manifest}). On the next run only chunks whose text or
+ * starting state changed are permuted and rewritten in place; unchanged
+ * chunks are skipped over without permuting. The file is always identical
+ * to {@code saveToFile(encrypt(readFileContent(input), key), output)}.
+ *
+ * An output with a checksum file ({@link ChunkChecksums}) gets it written
+ * again after the run, which reads the whole output once. The old one is
+ * removed before the output changes, so an interrupted run leaves none.
+ */
+final class IncrementalEncryptor {
+
+    static final String MANIFEST_SUFFIX = ".manifest";
+    private static final String MANIFEST_HEADER = "# Crypto incremental manifest v1";
+    private static final int DEFAULT_CHUNK_CHARS = 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Outcome of one incremental run
+     */
+    static final class Result {
+        final int chunks;
+        final int rewrittenChunks;
+        final long bytesWritten;
+
+        Result(int chunks, int rewrittenChunks, long bytesWritten) {
+            this.chunks = chunks;
+            this.rewrittenChunks = rewrittenChunks;
+            this.bytesWritten = bytesWritten;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d of %d chunks rewritten, %d bytes written",
+                    rewrittenChunks, chunks, bytesWritten);
+        }
+    }
+
+    /**
+     * One manifest line: where a chunk's output lives and what produced it
+     */
+    private static final class Chunk {
+        final String hash;
+        final String state;
+        final long offset;
+        final long length;
+        final int carryOut;
+        final boolean last;
+
+        Chunk(String hash, String state, long offset, long length, int carryOut, boolean last) {
+            this.hash = hash;
+            this.state = state;
+            this.offset = offset;
+            this.length = length;
+            this.carryOut = carryOut;
+            this.last = last;
+        }
+    }
+
+    private final int[] key;
+    private final int chunkRows;
+    private final Charset charset = Charset.defaultCharset();
+    private final String lineSeparator = System.lineSeparator();
+
+    /**
+     * @param key encryption key
+     */
+    IncrementalEncryptor(int[] key) {
+        this(key, Math.max(1, DEFAULT_CHUNK_CHARS / Math.max(1, key == null ? 1 : key.length)));
+    }
+
+    /**
+     * @param key encryption key
+     * @param chunkRows number of rows per chunk
+     */
+    IncrementalEncryptor(int[] key, int chunkRows) {
+        Crypto.validateKey(key);
+        if (chunkRows <= 0) {
+            throw new IllegalArgumentException("Chunk rows must be greater than zero.");
+        }
+        this.key = key.clone();
+        this.chunkRows = chunkRows;
+    }
+
+    /**
+     * Brings an encrypted file up to date with its plain text
+     * @param input plain text file
+     * @param output encrypted file, created on the first run
+     * @return how much of the output had to be rewritten
+     */
+    Result encrypt(File input, File output) throws IOException {
+        if (input == null || !input.isFile()) {
+            throw new IllegalArgumentException("File error: invalid file or file path.");
+        }
+        File manifestFile = new File(output.getPath() + MANIFEST_SUFFIX);
+        List<Chunk> previous = output.isFile() ? readManifest(manifestFile) : Collections.emptyList();
+        // An interrupted run leaves no manifest, so the next run starts over,
+        // and no checksum file that no longer matches
+        manifestFile.delete();
+        File sidecar = ChunkChecksums.sidecar(output);
+        boolean checksummed = sidecar.isFile();
+        if (checksummed && !sidecar.delete()) {
+            throw new IOException("Cannot replace checksum file " + sidecar);
+        }
+        File parent = output.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        Run run;
+        try (Reader reader = new InputStreamReader(new FileInputStream(input), charset);
+             FileChannel channel = FileChannel.open(output.toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            run = new Run(previous, channel);
+            run.process(reader);
+        }
+        writeManifest(manifestFile, run.chunks);
+        if (checksummed) {
+            ChunkChecksums.write(output);
+        }
+        return new Result(run.chunks.size(), run.rewritten, run.bytesWritten);
+    }
+
+    /**
+     * State of one pass over the input
+     */
+    private final class Run {
+        private final List<Chunk> previous;
+        private final FileChannel channel;
+        private final List<Chunk> chunks = new ArrayList<>();
+        private final CharArrayWriter captured = new CharArrayWriter();
+        private final TextTransposer transposer;
+        private final CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final MessageDigest digest = newDigest();
+        private final long keptPerChunk = (long) chunkRows * key.length;
+
+        private char[] segment = new char[8192];
+        private int segmentLength;
+        private long keptInSegment;
+        private final StringBuilder heldWhitespace = new StringBuilder();
+        private boolean leading = true;
+        private long offset;
+        private int carry;
+        private int rewritten;
+        private long bytesWritten;
+
+        Run(List<Chunk> previous, FileChannel channel) {
+            this.previous = previous;
+            this.channel = channel;
+            this.transposer = new TextTransposer(key, false, false, lineSeparator, captured);
+        }
+
+        void process(Reader reader) throws IOException {
+            char[] buffer = new char[READ_BUFFER_SIZE];
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    char c = buffer[i];
+                    // Trim like readFileContent: drop leading whitespace and
+                    // hold trailing whitespace until more text follows
+                    if (c <= ' ') {
+                        if (!leading) {
+                            heldWhitespace.append(c);
+                        }
+                        continue;
+                    }
+                    leading = false;
+                    for (int h = 0; h < heldWhitespace.length(); h++) {
+                        feed(heldWhitespace.charAt(h));
+                    }
+                    heldWhitespace.setLength(0);
+                    feed(c);
+                }
+            }
+            finishLastChunk();
+        }
+
+        private void feed(char c) throws IOException {
+            if (segmentLength == segment.length) {
+                segment = Arrays.copyOf(segment, segment.length * 2);
+            }
+            segment[segmentLength++] = c;
+            if (!TextTransposer.isLineBreak(c) && ++keptInSegment == keptPerChunk) {
+                completeChunk();
+            }
+        }
+
+        /**
+         * Handles a chunk that ended on a row boundary
+         */
+        private void completeChunk() throws IOException {
+            String state = transposer.boundaryState() + "/" + carry;
+            String hash = hashSegment();
+            int index = chunks.size();
+            Chunk old = index < previous.size() ? previous.get(index) : null;
+            if (old != null && !old.last && old.offset == offset
+                    && old.hash.equals(hash) && old.state.equals(state)) {
+                // Unchanged: move the transposer past it without permuting
+                transposer.advance(segment, 0, segmentLength);
+                chunks.add(old);
+                offset += old.length;
+                carry = old.carryOut;
+            } else {
+                transposer.update(segment, 0, segmentLength);
+                transposer.flushBuffered();
+                writeChunk(hash, state, false);
+            }
+            segmentLength = 0;
+            keptInSegment = 0;
+        }
+
+        private void finishLastChunk() throws IOException {
+            String state = transposer.boundaryState() + "/" + carry;
+            String hash = hashSegment();
+            transposer.update(segment, 0, segmentLength);
+            transposer.finish();
+            writeChunk(hash, state, true);
+            channel.truncate(offset);
+        }
+
+        /**
+         * Encodes the captured output and writes it at the current offset.
+         * A high surrogate at the end of a chunk is carried into the next one
+         * so pairs split across chunks encode exactly like the whole text.
+         */
+        private void writeChunk(String hash, String state, boolean last) throws IOException {
+            StringBuilder text = new StringBuilder(captured.size() + 1);
+            if (carry != 0) {
+                text.append((char) carry);
+            }
+            text.append(captured.toCharArray());
+            captured.reset();
+
+            int carryOut = 0;
+            if (!last && text.length() > 0 && Character.isHighSurrogate(text.charAt(text.length() - 1))) {
+                carryOut = text.charAt(text.length() - 1);
+                text.setLength(text.length() - 1);
+            }
+            ByteBuffer bytes = encoder.reset().encode(CharBuffer.wrap(text));
+            long length = bytes.remaining();
+            long position = offset;
+            while (bytes.hasRemaining()) {
+                position += channel.write(bytes, position);
+            }
+            chunks.add(new Chunk(hash, state, offset, length, carryOut, last));
+            offset += length;
+            carry = carryOut;
+            rewritten++;
+            bytesWritten += length;
+        }
+
+        private String hashSegment() {
+            byte[] bytes = new byte[Math.min(segmentLength, 4096) * 2];
+            for (int start = 0; start < segmentLength; start += bytes.length / 2) {
+                int n = Math.min(bytes.length / 2, segmentLength - start);
+                for (int i = 0; i < n; i++) {
+                    char c = segment[start + i];
+                    bytes[2 * i] = (byte) (c >> 8);
+                    bytes[2 * i + 1] = (byte) c;
+                }
+                digest.update(bytes, 0, n * 2);
+            }
+            return toHex(digest.digest());
+        }
+    }
+
+    private List<Chunk> readManifest(File manifestFile) {
+        if (!manifestFile.isFile()) {
+            return Collections.emptyList();
+        }
+        List<Chunk> chunks = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(manifestFile))) {
+            if (!MANIFEST_HEADER.equals(reader.readLine())
+                    || !settings().equals(reader.readLine())) {
+                // Different key, chunking or encoding: start over
+                return Collections.emptyList();
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length != 6) {
+                    return Collections.emptyList();
+                }
+                chunks.add(new Chunk(parts[0], parts[1], Long.parseLong(parts[2]),
+                        Long.parseLong(parts[3]), Integer.parseInt(parts[4]), "last".equals(parts[5])));
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Ignoring unreadable manifest " + manifestFile + ": " + e.getMessage());
+            return Collections.emptyList();
+        }
+        return chunks;
+    }
+
+    private void writeManifest(File manifestFile, List<Chunk> chunks) throws IOException {
+        File temp = new File(manifestFile.getPath() + ".tmp");
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(temp)))) {
+            writer.println(MANIFEST_HEADER);
+            writer.println(settings());
+            for (Chunk chunk : chunks) {
+                writer.println(chunk.hash + " " + chunk.state + " " + chunk.offset + " "
+                        + chunk.length + " " + chunk.carryOut + " " + (chunk.last ? "last" : "-"));
+            }
+        }
+        Files.move(temp.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Everything besides the text that the output depends on
+     */
+    private String settings() {
+        MessageDigest digest = newDigest();
+        for (int k : key) {
+            digest.update(new byte[] {(byte) (k >>> 24), (byte) (k >>> 16), (byte) (k >>> 8), (byte) k});
+        }
+        return "key=" + toHex(digest.digest()).substring(0, 32) + " rows=" + chunkRows
+                + " charset=" + charset.name() + " eol=" + lineSeparator.replace("\r", "CR").replace("\n", "LF");
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,438 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Reading and writing of key files, for keys of any size.
+ *
+ * Text keys are the format the application has always written, either
+ * {@code [2, 0, 1]} or the GUI's {@code 3\n[2, 0, 1]} with the key size
+ * on the first line. They are parsed in a single pass straight from the
+ * characters, without regular expressions or a String per entry, and the
+ * values are validated as they are read.
+ *
+ * Binary keys are for keys with millions of entries. The file is a 16-byte
+ * header followed by the entries as big-endian 32-bit ints, so it can be
+ * memory-mapped and used without parsing:
+ * <pre>
+ *   0  magic "CKEY"
+ *   4  format version, 1
+ *   5  bytes per entry, 4
+ *   6  reserved, 0
+ *   8  number of entries
+ *  12  CRC32C of the entry bytes
+ *  16  entries
+ * </pre>
+ */
+final class KeyFiles {
+
+    static final byte[] MAGIC = {'C', 'K', 'E', 'Y'};
+    static final int HEADER_SIZE = 16;
+    private static final byte VERSION = 1;
+    private static final byte ENTRY_SIZE = 4;
+    private static final int BUFFER_SIZE = 8192;
+
+    private KeyFiles() {
+    }
+
+    /**
+     * Reads a key file in either format
+     * @param file a binary or text key file
+     * @return the validated key
+     */
+    static int[] load(File file) throws IOException {
+        if (isBinary(file)) {
+            return readBinary(file);
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            return parse(reader);
+        }
+    }
+
+    /**
+     * @return true if the file starts with the binary key header
+     */
+    static boolean isBinary(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] magic = new byte[MAGIC.length];
+            return in.readNBytes(magic, 0, magic.length) == magic.length && Arrays.equals(magic, MAGIC);
+        }
+    }
+
+    /**
+     * Writes a key in the binary format
+     */
+    static void writeBinary(int[] key, File file) throws IOException {
+        Crypto.validateKey(key);
+        ByteBuffer entries = ByteBuffer.allocate(BUFFER_SIZE);
+        CRC32C crc = new CRC32C();
+        for (int i = 0; i < key.length; ) {
+            entries.clear();
+            while (i < key.length && entries.remaining() >= ENTRY_SIZE) {
+                entries.putInt(key[i++]);
+            }
+            entries.flip();
+            crc.update(entries);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC).put(VERSION).put(ENTRY_SIZE).putShort((short) 0);
+        header.putInt(key.length).putInt((int) crc.getValue());
+        header.flip();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            for (int i = 0; i < key.length; ) {
+                entries.clear();
+                while (i < key.length && entries.remaining() >= ENTRY_SIZE) {
+                    entries.putInt(key[i++]);
+                }
+                entries.flip();
+                writeFully(channel, entries);
+            }
+        }
+    }
+
+    /**
+     * Reads a binary key file into an array
+     * @return the validated key
+     */
+    static int[] readBinary(File file) throws IOException {
+        IntBuffer entries = map(file);
+        int[] key = new int[entries.remaining()];
+        entries.get(key);
+        return key;
+    }
+
+    /**
+     * Maps a binary key file without copying its entries.
+     * The checksum and the permutation are checked before it is returned.
+     * @return a read-only view of the entries
+     */
+    static IntBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Not a binary key file: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            byte[] magic = new byte[MAGIC.length];
+            mapped.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a binary key file: " + file);
+            }
+            byte version = mapped.get();
+            byte entrySize = mapped.get();
+            if (version != VERSION || entrySize != ENTRY_SIZE) {
+                throw new IOException("Unsupported key file version " + version + " in " + file);
+            }
+            mapped.getShort();
+            int length = mapped.getInt();
+            int checksum = mapped.getInt();
+            if (length <= 0 || size != HEADER_SIZE + (long) length * ENTRY_SIZE) {
+                throw new IOException("Key file is truncated or has trailing data: " + file);
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(mapped.slice());
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Key file checksum mismatch: " + file);
+            }
+            IntBuffer entries = mapped.slice().asIntBuffer().asReadOnlyBuffer();
+            validate(entries);
+            return entries;
+        }
+    }
+
+    /**
+     * Parses a text key
+     * @param text {@code [2, 0, 1]}, {@code 2,0,1} or {@code 3\n[2, 0, 1]}
+     * @return the validated key
+     */
+    static int[] parse(CharSequence text) {
+        try {
+            // The text is already in memory, a small window is enough
+            int bufferSize = Math.max(16, Math.min(1024, text.length()));
+            return new Parser(new CharSequenceReader(text), bufferSize).parse();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses a text key from a reader in one pass
+     * @return the validated key
+     */
+    static int[] parse(Reader reader) throws IOException {
+        return new Parser(reader, BUFFER_SIZE).parse();
+    }
+
+    /**
+     * Writes a key in the GUI text format, {@code size\n[a, b, ...]}
+     */
+    static void writeText(int[] key, File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            writer.write(Integer.toString(key.length));
+            writer.write(System.lineSeparator());
+            writer.write('[');
+            for (int i = 0; i < key.length; i++) {
+                if (i > 0) {
+                    writer.write(", ");
+                }
+                writer.write(Integer.toString(key[i]));
+            }
+            writer.write(']');
+        }
+    }
+
+    private static void validate(IntBuffer entries) {
+        int length = entries.remaining();
+        boolean[] seen = new boolean[length];
+        for (int i = entries.position(); i < entries.limit(); i++) {
+            int value = entries.get(i);
+            if (value < 0 || value >= length) {
+                throw new IllegalArgumentException("Invalid key: values must be between 0 and " + (length - 1));
+            }
+            if (seen[value]) {
+                throw new IllegalArgumentException("Invalid key: key contains duplicate values.");
+            }
+            seen[value] = true;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Single-pass parser for text keys.
+     *
+     * Accepts an optional size line, optional brackets and comma-separated
+     * integers with any whitespace around them. When the size line is
+     * present, range and duplicate checks happen as each value is read.
+     * The declared size is not trusted for allocation: the arrays grow with
+     * the values actually read, up to that size.
+     */
+    private static final class Parser {
+        private final Reader reader;
+        private final char[] buffer;
+        private int position;
+        private int limit;
+        private int offset;
+
+        private int[] key = new int[16];
+        private int count;
+        private int declared = -1;
+        private boolean[] seen;
+        // A value past the end of seen is checked for duplicates at the end
+        private boolean deferred;
+
+        Parser(Reader reader, int bufferSize) {
+            this.reader = reader;
+            this.buffer = new char[bufferSize];
+        }
+
+        int[] parse() throws IOException {
+            skipWhitespace();
+            boolean bracket = peek() == '[';
+            if (!bracket) {
+                long first = readNumber();
+                boolean lineBreak = skipWhitespace();
+                int c = peek();
+                if (lineBreak && c != -1 && c != ',') {
+                    // "size\n[...]" as written by the GUI
+                    if (first <= 0) {
+                        throw format("key size must be greater than zero");
+                    }
+                    declared = (int) first;
+                    key = new int[Math.min(declared, key.length)];
+                    seen = new boolean[key.length];
+                    bracket = c == '[';
+                } else {
+                    add(first);
+                }
+            }
+            if (bracket) {
+                next();
+                skipWhitespace();
+            }
+            if (count == 0) {
+                add(readNumber());
+                skipWhitespace();
+            }
+            int c;
+            while ((c = peek()) == ',') {
+                next();
+                skipWhitespace();
+                add(readNumber());
+                skipWhitespace();
+            }
+            if (bracket) {
+                if (c != ']') {
+                    throw format(c == -1 ? "missing ']'" : unexpected(c));
+                }
+                next();
+                skipWhitespace();
+                c = peek();
+            }
+            if (c != -1) {
+                throw format(unexpected(c));
+            }
+
+            if (declared >= 0) {
+                if (count != declared) {
+                    throw format("key size is " + declared + " but " + count + " values were given");
+                }
+                if (deferred) {
+                    validateRange(key, count);
+                }
+                return key;
+            }
+            int[] result = Arrays.copyOf(key, count);
+            validateRange(result, count);
+            return result;
+        }
+
+        private void add(long value) {
+            if (declared >= 0) {
+                if (count == declared) {
+                    throw format("more than " + declared + " values were given");
+                }
+                if (value < 0 || value >= declared) {
+                    throw new IllegalArgumentException("Invalid key: values must be between 0 and " + (declared - 1));
+                }
+                if (count == key.length) {
+                    key = Arrays.copyOf(key, (int) Math.min(declared, key.length * 2L));
+                    seen = Arrays.copyOf(seen, key.length);
+                }
+                if (value >= seen.length) {
+                    deferred = true;
+                } else if (seen[(int) value]) {
+                    throw new IllegalArgumentException("Invalid key: key contains duplicate values.");
+                } else {
+                    seen[(int) value] = true;
+                }
+            } else if (count == key.length) {
+                key = Arrays.copyOf(key, key.length * 2);
+            }
+            key[count++] = (int) value;
+        }
+
+        private long readNumber() throws IOException {
+            int c = peek();
+            boolean negative = c == '-';
+            if (negative || c == '+') {
+                next();
+                c = peek();
+            }
+            if (c < '0' || c > '9') {
+                throw format(c == -1 ? "missing value" : unexpected(c));
+            }
+            long value = 0;
+            while (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                if (value > Integer.MAX_VALUE + 1L) {
+                    throw format("value out of range at offset " + (offset + position));
+                }
+                next();
+                c = peek();
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                throw format("value out of range at offset " + (offset + position));
+            }
+            return value;
+        }
+
+        /**
+         * @return true if a line break was skipped
+         */
+        private boolean skipWhitespace() throws IOException {
+            boolean lineBreak = false;
+            int c;
+            while ((c = peek()) != -1 && Character.isWhitespace(c)) {
+                lineBreak |= c == '\n' || c == '\r';
+                next();
+            }
+            return lineBreak;
+        }
+
+        private int peek() throws IOException {
+            if (position == limit) {
+                offset += limit;
+                position = 0;
+                limit = Math.max(0, reader.read(buffer, 0, buffer.length));
+                if (limit == 0) {
+                    return -1;
+                }
+            }
+            return buffer[position];
+        }
+
+        private void next() {
+            position++;
+        }
+
+        private String unexpected(int c) {
+            return "unexpected '" + (char) c + "' at offset " + (offset + position);
+        }
+
+        private IllegalArgumentException format(String detail) {
+            return new IllegalArgumentException("Invalid key format: " + detail);
+        }
+
+        private static void validateRange(int[] key, int length) {
+            boolean[] seen = new boolean[length];
+            for (int value : key) {
+                if (value < 0 || value >= length) {
+                    throw new IllegalArgumentException("Invalid key: values must be between 0 and " + (length - 1));
+                }
+                if (seen[value]) {
+                    throw new IllegalArgumentException("Invalid key: key contains duplicate values.");
+                }
+                seen[value] = true;
+            }
+        }
+    }
+
+    /**
+     * Reader over a CharSequence that copies straight into the caller's buffer
+     */
+    private static final class CharSequenceReader extends Reader {
+        private final CharSequence text;
+        private int position;
+
+        CharSequenceReader(CharSequence text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] buffer, int off, int len) {
+            if (position >= text.length()) {
+                return -1;
+            }
+            int n = Math.min(len, text.length() - position);
+            if (text instanceof String) {
+                ((String) text).getChars(position, position + n, buffer, off);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    buffer[off + i] = text.charAt(position + i);
+                }
+            }
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,216 @@
+import java.io.*;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Moves encrypted files from one key to another without decrypting them
+ * to disk.
+ *
+ * Encryption puts p[oldKey[j]] at position j of a row, so the plain row is
+ * p[i] = e[inverse(oldKey)[i]] and the row under the new key is
+ * e[inverse(oldKey)[newKey[j]]]. That composed order is one permutation,
+ * applied in a single streaming pass with a {@link TextTransposer}. Line
+ * breaks sit at the same positions in plain and encrypted text, so they
+ * stay where they are. The result is what decrypting with the old key
+ * and encrypting the result with the new key writes.
+ *
+ * Keys of different lengths cut rows differently and do not compose. For
+ * them the decrypting transposer feeds the encrypting one directly, which
+ * costs the second permutation but still keeps the plain text in memory,
+ * one row at a time.
+ *
+ * Only the text format is rekeyed. The binary format of
+ * {@link TranspositionOutputStream} would come out garbled, so input that
+ * does not decode cleanly in the default charset or contains NUL
+ * characters is refused, whatever the file is called, and files named with
+ * {@link CheckpointedJob#OUTPUT_PREFIX} are refused without reading them.
+ */
+final class KeyRotation {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private KeyRotation() {
+    }
+
+    /**
+     * Result of rekeying one file
+     */
+    static final class Outcome {
+        final File file;
+        final String error;
+
+        Outcome(File file, String error) {
+            this.file = file;
+            this.error = error;
+        }
+
+        boolean ok() {
+            return error == null;
+        }
+
+        @Override
+        public String toString() {
+            return file + (ok() ? ": rekeyed" : ": FAILED " + error);
+        }
+    }
+
+    /**
+     * Composes decryption with one key and encryption with another
+     * @return order where rekeyed[j] = encrypted[order[j]] in every row
+     */
+    static int[] compose(int[] oldKey, int[] newKey) {
+        Crypto.validateKey(oldKey);
+        Crypto.validateKey(newKey);
+        if (oldKey.length != newKey.length) {
+            throw new IllegalArgumentException("Only keys of the same length can be composed.");
+        }
+        int[] inverse = TextTransposer.invert(oldKey);
+        int[] order = new int[newKey.length];
+        for (int j = 0; j < order.length; j++) {
+            order[j] = inverse[newKey[j]];
+        }
+        return order;
+    }
+
+    /**
+     * Rekeys an encrypted file into another file
+     * @param input file encrypted with oldKey
+     * @param output destination, encrypted with newKey
+     */
+    static void rekeyFile(File input, File output, int[] oldKey, int[] newKey) throws IOException {
+        if (input == null || !input.isFile()) {
+            throw new IllegalArgumentException("File error: invalid file or file path.");
+        }
+        if (input.getName().startsWith(CheckpointedJob.OUTPUT_PREFIX)) {
+            throw new IllegalArgumentException("Binary transposition cannot be rekeyed: " + input.getName());
+        }
+        boolean done = false;
+        // Binary input must fail instead of being decoded into replacement characters
+        CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        try (Reader reader = new InputStreamReader(new FileInputStream(input), decoder);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(
+                     new FileOutputStream(output), Charset.defaultCharset()), BUFFER_SIZE)) {
+            TextTransposer first;
+            TextTransposer second = null;
+            if (oldKey.length == newKey.length) {
+                // The composed order is used as an encryption key: no trimming, padding as encrypt does
+                first = new TextTransposer(compose(oldKey, newKey), false, true, System.lineSeparator(), writer);
+            } else {
+                second = new TextTransposer(newKey, false, true, System.lineSeparator(), writer);
+                first = new TextTransposer(oldKey, true, true, "\n", into(second));
+            }
+            char[] buffer = new char[BUFFER_SIZE];
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    if (buffer[i] == '\0') {
+                        throw new IOException("Not encrypted text, binary content cannot be rekeyed: "
+                                + input.getName());
+                    }
+                }
+                first.update(buffer, 0, n);
+            }
+            first.finish();
+            if (second != null) {
+                second.finish();
+            }
+            done = true;
+        } catch (CharacterCodingException e) {
+            throw new IOException("Not encrypted text in " + Charset.defaultCharset()
+                    + ", binary content cannot be rekeyed: " + input.getName());
+        } finally {
+            if (!done) {
+                output.delete();
+            }
+        }
+    }
+
+    /**
+     * Rekeys encrypted files where they are. Each file is written to a
+     * temporary file next to it and moved over the original, and its
+     * checksum file, if it has one, is written again. Files run on a
+     * {@link SizeAwareScheduler}, so small files are not held up behind
+     * big ones.
+     * @param files files encrypted with oldKey
+     * @param threads number of files rekeyed at the same time
+     * @return one outcome per file, in the given order
+     */
+    static List<Outcome> rekeyAll(List<File> files, int[] oldKey, int[] newKey, int threads)
+            throws InterruptedException {
+        Crypto.validateKey(oldKey);
+        Crypto.validateKey(newKey);
+        try (SizeAwareScheduler scheduler = SizeAwareScheduler.withDefaults(Math.max(1, threads))) {
+            List<Future<Outcome>> futures = new ArrayList<>();
+            for (File file : files) {
+                long size = file.length();
+                futures.add(scheduler.submit(size, size, () -> rekeyInPlace(file, oldKey, newKey)));
+            }
+            List<Outcome> outcomes = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    outcomes.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    outcomes.add(new Outcome(files.get(i), String.valueOf(e.getCause())));
+                }
+            }
+            return outcomes;
+        }
+    }
+
+    private static Outcome rekeyInPlace(File file, int[] oldKey, int[] newKey) {
+        File temp = null;
+        try {
+            if (!file.isFile()) {
+                return new Outcome(file, "not a file");
+            }
+            File directory = file.getAbsoluteFile().getParentFile();
+            temp = File.createTempFile("." + file.getName(), ".tmp", directory);
+            rekeyFile(file, temp, oldKey, newKey);
+            File sidecar = ChunkChecksums.sidecar(file);
+            if (sidecar.isFile()) {
+                // Checksums of the new content, in place before the content itself moves
+                ChunkChecksums.write(temp);
+                Files.move(ChunkChecksums.sidecar(temp).toPath(), sidecar.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return new Outcome(file, null);
+        } catch (IOException | IllegalArgumentException e) {
+            if (temp != null) {
+                temp.delete();
+                ChunkChecksums.sidecar(temp).delete();
+            }
+            return new Outcome(file, e.getMessage());
+        }
+    }
+
+    /**
+     * @return a writer that feeds everything written to it into a transposer
+     */
+    private static Writer into(TextTransposer transposer) {
+        return new Writer() {
+            @Override
+            public void write(char[] chars, int offset, int length) throws IOException {
+                transposer.update(chars, offset, length);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,256 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Line mode: every line is padded and permuted on its own.
+ *
+ * The default mode strips all line breaks and permutes the text as one
+ * stream, so no line can be decrypted without the text before it. In line
+ * mode a line of length L becomes ceil(L / k) * k encrypted characters
+ * (an empty line stays empty) and the line breaks are copied through
+ * unchanged. Line N of the encrypted text therefore decrypts on its own
+ * with {@link #decryptLine}, and lines are encrypted in parallel.
+ *
+ * Decrypting drops trailing spaces of each line together with the
+ * padding, the per-line counterpart of {@link Crypto#decrypt} trimming
+ * the end of the text.
+ */
+final class LineTransposer {
+
+    /** Smallest text worth splitting across cores */
+    static final int PARALLEL_THRESHOLD = 256 * 1024;
+    /** Characters handed to one parallel task */
+    private static final int CHARS_PER_TASK = 64 * 1024;
+    /** Characters read per batch by {@link #transformFile} */
+    private static final int FILE_BATCH_SIZE = 8 * 1024 * 1024;
+
+    private LineTransposer() {
+    }
+
+    /**
+     * Encrypts every line of a text on its own
+     * @param text text to encrypt
+     * @param key encryption key
+     * @return the encrypted lines with the original line breaks
+     */
+    static String encrypt(String text, int[] key) {
+        return transform(text, key, false);
+    }
+
+    /**
+     * Decrypts text encrypted with {@link #encrypt}
+     * @param text encrypted lines
+     * @param key encryption key
+     * @return the decrypted lines with the original line breaks
+     */
+    static String decrypt(String text, int[] key) {
+        return transform(text, key, true);
+    }
+
+    /**
+     * Decrypts one line taken from a line mode text
+     * @param line the encrypted line, without its line break
+     * @param key encryption key
+     * @return the plain line without trailing spaces
+     */
+    static String decryptLine(String line, int[] key) {
+        Crypto.validateKey(key);
+        if (line == null) {
+            throw new IllegalArgumentException("Encrypted text cannot be null or empty");
+        }
+        int k = key.length;
+        if (line.length() % k != 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Line length %d is not a multiple of the key size %d", line.length(), k));
+        }
+        char[] chars = line.toCharArray();
+        char[] result = new char[chars.length];
+        permuteLine(chars, result, 0, chars.length, 0, TextTransposer.invert(key));
+        return new String(result, 0, trimmedEnd(result, 0, result.length));
+    }
+
+    /**
+     * Transforms a text file line by line in bounded batches
+     * @param input source file, UTF-8
+     * @param output destination file, UTF-8
+     * @param key encryption key
+     * @param decrypt true to decrypt
+     */
+    static void transformFile(File input, File output, int[] key, boolean decrypt) throws IOException {
+        Crypto.validateKey(key);
+        if (input == null || !input.isFile()) {
+            throw new IllegalArgumentException("File error: invalid file or file path.");
+        }
+        File parent = output.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(input), StandardCharsets.UTF_8);
+             Writer writer = new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8)) {
+            char[] buffer = new char[FILE_BATCH_SIZE];
+            int length = 0;
+            int n;
+            while ((n = reader.read(buffer, length, buffer.length - length)) != -1) {
+                length += n;
+                // Process everything up to the last complete line, carry over the rest
+                int end = lastLineEnd(buffer, length);
+                if (end == 0 && length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    continue;
+                }
+                if (end > 0) {
+                    writer.write(transform(buffer, 0, end, key, decrypt));
+                    System.arraycopy(buffer, end, buffer, 0, length - end);
+                    length -= end;
+                }
+            }
+            if (length > 0) {
+                writer.write(transform(buffer, 0, length, key, decrypt));
+            }
+        }
+    }
+
+    private static String transform(String text, int[] key, boolean decrypt) {
+        Crypto.validateKey(key);
+        if (text == null || text.isEmpty()) {
+            throw new IllegalArgumentException(decrypt
+                    ? "Encrypted text cannot be null or empty"
+                    : "Text cannot be null or empty");
+        }
+        return new String(transform(text.toCharArray(), 0, text.length(), key, decrypt));
+    }
+
+    /**
+     * Transforms the lines in chars[offset, offset + length)
+     */
+    private static char[] transform(char[] chars, int offset, int length, int[] key, boolean decrypt) {
+        int k = key.length;
+        int[] order = decrypt ? TextTransposer.invert(key) : key;
+        int end = offset + length;
+
+        // Find the lines; a line ends at its break, "\r\n" counts as one break
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int lines = 0;
+        int start = offset;
+        for (int i = offset; i <= end; i++) {
+            if (i == end || TextTransposer.isLineBreak(chars[i])) {
+                if (lines == starts.length) {
+                    starts = Arrays.copyOf(starts, lines * 2);
+                    ends = Arrays.copyOf(ends, lines * 2);
+                }
+                starts[lines] = start;
+                ends[lines++] = i;
+                if (i < end && chars[i] == '\r' && i + 1 < end && chars[i + 1] == '\n') {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+
+        // Output position of every line; encrypted lines grow to a multiple of k
+        int[] outStarts = new int[lines + 1];
+        for (int l = 0; l < lines; l++) {
+            int lineLength = ends[l] - starts[l];
+            if (decrypt && lineLength % k != 0) {
+                throw new IllegalArgumentException(String.format(
+                        "Line %d has length %d, not a multiple of the key size %d", l + 1, lineLength, k));
+            }
+            int breakLength = (l + 1 < lines ? starts[l + 1] : end) - ends[l];
+            outStarts[l + 1] = outStarts[l] + (lineLength + k - 1) / k * k + breakLength;
+        }
+
+        char[] result = new char[outStarts[lines]];
+        int[] lineStarts = starts;
+        int[] lineEnds = ends;
+        int lineCount = lines;
+        // Tasks cover whole lines, about CHARS_PER_TASK characters each
+        int tasks = length < PARALLEL_THRESHOLD ? 1 : (length + CHARS_PER_TASK - 1) / CHARS_PER_TASK;
+        IntStream range = IntStream.range(0, tasks);
+        (tasks > 1 ? range.parallel() : range).forEach(task -> {
+            int first = task == 0 ? 0 : firstLineFrom(lineStarts, lineCount, offset + (long) task * CHARS_PER_TASK);
+            int last = task == tasks - 1 ? lineCount
+                    : firstLineFrom(lineStarts, lineCount, offset + (long) (task + 1) * CHARS_PER_TASK);
+            for (int l = first; l < last; l++) {
+                int out = permuteLine(chars, result, lineStarts[l], lineEnds[l], outStarts[l], order);
+                int breakEnd = l + 1 < lineCount ? lineStarts[l + 1] : end;
+                System.arraycopy(chars, lineEnds[l], result, out, breakEnd - lineEnds[l]);
+            }
+        });
+        if (!decrypt) {
+            return result;
+        }
+
+        // Drop the padding, and with it any trailing spaces of each line
+        int out = 0;
+        for (int l = 0; l < lines; l++) {
+            int lineStart = outStarts[l];
+            int lineEnd = lineStart + (ends[l] - starts[l]);
+            int kept = trimmedEnd(result, lineStart, lineEnd);
+            System.arraycopy(result, lineStart, result, out, kept - lineStart);
+            out += kept - lineStart;
+            int breakLength = outStarts[l + 1] - lineEnd;
+            System.arraycopy(result, lineEnd, result, out, breakLength);
+            out += breakLength;
+        }
+        return Arrays.copyOf(result, out);
+    }
+
+    /**
+     * Pads and permutes one line into result
+     * @return the index in result just after the line
+     */
+    private static int permuteLine(char[] chars, char[] result, int start, int end, int out, int[] order) {
+        int k = order.length;
+        int length = end - start;
+        int full = length / k * k;
+        for (int base = 0; base < full; base += k) {
+            for (int j = 0; j < k; j++) {
+                result[out + base + j] = chars[start + base + order[j]];
+            }
+        }
+        if (full < length) {
+            int base = start + full;
+            int remaining = length - full;
+            for (int j = 0; j < k; j++) {
+                result[out + full + j] = order[j] < remaining ? chars[base + order[j]] : ' ';
+            }
+            return out + full + k;
+        }
+        return out + full;
+    }
+
+    /**
+     * @return index of the first line starting at or after position
+     */
+    private static int firstLineFrom(int[] starts, int lines, long position) {
+        int index = Arrays.binarySearch(starts, 0, lines, (int) Math.min(position, Integer.MAX_VALUE));
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static int trimmedEnd(char[] chars, int start, int end) {
+        while (end > start && chars[end - 1] == ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * @return the index just after the last line break in chars[0, length),
+     *         holding back a '\r' that may be followed by '\n'
+     */
+    private static int lastLineEnd(char[] chars, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (TextTransposer.isLineBreak(chars[i])) {
+                if (chars[i] == '\r' && i == length - 1) {
+                    continue;
+                }
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,373 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Encrypts one huge file with several worker JVMs.
+ *
+ * The file is cut into shards whose lengths are multiples of the key
+ * length, so every shard starts on a row boundary and is independent of
+ * the others. The coordinator sizes the output file, then starts one
+ * worker process per shard through a {@link Launcher}. Each worker reads
+ * its byte range, transposes it with a {@link ByteTransposer} and writes
+ * it to the same range of the shared output file, then reports the
+ * CRC32C of what it wrote. The coordinator checks every report against
+ * the output and starts failed shards again. An encrypted output gets its
+ * checksum file from the shard CRCs, see {@link ChunkChecksums}. When the
+ * run fails, every worker still running is killed before it returns, so
+ * nothing writes to the output afterwards. Workers read the key from a
+ * file in the temporary directory that only the owner can read, deleted
+ * when the run ends.
+ *
+ * Output is byte-for-byte what {@link TranspositionOutputStream} writes,
+ * the length-preserving binary format. The text format of
+ * {@link Crypto#encrypt} moves line breaks around, so its rows do not line
+ * up with byte ranges and it cannot be split this way.
+ */
+final class ShardedEncryption {
+
+    static final int DEFAULT_ATTEMPTS = 3;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final String REPORT_PREFIX = "SHARD-DONE ";
+
+    /**
+     * Starts a worker process. The default runs a local JVM; others can
+     * wrap the command, for example to run it on another host that sees
+     * the same files, including the key file in this host's temporary
+     * directory.
+     */
+    interface Launcher {
+        /**
+         * @param workerArgs arguments for {@link ShardedEncryption#main}
+         * @return the started process
+         */
+        Process launch(List<String> workerArgs) throws IOException;
+    }
+
+    /**
+     * Launches workers as child JVMs with this JVM's class path
+     */
+    static final class LocalLauncher implements Launcher {
+        private final List<String> jvmArgs;
+
+        /**
+         * @param jvmArgs options for the worker JVMs, such as -Xmx
+         */
+        LocalLauncher(List<String> jvmArgs) {
+            this.jvmArgs = new ArrayList<>(jvmArgs);
+        }
+
+        @Override
+        public Process launch(List<String> workerArgs) throws IOException {
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(jvmArgs);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(ShardedEncryption.class.getName());
+            command.addAll(workerArgs);
+            return new ProcessBuilder(command).redirectErrorStream(true).start();
+        }
+    }
+
+    /**
+     * A byte range of the input and the state of its worker
+     */
+    static final class Shard {
+        final int index;
+        final long offset;
+        final long length;
+        int attempts;
+        String failure;
+        /** CRC32C of the shard's output, once it is done */
+        long checksum;
+
+        Shard(int index, long offset, long length) {
+            this.index = index;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public String toString() {
+            return "shard " + index + " [" + offset + ", " + (offset + length) + ")";
+        }
+    }
+
+    private final Launcher launcher;
+    private final int workers;
+    private final int maxAttempts;
+
+    /**
+     * @param launcher starts the worker processes
+     * @param workers number of shards, all run at the same time
+     * @param maxAttempts how often a shard is tried before the run fails
+     */
+    ShardedEncryption(Launcher launcher, int workers, int maxAttempts) {
+        if (workers <= 0 || maxAttempts <= 0) {
+            throw new IllegalArgumentException("Workers and attempts must be greater than zero.");
+        }
+        this.launcher = launcher;
+        this.workers = workers;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Cuts a file into row-aligned shards
+     * @param size input length in bytes
+     * @param rowLength key length
+     * @param count wanted number of shards; fewer are returned for small files
+     */
+    static List<Shard> split(long size, int rowLength, int count) {
+        long rows = (size + rowLength - 1) / rowLength;
+        long rowsPerShard = Math.max(1, (rows + count - 1) / count);
+        List<Shard> shards = new ArrayList<>();
+        for (long offset = 0; offset < size; offset += rowsPerShard * rowLength) {
+            shards.add(new Shard(shards.size(), offset, Math.min(rowsPerShard * rowLength, size - offset)));
+        }
+        return shards;
+    }
+
+    /**
+     * Encrypts or decrypts a file with one worker process per shard
+     * @param input source file
+     * @param output destination, created or overwritten
+     * @param key encryption key
+     * @param decrypt true to decrypt
+     * @return the shards, each done
+     * @throws IOException when a shard still fails after the last attempt
+     */
+    List<Shard> run(File input, File output, int[] key, boolean decrypt) throws IOException, InterruptedException {
+        Crypto.validateKey(key);
+        if (input == null || !input.isFile()) {
+            throw new IllegalArgumentException("File error: invalid file or file path.");
+        }
+        long size = input.length();
+        List<Shard> shards = split(size, key.length, workers);
+        try (RandomAccessFile file = new RandomAccessFile(output, "rw")) {
+            file.setLength(size);
+        }
+        File keyFile = ownerOnlyTempFile();
+        List<Process> started = new ArrayList<>();
+        try {
+            KeyFiles.writeBinary(key, keyFile);
+            List<Shard> pending = new ArrayList<>(shards);
+            while (!pending.isEmpty()) {
+                Map<Shard, Process> running = new LinkedHashMap<>();
+                for (Shard shard : pending) {
+                    shard.attempts++;
+                    Process process = launcher.launch(Arrays.asList(decrypt ? "decrypt" : "encrypt",
+                            input.getPath(), output.getPath(), keyFile.getPath(),
+                            Long.toString(shard.offset), Long.toString(shard.length)));
+                    started.add(process);
+                    running.put(shard, process);
+                }
+                pending.clear();
+                for (Map.Entry<Shard, Process> entry : running.entrySet()) {
+                    Shard shard = entry.getKey();
+                    shard.failure = check(shard, entry.getValue(), output);
+                    if (shard.failure != null) {
+                        if (shard.attempts >= maxAttempts) {
+                            throw new IOException(shard + " failed after " + shard.attempts
+                                    + " attempts: " + shard.failure);
+                        }
+                        System.err.println(shard + " failed, retrying: " + shard.failure);
+                        pending.add(shard);
+                    }
+                }
+            }
+            if (!decrypt && ChunkChecksums.ENABLED) {
+                writeChecksums(output, shards);
+            }
+            return shards;
+        } finally {
+            // Workers of a failed run must stop before their key file goes away
+            stop(started);
+            keyFile.delete();
+        }
+    }
+
+    /**
+     * Kills the workers that are still running and waits until they are gone
+     */
+    private static void stop(List<Process> processes) {
+        boolean interrupted = false;
+        for (Process process : processes) {
+            process.destroyForcibly();
+            while (true) {
+                try {
+                    process.waitFor();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return a new empty file in the temporary directory that only the owner can read
+     */
+    private static File ownerOnlyTempFile() throws IOException {
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return Files.createTempFile("shard-key", ".bin",
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))).toFile();
+        }
+        File file = File.createTempFile("shard-key", ".bin");
+        file.setReadable(false, false);
+        file.setWritable(false, false);
+        file.setReadable(true, true);
+        file.setWritable(true, true);
+        return file;
+    }
+
+    /**
+     * Waits for a worker and compares its report with the output file
+     * @return null when the shard is done, otherwise what went wrong
+     */
+    private static String check(Shard shard, Process process, File output) throws IOException, InterruptedException {
+        String report = null;
+        StringBuilder log = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(REPORT_PREFIX)) {
+                    report = line.substring(REPORT_PREFIX.length()).trim();
+                } else if (log.length() < 1000) {
+                    log.append(line).append(' ');
+                }
+            }
+        }
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            return "exit code " + exitCode + (log.length() > 0 ? ": " + log.toString().trim() : "");
+        }
+        if (report == null) {
+            return "worker did not report completion";
+        }
+        long checksum = checksum(output, shard.offset, shard.length);
+        String expected = shard.offset + " " + shard.length + " " + String.format("%08x", checksum);
+        if (!expected.equals(report)) {
+            return "output does not match the worker's report " + report;
+        }
+        shard.checksum = checksum;
+        return null;
+    }
+
+    /**
+     * Writes the checksum file of the output with one checksum per shard.
+     * Shards are equally long except the last, like the chunks of a
+     * checksum file; shards longer than a chunk can be are checksummed again.
+     */
+    private static void writeChecksums(File output, List<Shard> shards) throws IOException {
+        long chunkSize = shards.isEmpty() ? ChunkChecksums.DEFAULT_CHUNK_SIZE : shards.get(0).length;
+        if (chunkSize > Integer.MAX_VALUE) {
+            ChunkChecksums.write(output);
+            return;
+        }
+        long[] checksums = new long[shards.size()];
+        for (int i = 0; i < checksums.length; i++) {
+            checksums[i] = shards.get(i).checksum;
+        }
+        ChunkChecksums.write(output, (int) chunkSize, checksums);
+    }
+
+    private static long checksum(File file, long offset, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            CRC32C crc = new CRC32C();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new EOFException("Output is shorter than expected");
+                }
+                buffer.flip();
+                crc.update(buffer);
+                position += n;
+            }
+            return crc.getValue();
+        }
+    }
+
+    /**
+     * Transposes one byte range of the input into the same range of the output
+     * @return CRC32C of the bytes written
+     */
+    static long processShard(File input, File output, int[] key, boolean decrypt, long offset, long length)
+            throws IOException {
+        ByteTransposer transposer = new ByteTransposer(key, decrypt);
+        if (offset % key.length != 0) {
+            throw new IllegalArgumentException("Shard offset must be a multiple of the key length.");
+        }
+        CRC32C crc = new CRC32C();
+        try (FileChannel in = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.WRITE)) {
+            if (offset + length > in.size()) {
+                throw new IllegalArgumentException("Shard extends past the end of the input.");
+            }
+            byte[] plain = new byte[BUFFER_SIZE];
+            byte[] transposed = new byte[BUFFER_SIZE + key.length];
+            long position = offset;
+            long end = offset + length;
+            long written = offset;
+            while (position < end) {
+                int n = in.read(ByteBuffer.wrap(plain, 0, (int) Math.min(plain.length, end - position)), position);
+                if (n < 0) {
+                    throw new EOFException("Input shrank while reading");
+                }
+                position += n;
+                int produced = transposer.update(plain, 0, n, transposed, 0);
+                written += write(out, transposed, produced, written, crc);
+            }
+            int tail = transposer.doFinal(transposed, 0);
+            write(out, transposed, tail, written, crc);
+            out.force(false);
+        }
+        return crc.getValue();
+    }
+
+    private static int write(FileChannel out, byte[] bytes, int length, long position, CRC32C crc)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        while (buffer.hasRemaining()) {
+            buffer.position(buffer.position() + out.write(buffer, position + buffer.position()));
+        }
+        crc.update(bytes, 0, length);
+        return length;
+    }
+
+    /**
+     * Worker entry point:
+     * encrypt|decrypt &lt;input&gt; &lt;output&gt; &lt;key file&gt; &lt;offset&gt; &lt;length&gt;
+     */
+    public static void main(String[] args) {
+        if (args.length != 6 || !(args[0].equals("encrypt") || args[0].equals("decrypt"))) {
+            System.err.println("Usage: ShardedEncryption encrypt|decrypt <input> <output> <key file> <offset> <length>");
+            System.exit(2);
+        }
+        try {
+            long offset = Long.parseLong(args[4]);
+            long length = Long.parseLong(args[5]);
+            int[] key = KeyFiles.load(new File(args[3]));
+            long crc = processShard(new File(args[1]), new File(args[2]), key, args[0].equals("decrypt"),
+                    offset, length);
+            System.out.println(REPORT_PREFIX + offset + " " + length + " " + String.format("%08x", crc));
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs encrypt/decrypt jobs of mixed sizes so that small jobs are not
+ * stuck behind big ones.
+ *
+ * Every job is put in a lane by its size. Files larger than one chunk are
+ * split into row-aligned chunk tasks, so a worker is never busy with one
+ * job for longer than a chunk takes. Idle workers take the next task from
+ * the lane with the lowest pass, and each task advances its lane's pass by
+ * its size divided by the lane weight. Lanes therefore share the workers
+ * in proportion to their weights, measured in bytes, and a small request
+ * waits at most about one chunk per worker. A lane that was idle starts
+ * from the lowest pass of the busy lanes, so it cannot save up credit.
+ *
+ * File jobs use the length-preserving format of {@link ByteTransposer};
+ * text jobs use {@link Crypto#encrypt} and {@link Crypto#decrypt}. Other
+ * work can be queued as tasks charged to the lane of the job they belong
+ * to, which is how {@link CheckpointedJob} runs its chunks and
+ * {@link DropFolderWatcher} and {@link KeyRotation} run whole files.
+ */
+final class SizeAwareScheduler implements Closeable {
+
+    enum Lane { SMALL, MEDIUM, LARGE }
+
+    /** Largest job in the small lane */
+    static final long DEFAULT_SMALL_LIMIT = 256 * 1024;
+    /** Largest job in the medium lane */
+    static final long DEFAULT_LARGE_THRESHOLD = 64 * 1024 * 1024;
+    /** Bytes per chunk task of a file job */
+    static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    /** Default weights of the small, medium and large lanes */
+    static final int[] DEFAULT_WEIGHTS = {8, 3, 1};
+
+    private final long smallLimit;
+    private final long largeThreshold;
+    private final int chunkSize;
+    private final LaneState[] lanes = new LaneState[Lane.values().length];
+    private final Thread[] workers;
+    private boolean closed;
+
+    /**
+     * A unit of work and the lane it is charged to
+     */
+    private static final class Task {
+        final Lane lane;
+        final long cost;
+        final long enqueued = System.nanoTime();
+        final Runnable body;
+
+        Task(Lane lane, long cost, Runnable body) {
+            this.lane = lane;
+            this.cost = cost;
+            this.body = body;
+        }
+    }
+
+    private static final class LaneState {
+        final int weight;
+        final ArrayDeque<Task> queue = new ArrayDeque<>();
+        double pass;
+        final LongAdder completedTasks = new LongAdder();
+        final LongAdder completedBytes = new LongAdder();
+        // Counted when a task leaves the queue, guarded by the scheduler
+        long startedTasks;
+        long waitNanos;
+
+        LaneState(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * @param threads worker threads
+     * @param smallLimit largest job in the small lane, in bytes
+     * @param largeThreshold largest job in the medium lane, in bytes
+     * @param chunkSize bytes per chunk task of a file job
+     * @param weights weights of the small, medium and large lanes
+     */
+    SizeAwareScheduler(int threads, long smallLimit, long largeThreshold, int chunkSize, int[] weights) {
+        if (threads <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("Threads and chunk size must be greater than zero.");
+        }
+        if (smallLimit < 0 || largeThreshold < smallLimit) {
+            throw new IllegalArgumentException("Lane limits must satisfy 0 <= small <= large.");
+        }
+        if (weights == null || weights.length != lanes.length) {
+            throw new IllegalArgumentException("One weight per lane is required.");
+        }
+        for (int i = 0; i < lanes.length; i++) {
+            if (weights[i] <= 0) {
+                throw new IllegalArgumentException("Lane weights must be greater than zero.");
+            }
+            lanes[i] = new LaneState(weights[i]);
+        }
+        this.smallLimit = smallLimit;
+        this.largeThreshold = largeThreshold;
+        this.chunkSize = chunkSize;
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::work, "crypto-scheduler-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Creates a scheduler with one worker per core and the default lanes
+     */
+    static SizeAwareScheduler withDefaults() {
+        return withDefaults(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a scheduler with the given workers and the default lanes
+     */
+    static SizeAwareScheduler withDefaults(int threads) {
+        return new SizeAwareScheduler(threads, DEFAULT_SMALL_LIMIT, DEFAULT_LARGE_THRESHOLD, DEFAULT_CHUNK_SIZE,
+                DEFAULT_WEIGHTS);
+    }
+
+    /**
+     * @return the lane of a job of the given size
+     */
+    Lane laneFor(long bytes) {
+        return bytes <= smallLimit ? Lane.SMALL : bytes <= largeThreshold ? Lane.MEDIUM : Lane.LARGE;
+    }
+
+    /**
+     * Queues an in-memory encrypt or decrypt
+     * @return the result, completed by a worker
+     */
+    CompletableFuture<String> submitText(String text, int[] key, boolean decrypt) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        long cost = text == null ? 0 : text.length();
+        enqueue(new Task(laneFor(cost), cost, () -> {
+            try {
+                result.complete(decrypt ? Crypto.decrypt(text, key) : Crypto.encrypt(text, key));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }));
+        return result;
+    }
+
+    /**
+     * Queues a file job, split into chunk tasks
+     * @param input source file
+     * @param output destination, created or overwritten
+     * @return the output file, completed when every chunk is written
+     */
+    CompletableFuture<File> submitFile(File input, File output, int[] key, boolean decrypt) throws IOException {
+        Crypto.validateKey(key);
+        if (input == null || !input.isFile()) {
+            throw new IllegalArgumentException("File error: invalid file or file path.");
+        }
+        // Checked before the output is touched; enqueue checks again
+        ensureOpen();
+        long size = input.length();
+        try (RandomAccessFile file = new RandomAccessFile(output, "rw")) {
+            file.setLength(size);
+        }
+        CompletableFuture<File> result = new CompletableFuture<>();
+        if (size == 0) {
+            result.complete(output);
+            return result;
+        }
+        // Whole rows per chunk, so chunks are independent
+        int rowsPerChunk = Math.max(1, chunkSize / key.length);
+        long step = (long) rowsPerChunk * key.length;
+        int chunks = (int) ((size + step - 1) / step);
+        AtomicInteger remaining = new AtomicInteger(chunks);
+        AtomicBoolean failed = new AtomicBoolean();
+        Lane lane = laneFor(size);
+        for (long offset = 0; offset < size; offset += step) {
+            long chunkOffset = offset;
+            long chunkLength = Math.min(step, size - offset);
+            enqueue(new Task(lane, chunkLength, () -> {
+                if (failed.get()) {
+                    return;
+                }
+                try {
+                    ShardedEncryption.processShard(input, output, key, decrypt, chunkOffset, chunkLength);
+                    if (remaining.decrementAndGet() == 0) {
+                        result.complete(output);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    if (failed.compareAndSet(false, true)) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            }));
+        }
+        return result;
+    }
+
+    /**
+     * Queues one task of a larger job
+     * @param jobSize size of the whole job in bytes, which picks the lane
+     * @param cost bytes this task processes
+     * @return the result of the task, completed by a worker
+     */
+    <T> CompletableFuture<T> submit(long jobSize, long cost, Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        enqueue(new Task(laneFor(jobSize), cost, () -> {
+            try {
+                result.complete(task.call());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        }));
+        return result;
+    }
+
+    private synchronized void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Scheduler is closed.");
+        }
+    }
+
+    private synchronized void enqueue(Task task) {
+        ensureOpen();
+        LaneState state = lanes[task.lane.ordinal()];
+        if (state.queue.isEmpty()) {
+            // An idle lane joins at the current pass of the busy lanes
+            double lowest = Double.MAX_VALUE;
+            for (LaneState other : lanes) {
+                if (!other.queue.isEmpty()) {
+                    lowest = Math.min(lowest, other.pass);
+                }
+            }
+            if (lowest != Double.MAX_VALUE) {
+                state.pass = Math.max(state.pass, lowest);
+            }
+        }
+        state.queue.add(task);
+        notify();
+    }
+
+    /**
+     * @return the next task by weighted fair share, or null once closed and drained
+     */
+    private synchronized Task next() throws InterruptedException {
+        while (true) {
+            LaneState chosen = null;
+            for (LaneState state : lanes) {
+                if (!state.queue.isEmpty() && (chosen == null || state.pass < chosen.pass)) {
+                    chosen = state;
+                }
+            }
+            if (chosen != null) {
+                Task task = chosen.queue.poll();
+                chosen.pass += (double) Math.max(1, task.cost) / chosen.weight;
+                chosen.startedTasks++;
+                chosen.waitNanos += System.nanoTime() - task.enqueued;
+                return task;
+            }
+            if (closed) {
+                return null;
+            }
+            wait();
+        }
+    }
+
+    private void work() {
+        try {
+            Task task;
+            while ((task = next()) != null) {
+                task.body.run();
+                LaneState state = lanes[task.lane.ordinal()];
+                state.completedTasks.increment();
+                state.completedBytes.add(task.cost);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return tasks waiting in a lane
+     */
+    synchronized int queued(Lane lane) {
+        return lanes[lane.ordinal()].queue.size();
+    }
+
+    /**
+     * @return tasks of a lane that have finished
+     */
+    long completedTasks(Lane lane) {
+        return lanes[lane.ordinal()].completedTasks.sum();
+    }
+
+    /**
+     * @return mean time tasks of a lane waited for a worker, in milliseconds
+     */
+    synchronized double meanWaitMillis(Lane lane) {
+        LaneState state = lanes[lane.ordinal()];
+        return state.startedTasks == 0 ? 0.0 : state.waitNanos / 1e6 / state.startedTasks;
+    }
+
+    /**
+     * Finishes the queued tasks and stops the workers
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+import java.io.*;
+
+/**
+ * Incremental form of {@link Crypto#encrypt} and {@link Crypto#decrypt}.
+ *
+ * Characters are pushed in any chunk sizes and the transposed text is
+ * written to a {@link Writer} as soon as each row is complete, so memory
+ * use is bounded by the key length plus a small output buffer instead of
+ * the input size. The output is identical to the String API:
+ * line breaks are removed before permuting, the last row is padded with
+ * spaces, and '\n' is put back at its original absolute positions.
+ * Optionally the input is trimmed the way {@link Crypto#readFileContent}
+ * does and '\n' is written as a platform line separator the way
+ * {@link Crypto#saveToFile} does, which makes file-to-file streaming
+ * byte-identical to the read/encrypt/save sequence.
+ */
+final class TextTransposer {
+
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+    private final int[] order;
+    private final boolean decrypt;
+    private final boolean trimInput;
+    private final String lineSeparator;
+    private final Writer out;
+
+    private final char[] row;
+    private int rowFill;
+    private long inPos;
+    private long outPos;
+    private long consumed;
+    private long rowsOut;
+    private boolean leading = true;
+    private final StringBuilder heldInput = new StringBuilder();
+
+    // Pending '\n' positions, kept in a growable ring buffer
+    private long[] newlines = new long[16];
+    private int newlineHead;
+    private int newlineCount;
+
+    private final char[] outBuf = new char[OUTPUT_BUFFER_SIZE];
+    private int outFill;
+    private final StringBuilder heldOutput = new StringBuilder();
+    private boolean finished;
+    private boolean discarding;
+
+    /**
+     * @param key encryption key
+     * @param decrypt true to apply the inverse permutation and strip trailing
+     *                whitespace from the result, as decrypt does
+     * @param trimInput true to trim the input like readFileContent
+     * @param lineSeparator what to write for each restored '\n'
+     * @param out destination of the transposed text
+     */
+    TextTransposer(int[] key, boolean decrypt, boolean trimInput, String lineSeparator, Writer out) {
+        Crypto.validateKey(key);
+        this.order = decrypt ? invert(key) : key.clone();
+        this.decrypt = decrypt;
+        this.trimInput = trimInput;
+        this.lineSeparator = lineSeparator;
+        this.out = out;
+        this.row = new char[key.length];
+    }
+
+    /**
+     * Computes the inverse permutation of a valid key
+     * @param key the key to invert
+     * @return array where inverse[key[i]] == i
+     */
+    static int[] invert(int[] key) {
+        int[] inverse = new int[key.length];
+        for (int i = 0; i < key.length; i++) {
+            inverse[key[i]] = i;
+        }
+        return inverse;
+    }
+
+    /**
+     * Checks whether a character is removed before permuting,
+     * i.e. matched by the regex \R
+     */
+    static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r' || c == '\u000B' || c == '\f'
+                || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Feeds the next characters of the input
+     */
+    void update(char[] chars, int offset, int length) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Transposer already finished.");
+        }
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            char c = chars[i];
+            if (trimInput) {
+                if (c <= ' ') {
+                    // Leading whitespace is dropped, trailing whitespace is held
+                    // back until we know more text follows it
+                    if (!leading) {
+                        heldInput.append(c);
+                    }
+                    continue;
+                }
+                leading = false;
+                if (heldInput.length() > 0) {
+                    for (int h = 0; h < heldInput.length(); h++) {
+                        consume(heldInput.charAt(h));
+                    }
+                    heldInput.setLength(0);
+                }
+            }
+            consume(c);
+        }
+    }
+
+    /**
+     * Consumes input exactly like {@link #update(char[], int, int)} but
+     * produces no output: positions and pending line breaks advance as if
+     * the rows had been written. Used to skip over text whose transposed
+     * form is already known.
+     */
+    void advance(char[] chars, int offset, int length) throws IOException {
+        discarding = true;
+        try {
+            update(chars, offset, length);
+        } finally {
+            discarding = false;
+        }
+    }
+
+    /**
+     * Writes all output produced so far to the writer without finishing.
+     * Right after a row completes this cuts the output at a row boundary.
+     */
+    void flushBuffered() throws IOException {
+        flushOutput();
+    }
+
+    /**
+     * Describes the state carried from the text consumed so far into the
+     * output of the text that follows: the gap between input and output
+     * positions and the line breaks still waiting to be written. Two inputs
+     * in the same boundary state transpose the same following text to the
+     * same output.
+     */
+    String boundaryState() {
+        StringBuilder state = new StringBuilder();
+        state.append(inPos - outPos).append(':').append(rowFill);
+        for (int i = 0; i < newlineCount; i++) {
+            state.append(',').append(newlines[(newlineHead + i) % newlines.length] - outPos);
+        }
+        return state.toString();
+    }
+
+    /**
+     * Feeds the next characters of the input
+     */
+    void update(CharSequence chars) throws IOException {
+        char[] chunk = new char[Math.min(chars.length(), OUTPUT_BUFFER_SIZE)];
+        for (int start = 0; start < chars.length(); start += chunk.length) {
+            int n = Math.min(chunk.length, chars.length() - start);
+            for (int i = 0; i < n; i++) {
+                chunk[i] = chars.charAt(start + i);
+            }
+            update(chunk, 0, n);
+        }
+    }
+
+    /**
+     * Pads and emits the last row and flushes everything to the writer.
+     * The writer itself is not closed.
+     * @throws IllegalArgumentException if no text was supplied, like the String API
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (consumed == 0) {
+            throw new IllegalArgumentException(decrypt
+                    ? "Encrypted text cannot be null or empty"
+                    : "Text cannot be null or empty");
+        }
+        if (rowFill > 0) {
+            while (rowFill < row.length) {
+                row[rowFill++] = ' ';
+            }
+            emitRow();
+        }
+        // Line breaks beyond the end of the permuted text are dropped
+        newlineCount = 0;
+        flushOutput();
+        out.flush();
+    }
+
+    /**
+     * @return number of input characters consumed after trimming
+     */
+    long consumedChars() {
+        return consumed;
+    }
+
+    /**
+     * @return number of complete rows emitted so far
+     */
+    long rowsEmitted() {
+        return rowsOut;
+    }
+
+    private void consume(char c) throws IOException {
+        consumed++;
+        if (c == '\n') {
+            pushNewline(inPos);
+        } else if (!isLineBreak(c)) {
+            row[rowFill++] = c;
+            if (rowFill == row.length) {
+                emitRow();
+            }
+        }
+        inPos++;
+    }
+
+    private void emitRow() throws IOException {
+        int k = row.length;
+        if (newlineCount == 0 || newlines[newlineHead] >= outPos + k) {
+            if (discarding) {
+                outPos += k;
+                rowFill = 0;
+                rowsOut++;
+                return;
+            }
+            // No line break lands inside this row: straight permutation copy
+            for (int j = 0; j < k; j++) {
+                if (outFill == outBuf.length) {
+                    flushOutput();
+                }
+                outBuf[outFill++] = row[order[j]];
+            }
+            outPos += k;
+        } else {
+            for (int j = 0; j < k; j++) {
+                while (newlineCount > 0 && newlines[newlineHead] == outPos) {
+                    newlineHead = (newlineHead + 1) % newlines.length;
+                    newlineCount--;
+                    if (!discarding) {
+                        writeNewline();
+                    }
+                    outPos++;
+                }
+                if (!discarding) {
+                    if (outFill == outBuf.length) {
+                        flushOutput();
+                    }
+                    outBuf[outFill++] = row[order[j]];
+                }
+                outPos++;
+            }
+        }
+        rowFill = 0;
+        rowsOut++;
+    }
+
+    private void writeNewline() throws IOException {
+        for (int i = 0; i < lineSeparator.length(); i++) {
+            if (outFill == outBuf.length) {
+                flushOutput();
+            }
+            outBuf[outFill++] = lineSeparator.charAt(i);
+        }
+    }
+
+    private void pushNewline(long position) {
+        if (newlineCount == newlines.length) {
+            long[] grown = new long[newlines.length * 2];
+            for (int i = 0; i < newlineCount; i++) {
+                grown[i] = newlines[(newlineHead + i) % newlines.length];
+            }
+            newlines = grown;
+            newlineHead = 0;
+        }
+        newlines[(newlineHead + newlineCount) % newlines.length] = position;
+        newlineCount++;
+    }
+
+    /**
+     * Writes buffered output. When decrypting, a trailing run of whitespace
+     * is held back because it is stripped if nothing else follows it.
+     */
+    private void flushOutput() throws IOException {
+        if (!decrypt) {
+            out.write(outBuf, 0, outFill);
+            outFill = 0;
+            return;
+        }
+        int lastText = outFill - 1;
+        while (lastText >= 0 && Character.isWhitespace(outBuf[lastText])) {
+            lastText--;
+        }
+        if (lastText >= 0) {
+            if (heldOutput.length() > 0) {
+                out.append(heldOutput);
+                heldOutput.setLength(0);
+            }
+            out.write(outBuf, 0, lastText + 1);
+        }
+        heldOutput.append(outBuf, lastText + 1, outFill - lastText - 1);
+        outFill = 0;
+    }
+}
@@ -0,0 +1,171 @@
+import java.security.*;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import javax.crypto.*;
+
+/**
+ * {@link CipherSpi} for the transposition cipher, registered by
+ * {@link TranspositionProvider} as {@code Cipher.Transposition}.
+ *
+ * Works on bytes with a {@link ByteTransposer}: {@code update} returns
+ * every row completed so far and keeps only the partial row, so
+ * {@link CipherInputStream} and {@link CipherOutputStream} run in constant
+ * memory. {@code doFinal} permutes the short last row and resets the
+ * cipher for the next message. Output is always as long as the input, so
+ * the only supported mode is ECB and the only padding NoPadding. Input and
+ * output may be the same array, as {@link Cipher} requires; the input is
+ * then copied first.
+ *
+ * The key is a {@link SecretKey} with algorithm {@code Transposition}
+ * whose encoded form is the permutation as big-endian ints, see
+ * {@link TranspositionProvider#secretKey(int[])}.
+ */
+public final class TranspositionCipherSpi extends CipherSpi {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private ByteTransposer transposer;
+
+    /**
+     * Called by the JCA framework
+     */
+    public TranspositionCipherSpi() {
+    }
+
+    @Override
+    protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
+        if (!"ECB".equalsIgnoreCase(mode) && !"NONE".equalsIgnoreCase(mode)) {
+            throw new NoSuchAlgorithmException("Unsupported mode: " + mode);
+        }
+    }
+
+    @Override
+    protected void engineSetPadding(String padding) throws NoSuchPaddingException {
+        if (!"NoPadding".equalsIgnoreCase(padding)) {
+            throw new NoSuchPaddingException("Unsupported padding: " + padding);
+        }
+    }
+
+    @Override
+    protected int engineGetBlockSize() {
+        // Length preserving with no padding, so callers may treat it like a stream cipher
+        return 0;
+    }
+
+    @Override
+    protected int engineGetOutputSize(int inputLen) {
+        return (transposer == null ? 0 : transposer.buffered()) + inputLen;
+    }
+
+    @Override
+    protected byte[] engineGetIV() {
+        return null;
+    }
+
+    @Override
+    protected AlgorithmParameters engineGetParameters() {
+        return null;
+    }
+
+    @Override
+    protected void engineInit(int opmode, Key key, SecureRandom random) throws InvalidKeyException {
+        boolean decrypt;
+        if (opmode == Cipher.ENCRYPT_MODE) {
+            decrypt = false;
+        } else if (opmode == Cipher.DECRYPT_MODE) {
+            decrypt = true;
+        } else {
+            throw new InvalidKeyException("Unsupported operation mode: " + opmode);
+        }
+        try {
+            transposer = new ByteTransposer(TranspositionProvider.permutation(key), decrypt);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidKeyException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void engineInit(int opmode, Key key, AlgorithmParameterSpec params, SecureRandom random)
+            throws InvalidKeyException, InvalidAlgorithmParameterException {
+        if (params != null) {
+            throw new InvalidAlgorithmParameterException("Transposition takes no parameters");
+        }
+        engineInit(opmode, key, random);
+    }
+
+    @Override
+    protected void engineInit(int opmode, Key key, AlgorithmParameters params, SecureRandom random)
+            throws InvalidKeyException, InvalidAlgorithmParameterException {
+        if (params != null) {
+            throw new InvalidAlgorithmParameterException("Transposition takes no parameters");
+        }
+        engineInit(opmode, key, random);
+    }
+
+    @Override
+    protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
+        ByteTransposer t = initialized();
+        input = orEmpty(input);
+        byte[] output = new byte[t.updateOutputSize(inputLen)];
+        t.update(input, inputOffset, inputLen, output, 0);
+        return output;
+    }
+
+    @Override
+    protected int engineUpdate(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+            throws ShortBufferException {
+        ByteTransposer t = initialized();
+        input = orEmpty(input);
+        int needed = t.updateOutputSize(inputLen);
+        if (output.length - outputOffset < needed) {
+            throw new ShortBufferException("Need " + needed + " bytes of output space");
+        }
+        if (input == output) {
+            // Rows go straight from input to output and would read back what was just written
+            input = Arrays.copyOfRange(input, inputOffset, inputOffset + inputLen);
+            inputOffset = 0;
+        }
+        return t.update(input, inputOffset, inputLen, output, outputOffset);
+    }
+
+    @Override
+    protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen) {
+        ByteTransposer t = initialized();
+        input = orEmpty(input);
+        byte[] output = new byte[t.buffered() + inputLen];
+        int produced = t.update(input, inputOffset, inputLen, output, 0);
+        t.doFinal(output, produced);
+        return output;
+    }
+
+    @Override
+    protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+            throws ShortBufferException {
+        ByteTransposer t = initialized();
+        input = orEmpty(input);
+        int needed = t.buffered() + inputLen;
+        if (output.length - outputOffset < needed) {
+            throw new ShortBufferException("Need " + needed + " bytes of output space");
+        }
+        if (input == output) {
+            input = Arrays.copyOfRange(input, inputOffset, inputOffset + inputLen);
+            inputOffset = 0;
+        }
+        int produced = t.update(input, inputOffset, inputLen, output, outputOffset);
+        return produced + t.doFinal(output, outputOffset + produced);
+    }
+
+    /**
+     * The framework passes a null input with a zero length
+     */
+    private static byte[] orEmpty(byte[] input) {
+        return input == null ? EMPTY : input;
+    }
+
+    private ByteTransposer initialized() {
+        if (transposer == null) {
+            throw new IllegalStateException("Cipher not initialized");
+        }
+        return transposer;
+    }
+}
@@ -0,0 +1,97 @@
+import java.io.*;
+
+/**
+ * Input stream that transposes the bytes read from the underlying stream
+ * with a {@link ByteTransposer}. The final short row is returned once the
+ * underlying stream reaches its end.
+ */
+class TranspositionInputStream extends FilterInputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ByteTransposer transposer;
+    private final byte[] raw;
+    private final byte[] ready;
+    private int readyPos;
+    private int readyEnd;
+    private boolean eof;
+
+    /**
+     * @param in source of the bytes to transpose
+     * @param key encryption key
+     * @param decrypt true to apply the inverse permutation
+     */
+    TranspositionInputStream(InputStream in, int[] key, boolean decrypt) {
+        super(in);
+        this.transposer = new ByteTransposer(key, decrypt);
+        this.raw = new byte[Math.max(BUFFER_SIZE, key.length)];
+        this.ready = new byte[raw.length + key.length];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (readyPos == readyEnd) {
+            if (eof) {
+                return -1;
+            }
+            fill();
+        }
+        int n = Math.min(len, readyEnd - readyPos);
+        System.arraycopy(ready, readyPos, b, off, n);
+        readyPos += n;
+        return n;
+    }
+
+    private void fill() throws IOException {
+        readyPos = 0;
+        int n = in.read(raw, 0, raw.length);
+        if (n == -1) {
+            eof = true;
+            readyEnd = transposer.doFinal(ready, 0);
+        } else {
+            readyEnd = transposer.update(raw, 0, n, ready, 0);
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return readyEnd - readyPos;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] discard = new byte[(int) Math.min(n, BUFFER_SIZE)];
+        long skipped = 0;
+        while (skipped < n) {
+            int r = read(discard, 0, (int) Math.min(discard.length, n - skipped));
+            if (r == -1) {
+                break;
+            }
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
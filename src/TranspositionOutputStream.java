@@ -0,0 +1,75 @@
+import java.io.*;
+
+/**
+ * Output stream that transposes the bytes written to it with a
+ * {@link ByteTransposer} before passing them on.
+ *
+ * Like {@link java.util.zip.DeflaterOutputStream}, the final short row is
+ * only written by {@link #finish()} or {@link #close()}.
+ */
+class TranspositionOutputStream extends FilterOutputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ByteTransposer transposer;
+    private byte[] buffer;
+    private boolean finished;
+
+    /**
+     * @param out destination of the transposed bytes
+     * @param key encryption key
+     * @param decrypt true to apply the inverse permutation
+     */
+    TranspositionOutputStream(OutputStream out, int[] key, boolean decrypt) {
+        super(out);
+        this.transposer = new ByteTransposer(key, decrypt);
+        this.buffer = new byte[Math.max(BUFFER_SIZE, key.length * 2)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Write beyond end of stream");
+        }
+        int step = buffer.length - transposer.blockSize();
+        while (len > 0) {
+            int n = Math.min(len, step);
+            int produced = transposer.update(b, off, n, buffer, 0);
+            out.write(buffer, 0, produced);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes the final short row without closing the underlying stream
+     */
+    void finish() throws IOException {
+        if (!finished) {
+            finished = true;
+            int produced = transposer.doFinal(buffer, 0);
+            out.write(buffer, 0, produced);
+        }
+    }
+
+    /**
+     * @return bytes written through so far
+     */
+    long processed() {
+        return transposer.processed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+}
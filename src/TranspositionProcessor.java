@@ -0,0 +1,243 @@
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reactive stage that encrypts or decrypts a stream of byte buffers.
+ *
+ * Each incoming buffer is transposed with a {@link ByteTransposer}: full
+ * rows are emitted right away and the partial row is carried over to the
+ * next buffer, so rows stay aligned however the stream is chunked. The
+ * final short row is emitted when the upstream completes. Output is
+ * byte-for-byte what {@link TranspositionOutputStream} writes.
+ *
+ * Backpressure: at most {@code prefetch} upstream items are requested
+ * ahead, and more are requested in batches once half of them have been
+ * passed on. Nothing is delivered beyond what the subscriber requested.
+ * Only one subscriber is supported.
+ */
+final class TranspositionProcessor implements Flow.Processor<ByteBuffer, ByteBuffer> {
+
+    static final int DEFAULT_PREFETCH = 16;
+
+    private final ByteTransposer transposer;
+    private final int prefetch;
+    private final int replenishThreshold;
+
+    private volatile Flow.Subscription upstream;
+    private volatile Flow.Subscriber<? super ByteBuffer> downstream;
+    private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private volatile boolean upstreamDone;
+    private volatile Throwable error;
+    private volatile boolean cancelled;
+
+    // Only touched inside drain()
+    private boolean started;
+    private boolean terminated;
+    private int freed;
+
+    private byte[] scratch = new byte[0];
+
+    /**
+     * @param key encryption key
+     * @param decrypt true to apply the inverse permutation
+     * @param prefetch number of upstream items requested ahead
+     */
+    TranspositionProcessor(int[] key, boolean decrypt, int prefetch) {
+        if (prefetch <= 0) {
+            throw new IllegalArgumentException("Prefetch must be greater than zero.");
+        }
+        this.transposer = new ByteTransposer(key, decrypt);
+        this.prefetch = prefetch;
+        this.replenishThreshold = Math.max(1, prefetch / 2);
+    }
+
+    /**
+     * @return an encrypting stage with the default prefetch
+     */
+    static TranspositionProcessor encryptor(int[] key) {
+        return new TranspositionProcessor(key, false, DEFAULT_PREFETCH);
+    }
+
+    /**
+     * @return a decrypting stage with the default prefetch
+     */
+    static TranspositionProcessor decryptor(int[] key) {
+        return new TranspositionProcessor(key, true, DEFAULT_PREFETCH);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        synchronized (this) {
+            if (downstream != null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("Only one subscriber is supported"));
+                return;
+            }
+            downstream = subscriber;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    // Rule 3.9 of the reactive streams specification
+                    Flow.Subscription subscription = upstream;
+                    if (subscription != null) {
+                        subscription.cancel();
+                    }
+                    onError(new IllegalArgumentException("Request must be positive: " + n));
+                    return;
+                }
+                demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                Flow.Subscription subscription = upstream;
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+                drain();
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (upstream != null || cancelled) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+        if (upstreamDone) {
+            return;
+        }
+        int length = item.remaining();
+        byte[] in;
+        int offset;
+        if (item.hasArray()) {
+            in = item.array();
+            offset = item.arrayOffset() + item.position();
+        } else {
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            item.duplicate().get(scratch, 0, length);
+            in = scratch;
+            offset = 0;
+        }
+        item.position(item.limit());
+
+        byte[] out = new byte[transposer.updateOutputSize(length)];
+        int produced = transposer.update(in, offset, length, out, 0);
+        if (produced > 0) {
+            queue.offer(ByteBuffer.wrap(out));
+        } else {
+            // Nothing to pass on, but the item still counts against prefetch
+            skipped.incrementAndGet();
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (upstreamDone) {
+            return;
+        }
+        error = throwable;
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        if (upstreamDone) {
+            return;
+        }
+        byte[] tail = new byte[transposer.buffered()];
+        if (transposer.doFinal(tail, 0) > 0) {
+            queue.offer(ByteBuffer.wrap(tail));
+        }
+        upstreamDone = true;
+        drain();
+    }
+
+    /**
+     * Delivers queued buffers while there is demand and keeps upstream
+     * requests topped up. Runs on one thread at a time.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super ByteBuffer> subscriber = downstream;
+            if (cancelled) {
+                queue.clear();
+            } else if (subscriber != null && !terminated) {
+                Flow.Subscription subscription = upstream;
+                if (!started && subscription != null) {
+                    started = true;
+                    subscription.request(prefetch);
+                }
+                long requested = demand.get();
+                long emitted = 0;
+                while (emitted != requested && error == null) {
+                    ByteBuffer buffer = queue.poll();
+                    if (buffer == null) {
+                        break;
+                    }
+                    subscriber.onNext(buffer);
+                    emitted++;
+                    freed++;
+                }
+                if (emitted != 0 && requested != Long.MAX_VALUE) {
+                    demand.addAndGet(-emitted);
+                }
+                Throwable failure = error;
+                if (failure != null) {
+                    terminated = true;
+                    queue.clear();
+                    subscriber.onError(failure);
+                } else if (upstreamDone && queue.isEmpty()) {
+                    terminated = true;
+                    subscriber.onComplete();
+                } else {
+                    freed += skipped.getAndSet(0);
+                    if (freed >= replenishThreshold && subscription != null && !upstreamDone) {
+                        int batch = freed;
+                        freed = 0;
+                        subscription.request(batch);
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+}
@@ -0,0 +1,60 @@
+import java.security.*;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * JCA provider that makes the transposition cipher available through
+ * {@link javax.crypto.Cipher}, e.g.
+ * {@code Cipher.getInstance("Transposition", new TranspositionProvider())}
+ * or by name once added with {@link Security#addProvider}.
+ */
+public final class TranspositionProvider extends Provider {
+
+    public static final String NAME = "Crypto";
+    public static final String ALGORITHM = "Transposition";
+
+    private static final long serialVersionUID = 1L;
+
+    public TranspositionProvider() {
+        super(NAME, "1.0", "Crypto transposition cipher (" + ALGORITHM + "/ECB/NoPadding)");
+        put("Cipher." + ALGORITHM, TranspositionCipherSpi.class.getName());
+        put("Cipher." + ALGORITHM + " SupportedModes", "ECB|NONE");
+        put("Cipher." + ALGORITHM + " SupportedPaddings", "NOPADDING");
+    }
+
+    /**
+     * Wraps a permutation as a key for this provider
+     * @param key encryption key
+     * @return secret key whose encoded form is the key as big-endian ints
+     */
+    public static SecretKey secretKey(int[] key) {
+        Crypto.validateKey(key);
+        byte[] encoded = new byte[key.length * 4];
+        for (int i = 0; i < key.length; i++) {
+            encoded[4 * i] = (byte) (key[i] >>> 24);
+            encoded[4 * i + 1] = (byte) (key[i] >>> 16);
+            encoded[4 * i + 2] = (byte) (key[i] >>> 8);
+            encoded[4 * i + 3] = (byte) key[i];
+        }
+        return new SecretKeySpec(encoded, ALGORITHM);
+    }
+
+    /**
+     * Reverses {@link #secretKey(int[])}
+     */
+    static int[] permutation(Key key) throws InvalidKeyException {
+        if (key == null || !ALGORITHM.equalsIgnoreCase(key.getAlgorithm())) {
+            throw new InvalidKeyException("Expected a " + ALGORITHM + " key");
+        }
+        byte[] encoded = key.getEncoded();
+        if (encoded == null || encoded.length == 0 || encoded.length % 4 != 0) {
+            throw new InvalidKeyException("Invalid key encoding");
+        }
+        int[] permutation = new int[encoded.length / 4];
+        for (int i = 0; i < permutation.length; i++) {
+            permutation[i] = (encoded[4 * i] & 0xFF) << 24 | (encoded[4 * i + 1] & 0xFF) << 16
+                    | (encoded[4 * i + 2] & 0xFF) << 8 | (encoded[4 * i + 3] & 0xFF);
+        }
+        return permutation;
+    }
+}
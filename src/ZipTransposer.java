@@ -0,0 +1,247 @@
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Encrypts or decrypts every entry of a ZIP or JAR archive into a new
+ * archive, without extracting anything to disk.
+ *
+ * Entries are read with a {@link ZipInputStream} and written with a
+ * {@link ZipOutputStream} in their original order, with the same names,
+ * times and comments. File contents go through the length-preserving
+ * format of {@link TranspositionOutputStream}; directory entries are
+ * copied. Output entries are always deflated, since the size and CRC a
+ * stored entry needs up front are not known while streaming.
+ *
+ * With one thread each entry streams straight from input to output. With
+ * more, entries that fit a share of the memory budget are read into memory
+ * and transposed by workers while the next ones are read, and finished
+ * entries are written in order. Entries in flight, counting both their
+ * input and their result, never hold more than the budget; a larger entry
+ * waits for those before it and then streams like in the single threaded
+ * case. Deflating happens on the writing thread in either case.
+ */
+final class ZipTransposer {
+
+    static final long DEFAULT_MEMORY_BUDGET = 64 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int[] key;
+    private final boolean decrypt;
+    private final int threads;
+    private final long memoryBudget;
+
+    /**
+     * An entry whose transposed content is being computed by a worker
+     */
+    private static final class Pending {
+        final ZipEntry entry;
+        final Future<byte[]> content;
+        final long size;
+
+        Pending(ZipEntry entry, Future<byte[]> content, long size) {
+            this.entry = entry;
+            this.content = content;
+            this.size = size;
+        }
+    }
+
+    /**
+     * @param key encryption key
+     * @param decrypt true to decrypt the entries
+     * @param threads entries transposed at the same time
+     * @param memoryBudget most bytes of entry content held in memory
+     */
+    ZipTransposer(int[] key, boolean decrypt, int threads, long memoryBudget) {
+        Crypto.validateKey(key);
+        if (threads <= 0 || memoryBudget <= 0) {
+            throw new IllegalArgumentException("Threads and memory budget must be greater than zero.");
+        }
+        this.key = key.clone();
+        this.decrypt = decrypt;
+        this.threads = threads;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Transforms one archive file into another
+     * @return number of entries written
+     */
+    int transform(File input, File output) throws IOException, InterruptedException {
+        if (input == null || !input.isFile()) {
+            throw new IllegalArgumentException("File error: invalid file or file path.");
+        }
+        boolean done = false;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(input), BUFFER_SIZE);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(output), BUFFER_SIZE)) {
+            int entries = transform(in, out);
+            done = true;
+            return entries;
+        } finally {
+            if (!done) {
+                output.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads an archive from in and writes the transformed archive to out.
+     * Neither stream is closed.
+     * @return number of entries written
+     */
+    int transform(InputStream in, OutputStream out) throws IOException, InterruptedException {
+        ZipInputStream zipIn = new ZipInputStream(in);
+        // Closing the archive releases its deflater but must leave out open
+        ZipOutputStream zipOut = new ZipOutputStream(new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        });
+        ExecutorService pool = threads == 1 ? null : Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "crypto-zip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Pending> pending = new ArrayDeque<>();
+        long inFlight = 0;
+        // An entry in memory takes its input and its transposed copy
+        long bufferLimit = Math.max(1, memoryBudget / (2L * threads));
+        int entries = 0;
+        try {
+            ZipEntry entry;
+            while ((entry = zipIn.getNextEntry()) != null) {
+                entries++;
+                ZipEntry copy = copyOf(entry);
+                if (pool == null || entry.isDirectory()) {
+                    inFlight -= drain(pending, zipOut, Long.MAX_VALUE);
+                    zipOut.putNextEntry(copy);
+                    if (!entry.isDirectory()) {
+                        stream(zipIn, zipOut, null);
+                    }
+                    zipOut.closeEntry();
+                    continue;
+                }
+                byte[] content = readUpTo(zipIn, bufferLimit);
+                if (content.length > bufferLimit) {
+                    // Too big to hold: write everything before it, then stream the rest
+                    inFlight -= drain(pending, zipOut, Long.MAX_VALUE);
+                    zipOut.putNextEntry(copy);
+                    stream(zipIn, zipOut, content);
+                    zipOut.closeEntry();
+                    continue;
+                }
+                long cost = 2L * content.length;
+                if (inFlight + cost > memoryBudget) {
+                    inFlight -= drain(pending, zipOut, inFlight + cost - memoryBudget);
+                }
+                pending.add(new Pending(copy, pool.submit(() -> transpose(content)), cost));
+                inFlight += cost;
+                // Write whatever is already finished, in order
+                while (!pending.isEmpty() && pending.peek().content.isDone()) {
+                    inFlight -= drain(pending, zipOut, 1);
+                }
+            }
+            drain(pending, zipOut, Long.MAX_VALUE);
+            // Closes only the archive, see the stream it writes to
+            zipOut.close();
+            return entries;
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Writes finished entries from the head of the queue
+     * @param bytes free at least this much of the memory budget, or everything
+     * @return memory freed by the entries written
+     */
+    private static long drain(ArrayDeque<Pending> pending, ZipOutputStream zipOut, long bytes)
+            throws IOException, InterruptedException {
+        long written = 0;
+        while (!pending.isEmpty() && written < bytes) {
+            Pending head = pending.poll();
+            byte[] content;
+            try {
+                content = head.content.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to transpose " + head.entry.getName(), e.getCause());
+            }
+            zipOut.putNextEntry(head.entry);
+            zipOut.write(content);
+            zipOut.closeEntry();
+            written += head.size;
+        }
+        return written;
+    }
+
+    /**
+     * Transposes the rest of the current entry straight into the output
+     * @param head bytes of the entry already read, or null
+     */
+    private void stream(ZipInputStream zipIn, ZipOutputStream zipOut, byte[] head)
+            throws IOException {
+        TranspositionOutputStream out = new TranspositionOutputStream(zipOut, key, decrypt);
+        if (head != null) {
+            out.write(head);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = zipIn.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        // Finish, not close: the archive stays open for the next entry
+        out.finish();
+    }
+
+    private byte[] transpose(byte[] content) {
+        ByteTransposer transposer = new ByteTransposer(key, decrypt);
+        byte[] result = new byte[content.length];
+        int produced = transposer.update(content, 0, content.length, result, 0);
+        transposer.doFinal(result, produced);
+        return result;
+    }
+
+    /**
+     * Reads the current entry until it ends or more than limit bytes are read
+     * @return the bytes read; longer than limit when the entry has more
+     */
+    private static byte[] readUpTo(ZipInputStream zipIn, long limit) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = zipIn.read(buffer, 0, (int) Math.min(buffer.length, limit + 1 - content.size()))) > 0) {
+            content.write(buffer, 0, n);
+            if (content.size() > limit) {
+                break;
+            }
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * @return a new entry with the name and metadata of the original, to be deflated
+     */
+    private static ZipEntry copyOf(ZipEntry entry) {
+        ZipEntry copy = new ZipEntry(entry.getName());
+        copy.setTime(entry.getTime());
+        if (entry.getLastModifiedTime() != null) {
+            copy.setLastModifiedTime(entry.getLastModifiedTime());
+        }
+        if (entry.getComment() != null) {
+            copy.setComment(entry.getComment());
+        }
+        copy.setMethod(ZipEntry.DEFLATED);
+        return copy;
+    }
+}
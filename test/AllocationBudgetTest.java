@@ -0,0 +1,162 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Allocation budgets for the core operations.
+ *
+ * Each operation is measured with the current thread's allocated-bytes
+ * counter at a small and a large input. The difference gives the bytes
+ * allocated per input byte, the rest is the fixed cost of a call. Both are
+ * checked against allocation-budgets.properties, so a change that starts
+ * copying the input again fails here instead of in production.
+ *
+ * To update a budget after an intended change, run the test, read the
+ * measured values it prints and edit the properties file.
+ */
+public class AllocationBudgetTest {
+
+    private static final int SMALL = 4 * 1024;
+    private static final int LARGE = 1024 * 1024;
+    private static final int WARMUP = 20;
+    private static final int RUNS = 5;
+    private static final int[] KEY = {3, 1, 4, 0, 2};
+
+    private static com.sun.management.ThreadMXBean threads;
+    private static Properties budgets;
+    private static File dir;
+
+    private interface Operation {
+        void run(int size) throws Exception;
+    }
+
+    @BeforeAll
+    public static void setUp() throws IOException {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue(threads.isThreadAllocatedMemorySupported(), "The JVM must report allocated bytes per thread");
+        threads.setThreadAllocatedMemoryEnabled(true);
+        budgets = new Properties();
+        try (InputStream in = AllocationBudgetTest.class.getResourceAsStream("/allocation-budgets.properties")) {
+            assertNotNull(in, "allocation-budgets.properties is missing from the test classpath");
+            budgets.load(in);
+        }
+        dir = Files.createTempDirectory("alloc-budget").toFile();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testEncrypt() throws Exception {
+        String[] texts = {text(SMALL), text(LARGE)};
+        check("encrypt", size -> Crypto.encrypt(texts[size == SMALL ? 0 : 1], KEY));
+    }
+
+    @Test
+    public void testDecrypt() throws Exception {
+        String[] texts = {Crypto.encrypt(text(SMALL), KEY), Crypto.encrypt(text(LARGE), KEY)};
+        check("decrypt", size -> Crypto.decrypt(texts[size == SMALL ? 0 : 1], KEY));
+    }
+
+    @Test
+    public void testLoadEncryptionKey() throws Exception {
+        String[] keys = {keyText(SMALL), keyText(LARGE)};
+        check("loadEncryptionKey", size -> Crypto.loadEncryptionKey(keys[size == SMALL ? 0 : 1]));
+    }
+
+    @Test
+    public void testReadFileContent() throws Exception {
+        File[] files = {new File(dir, "small.txt"), new File(dir, "large.txt")};
+        Files.writeString(files[0].toPath(), text(SMALL));
+        Files.writeString(files[1].toPath(), text(LARGE));
+        check("readFileContent", size -> Crypto.readFileContent(files[size == SMALL ? 0 : 1]));
+    }
+
+    @Test
+    public void testSaveToFile() throws Exception {
+        String[] texts = {text(SMALL), text(LARGE)};
+        String path = new File(dir, "saved.txt").getPath();
+        check("saveToFile", size -> Crypto.saveToFile(texts[size == SMALL ? 0 : 1], path));
+    }
+
+    /**
+     * Measures an operation at both sizes and compares the result with its budget
+     */
+    private static void check(String name, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            operation.run(SMALL);
+            operation.run(LARGE);
+        }
+        long small = measure(operation, SMALL);
+        long large = measure(operation, LARGE);
+        double perByte = (double) (large - small) / (LARGE - SMALL);
+        long fixed = Math.max(0, Math.round(small - perByte * SMALL));
+        System.out.printf("%-18s %8.3f B/B  %8d B fixed%n", name, perByte, fixed);
+
+        double perByteBudget = Double.parseDouble(budget(name + ".perByte"));
+        long fixedBudget = Long.parseLong(budget(name + ".fixed"));
+        assertTrue(perByte <= perByteBudget, String.format(
+                "%s allocates %.3f bytes per input byte, budget is %.3f", name, perByte, perByteBudget));
+        assertTrue(fixed <= fixedBudget, String.format(
+                "%s allocates %d bytes per call, budget is %d", name, fixed, fixedBudget));
+    }
+
+    /**
+     * @return the fewest bytes allocated by one call over several runs
+     */
+    private static long measure(Operation operation, int size) throws Exception {
+        long id = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long before = threads.getThreadAllocatedBytes(id);
+            operation.run(size);
+            best = Math.min(best, threads.getThreadAllocatedBytes(id) - before);
+        }
+        return best;
+    }
+
+    private static String budget(String name) {
+        String value = budgets.getProperty(name);
+        assertNotNull(value, "No budget for " + name + " in allocation-budgets.properties");
+        return value.trim();
+    }
+
+    /**
+     * Text of exactly the given length with a newline every 64 characters
+     */
+    private static String text(int size) {
+        char[] chars = new char[size];
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            chars[i] = i % 64 == 63 ? '\n' : (char) ('a' + random.nextInt(26));
+        }
+        chars[size - 1] = 'z';
+        return new String(chars);
+    }
+
+    /**
+     * Key text as Arrays.toString writes it, about the given number of characters long
+     */
+    private static String keyText(int size) {
+        int[] key = new int[size / 8];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = key.length - 1 - i;
+        }
+        return Arrays.toString(key);
+    }
+}
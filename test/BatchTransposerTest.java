@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.*;
+
+public class BatchTransposerTest {
+
+    @Test
+    public void testMatchesPerCallResults() {
+        Random random = new Random(11);
+        String alphabet = "abcdefgh \n\r";
+        List<String> payloads = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            StringBuilder text = new StringBuilder("p");
+            int length = random.nextInt(300);
+            for (int c = 0; c < length; c++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            payloads.add(text.toString());
+        }
+        int[] key = Crypto.generateDynamicKey(6);
+
+        BatchTransposer.Batch encrypted = BatchTransposer.encrypt(payloads, key);
+        assertEquals(payloads.size(), encrypted.size());
+        List<String> encryptedTexts = new ArrayList<>();
+        for (int i = 0; i < payloads.size(); i++) {
+            assertEquals(Crypto.encrypt(payloads.get(i), key), encrypted.get(i), "Payload " + i);
+            assertEquals(encrypted.get(i), encrypted.slice(i).toString());
+            encryptedTexts.add(encrypted.get(i));
+        }
+
+        BatchTransposer.Batch decrypted = BatchTransposer.decrypt(encryptedTexts, key);
+        for (int i = 0; i < payloads.size(); i++) {
+            assertEquals(Crypto.decrypt(encryptedTexts.get(i), key), decrypted.get(i), "Payload " + i);
+        }
+    }
+
+    @Test
+    public void testKeyPerPayload() {
+        List<String> payloads = Arrays.asList("first payload", "second\npayload", "third");
+        List<int[]> keys = Arrays.asList(new int[]{1, 0}, new int[]{2, 0, 1}, new int[]{2, 0, 1});
+        BatchTransposer.Batch encrypted = BatchTransposer.encrypt(payloads, keys);
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < payloads.size(); i++) {
+            assertEquals(Crypto.encrypt(payloads.get(i), keys.get(i)), encrypted.get(i));
+            texts.add(encrypted.get(i));
+        }
+        BatchTransposer.Batch decrypted = BatchTransposer.decrypt(texts, keys);
+        for (int i = 0; i < payloads.size(); i++) {
+            assertEquals(payloads.get(i), decrypted.get(i));
+        }
+    }
+
+    @Test
+    public void testSlicesAreReadOnlyViews() {
+        BatchTransposer.Batch batch = BatchTransposer.encrypt(Arrays.asList("abcdef", "ghi"), new int[]{1, 0, 2});
+        CharSequence slice = batch.slice(1);
+        assertEquals(3, slice.length());
+        assertEquals("hgi", slice.toString());
+        assertEquals("gi", slice.subSequence(1, 3).toString());
+        assertTrue(((java.nio.CharBuffer) slice).isReadOnly());
+    }
+
+    @Test
+    public void testRejectsBadInput() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> BatchTransposer.encrypt(Arrays.asList("ok", ""), new int[]{1, 0}));
+        assertEquals("Text cannot be null or empty (payload 1)", e.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> BatchTransposer.encrypt(Arrays.asList("a", "b"), Collections.singletonList(new int[]{0})));
+        assertThrows(IllegalArgumentException.class,
+                () -> BatchTransposer.encrypt(Arrays.asList("a"), new int[]{0, 0}));
+    }
+}
@@ -0,0 +1,98 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.ByteBuffer;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testBuffersAreRoundedUpAndReused() {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        char[] first = pool.borrowChars(3000);
+        assertEquals(4096, first.length);
+        pool.release(first);
+        assertEquals(1, pool.getRetainedBuffers());
+        assertEquals(8192, pool.getRetainedBytes(), "A char is two bytes");
+
+        assertSame(first, pool.borrowChars(2049));
+        assertEquals(0, pool.getRetainedBytes());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0.5, pool.getHitRate(), 1e-9);
+        assertEquals(BufferPool.MIN_CLASS_SIZE, pool.borrowBytes(1).length);
+    }
+
+    @Test
+    public void testTypesAreKeptApart() {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        pool.release(new byte[2048]);
+        ByteBuffer direct = pool.borrowDirect(2048);
+        assertTrue(direct.isDirect());
+        assertEquals(0, pool.getHitCount(), "A byte[] must not satisfy a direct request");
+
+        direct.position(10);
+        pool.release(direct);
+        assertEquals(2048, pool.getRetainedDirectBytes());
+        ByteBuffer again = pool.borrowDirect(1500);
+        assertSame(direct, again);
+        assertEquals(0, again.position(), "Borrowed buffers are cleared");
+    }
+
+    @Test
+    public void testReleasedBuffersAreZeroed() {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        char[] chars = pool.borrowChars(1024);
+        java.util.Arrays.fill(chars, 's');
+        pool.release(chars);
+        for (char c : pool.borrowChars(1024)) {
+            assertEquals(0, c);
+        }
+
+        byte[] bytes = pool.borrowBytes(1024);
+        java.util.Arrays.fill(bytes, (byte) 's');
+        pool.release(bytes);
+        for (byte b : pool.borrowBytes(1024)) {
+            assertEquals(0, b);
+        }
+
+        ByteBuffer direct = pool.borrowDirect(1027);
+        while (direct.hasRemaining()) {
+            direct.put((byte) 's');
+        }
+        pool.release(direct);
+        ByteBuffer again = pool.borrowDirect(1027);
+        while (again.hasRemaining()) {
+            assertEquals(0, again.get());
+        }
+    }
+
+    @Test
+    public void testRetainedMemoryIsCapped() {
+        BufferPool pool = new BufferPool(10_000);
+        pool.release(new byte[8192]);
+        pool.release(new byte[4096]);
+        assertEquals(8192, pool.getRetainedBytes());
+        assertEquals(1, pool.getDroppedCount());
+
+        pool.release(new byte[1000]);
+        pool.release(new byte[BufferPool.MAX_CLASS_SIZE * 2]);
+        assertEquals(1, pool.getRetainedBuffers(), "Foreign or oversized arrays are ignored");
+
+        pool.clear();
+        assertEquals(0, pool.getRetainedBytes());
+        assertEquals(0, pool.getRetainedBuffers());
+    }
+
+    @Test
+    public void testCryptoReturnsItsBuffers() {
+        BufferPool pool = BufferPool.shared();
+        String text = "Pooled buffers\nshould not change the result";
+        int[] key = {2, 0, 1};
+        String encrypted = Crypto.encrypt(text, key);
+        long retained = pool.getRetainedBuffers();
+        long hits = pool.getHitCount();
+
+        assertEquals(encrypted, Crypto.encrypt(text, key));
+        assertEquals(text, Crypto.decrypt(encrypted, key));
+        assertEquals(retained, pool.getRetainedBuffers(), "Every borrowed buffer is returned");
+        assertTrue(pool.getHitCount() > hits, "Later calls reuse pooled buffers");
+    }
+}
@@ -0,0 +1,72 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.util.Random;
+
+public class ByteTransposerTest {
+
+    private static final int[] TEST_KEY = {3, 0, 4, 1, 2};
+
+    @Test
+    public void testFullRowsArePermutedWithTheKey() {
+        byte[] input = {10, 11, 12, 13, 14};
+        byte[] output = new byte[5];
+        ByteTransposer transposer = new ByteTransposer(TEST_KEY, false);
+
+        assertEquals(5, transposer.update(input, 0, 5, output, 0));
+        assertArrayEquals(new byte[] {13, 10, 14, 11, 12}, output);
+        assertEquals(0, transposer.doFinal(output, 0));
+    }
+
+    @Test
+    public void testEveryLengthRoundTripsWithoutPadding() throws IOException {
+        Random random = new Random(42);
+        for (int length = 0; length <= 23; length++) {
+            byte[] input = new byte[length];
+            random.nextBytes(input);
+
+            byte[] encrypted = transpose(input, false, 3);
+            assertEquals(length, encrypted.length, "Length should be preserved");
+            assertArrayEquals(input, transpose(encrypted, true, 2), "Round trip of " + length + " bytes");
+        }
+    }
+
+    @Test
+    public void testChunkingDoesNotChangeOutput() throws IOException {
+        byte[] input = new byte[1000];
+        new Random(7).nextBytes(input);
+        byte[] expected = transpose(input, false, input.length);
+        for (int chunk = 1; chunk <= 11; chunk++) {
+            assertArrayEquals(expected, transpose(input, false, chunk), "Chunk size " + chunk);
+        }
+    }
+
+    @Test
+    public void testInputStreamMatchesOutputStream() throws IOException {
+        byte[] input = new byte[200_003];
+        new Random(1).nextBytes(input);
+        byte[] expected = transpose(input, false, 4096);
+
+        try (InputStream in = new TranspositionInputStream(new ByteArrayInputStream(input), TEST_KEY, false)) {
+            assertArrayEquals(expected, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void testWriteAfterFinishFails() throws IOException {
+        TranspositionOutputStream out = new TranspositionOutputStream(new ByteArrayOutputStream(), TEST_KEY, false);
+        out.write(1);
+        out.finish();
+        assertThrows(IOException.class, () -> out.write(2));
+    }
+
+    private static byte[] transpose(byte[] input, boolean decrypt, int chunk) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (TranspositionOutputStream out = new TranspositionOutputStream(result, TEST_KEY, decrypt)) {
+            for (int off = 0; off < input.length; off += chunk) {
+                out.write(input, off, Math.min(chunk, input.length - off));
+            }
+        }
+        return result.toByteArray();
+    }
+}
@@ -0,0 +1,153 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CheckpointedJobTest {
+
+    private static final int[] KEY = {4, 1, 6, 0, 3, 5, 2};
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private File dir;
+    private File journal;
+    private List<File> inputs;
+    private List<File> outputs;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("job").toFile();
+        journal = new File(dir, "job.journal");
+        inputs = new ArrayList<>();
+        outputs = new ArrayList<>();
+        Random random = new Random(11);
+        for (int size : new int[] {1_000_003, 5, 300_000}) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+            File input = new File(dir, "input" + inputs.size() + ".bin");
+            Files.write(input.toPath(), bytes);
+            inputs.add(input);
+            outputs.add(new File(dir, "out/encrypted_" + input.getName()));
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (File file : new File(dir, "out").listFiles()) {
+            file.delete();
+        }
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testUninterruptedRunMatchesStreamingOutput() throws Exception {
+        CheckpointedJob.Summary summary = new CheckpointedJob(journal, CHUNK_SIZE, 0, 2)
+                .run(inputs, outputs, KEY, false);
+        assertEquals(3, summary.files);
+        assertEquals(0, summary.skipped);
+        assertFalse(journal.exists(), "Journal is removed when the job is done");
+        assertOutputsMatch();
+        for (File output : outputs) {
+            assertTrue(ChunkChecksums.verify(output).ok(), ChunkChecksums.verify(output).toString());
+        }
+    }
+
+    @Test
+    public void testSmallFileIsNotQueuedBehindALargeOne() throws Exception {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        new CheckpointedJob(journal, CHUNK_SIZE, 0, 1, (file, offset, length) -> order.add(file))
+                .run(inputs, outputs, KEY, false);
+        assertEquals(16 + 1 + 5, order.size());
+        assertTrue(order.indexOf(1) < order.lastIndexOf(0), "The 5 byte file waited for the large one: " + order);
+        assertOutputsMatch();
+    }
+
+    @Test
+    public void testResumeDoesOnlyTheMissingChunks() throws Exception {
+        CheckpointedJob job = new CheckpointedJob(journal, CHUNK_SIZE, 0, 1, crashAfter(20));
+        assertThrows(InterruptedIOException.class, () -> job.run(inputs, outputs, KEY, false));
+        assertTrue(journal.exists());
+        assertTrue(job.journaled(), "The failed run can be resumed");
+        // A record torn by the crash
+        Files.write(journal.toPath(), "done\t0\t12".getBytes(), StandardOpenOption.APPEND);
+
+        CheckpointedJob.Summary summary = new CheckpointedJob(journal, CHUNK_SIZE, 0, 2).resume(KEY);
+        assertEquals(16 + 1 + 5, summary.chunks);
+        assertTrue(summary.skipped >= 16, "Chunks done before the stop are skipped: " + summary);
+        assertFalse(journal.exists());
+        assertOutputsMatch();
+        // Checksums of chunks done before the stop come from the journal
+        assertEquals(outputs, ChunkChecksums.collect(Arrays.asList(new File(dir, "out").getPath())));
+        for (File output : outputs) {
+            assertTrue(ChunkChecksums.verify(output).ok(), ChunkChecksums.verify(output).toString());
+        }
+    }
+
+    @Test
+    public void testResumeRefusesOtherKeyOrChangedInput() throws Exception {
+        CheckpointedJob job = new CheckpointedJob(journal, CHUNK_SIZE, 1000, 1, crashAfter(3));
+        assertThrows(InterruptedIOException.class, () -> job.run(inputs, outputs, KEY, false));
+
+        CheckpointedJob invalid = new CheckpointedJob(new File(dir, "other.journal"), CHUNK_SIZE, 0, 1);
+        assertThrows(IllegalArgumentException.class, () -> invalid.run(Arrays.asList(new File(dir, "missing")),
+                Arrays.asList(new File(dir, "out/missing")), KEY, false));
+        assertFalse(invalid.journaled(), "Nothing to resume when the job never started");
+
+        CheckpointedJob resumed = new CheckpointedJob(journal, CHUNK_SIZE, 0, 1);
+        assertThrows(IllegalArgumentException.class, () -> resumed.resume(new int[] {1, 0, 2, 3, 4, 5, 6}));
+        Files.write(inputs.get(1).toPath(), "changed".getBytes());
+        assertThrows(IOException.class, () -> resumed.resume(KEY));
+    }
+
+    @Test
+    public void testDirectoryOutputsAreNotNamedAsText() throws Exception {
+        File keyFile = new File(dir, "job.key");
+        KeyFiles.writeText(KEY, keyFile);
+        File in = new File(dir, "in");
+        in.mkdir();
+        Files.write(new File(in, "data.bin").toPath(), new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        File out = new File(dir, "out");
+        try {
+            assertEquals(0, Crypto.runJob(Arrays.asList("encrypt", in.getPath(), out.getPath(),
+                    keyFile.getPath(), journal.getPath())));
+            String[] names = out.list();
+            Arrays.sort(names);
+            assertEquals(Arrays.asList(CheckpointedJob.OUTPUT_PREFIX + "data.bin",
+                    CheckpointedJob.OUTPUT_PREFIX + "data.bin" + ChunkChecksums.SUFFIX), Arrays.asList(names));
+        } finally {
+            new File(in, "data.bin").delete();
+            in.delete();
+            keyFile.delete();
+        }
+    }
+
+    /**
+     * @return a listener that fails the job once the given number of chunks is done, as if the process died
+     */
+    private static CheckpointedJob.ChunkListener crashAfter(int chunks) {
+        AtomicInteger done = new AtomicInteger();
+        return (file, offset, length) -> {
+            if (done.incrementAndGet() >= chunks) {
+                throw new InterruptedIOException("Job stopped after " + chunks + " chunk(s)");
+            }
+        };
+    }
+
+    private void assertOutputsMatch() throws IOException {
+        for (int i = 0; i < inputs.size(); i++) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            try (TranspositionOutputStream out = new TranspositionOutputStream(expected, KEY, false)) {
+                out.write(Files.readAllBytes(inputs.get(i).toPath()));
+            }
+            assertArrayEquals(expected.toByteArray(), Files.readAllBytes(outputs.get(i).toPath()),
+                    outputs.get(i).getName());
+        }
+    }
+}
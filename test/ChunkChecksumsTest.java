@@ -0,0 +1,107 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class ChunkChecksumsTest {
+
+    private static final int CHUNK_SIZE = 1000;
+    private static final int[] TEST_KEY = {1, 3, 0, 2};
+
+    private File testDirectory;
+    private File encryptedFile;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        testDirectory = Files.createTempDirectory("checksum_test").toFile();
+        encryptedFile = new File(testDirectory, "encrypted_data.txt");
+        byte[] data = new byte[4500];
+        new Random(3).nextBytes(data);
+        Files.write(encryptedFile.toPath(), data);
+        ChunkChecksums.write(encryptedFile, CHUNK_SIZE);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        File[] files = testDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        testDirectory.delete();
+    }
+
+    @Test
+    public void testIntactFileVerifies() {
+        ChunkChecksums.Report report = ChunkChecksums.verify(encryptedFile);
+        assertTrue(report.ok(), report.toString());
+        assertEquals(5, report.chunks);
+    }
+
+    @Test
+    public void testCorruptedChunkOffsetsAreReported() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(encryptedFile, "rw")) {
+            flip(file, 2500);
+            flip(file, 4400);
+        }
+        ChunkChecksums.Report report = ChunkChecksums.verify(encryptedFile);
+        assertFalse(report.ok());
+        assertNull(report.problem);
+        assertEquals(Arrays.asList(2000L, 4000L), report.corruptedOffsets);
+    }
+
+    @Test
+    public void testTruncationAndMissingChecksums() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(encryptedFile, "rw")) {
+            file.setLength(3000);
+        }
+        ChunkChecksums.Report report = ChunkChecksums.verify(encryptedFile);
+        assertFalse(report.ok());
+        assertEquals(Arrays.asList(3000L, 4000L), report.corruptedOffsets);
+        assertTrue(report.problem.contains("expected 4500"), report.problem);
+
+        ChunkChecksums.sidecar(encryptedFile).delete();
+        assertTrue(ChunkChecksums.verify(encryptedFile).problem.startsWith("no checksum file"));
+    }
+
+    @Test
+    public void testDirectoriesAreVerifiedInParallel() throws Exception {
+        File second = new File(testDirectory, "encrypted_other.txt");
+        Files.write(second.toPath(), "other encrypted content".getBytes());
+        ChunkChecksums.write(second);
+        Files.write(new File(testDirectory, "unrelated.txt").toPath(), "no checksums".getBytes());
+        try (RandomAccessFile file = new RandomAccessFile(second, "rw")) {
+            flip(file, 0);
+        }
+
+        List<File> files = ChunkChecksums.collect(Collections.singletonList(testDirectory.getPath()));
+        assertEquals(Arrays.asList(encryptedFile, second), files);
+        List<ChunkChecksums.Report> reports = ChunkChecksums.verifyAll(files, 2);
+        assertTrue(reports.get(0).ok());
+        assertEquals(Collections.singletonList(0L), reports.get(1).corruptedOffsets);
+        assertEquals(1, Crypto.runVerify(Collections.singletonList(testDirectory.getPath())));
+    }
+
+    @Test
+    public void testEngineWritesChecksumsWhenEncrypting() throws IOException {
+        File input = new File(testDirectory, "plain.txt");
+        File output = new File(testDirectory, "encrypted_plain.txt");
+        Files.write(input.toPath(), "Some text to protect\nacross two lines".getBytes());
+
+        new CryptoEngine(64 * 1024 * 1024, 0, 1).encryptFile(input, output, TEST_KEY);
+        assertTrue(ChunkChecksums.sidecar(output).isFile());
+        assertTrue(ChunkChecksums.verify(output).ok());
+        assertEquals(0, Crypto.runVerify(Collections.singletonList(output.getPath())));
+    }
+
+    private static void flip(RandomAccessFile file, long position) throws IOException {
+        file.seek(position);
+        int b = file.read();
+        file.seek(position);
+        file.write(b ^ 0x40);
+    }
+}
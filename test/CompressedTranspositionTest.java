@@ -0,0 +1,111 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.zip.Deflater;
+
+public class CompressedTranspositionTest {
+
+    private static final int[] TEST_KEY = {2, 4, 0, 3, 1};
+
+    private File testDirectory;
+    private File inputFile;
+    private File encryptedFile;
+    private File decryptedFile;
+    private byte[] text;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        testDirectory = Files.createTempDirectory("compression_test").toFile();
+        inputFile = new File(testDirectory, "archive.txt");
+        encryptedFile = new File(testDirectory, "encrypted_archive.txt");
+        decryptedFile = new File(testDirectory, "decrypted_archive.txt");
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            builder.append("2024-01-01 12:00:").append(i % 60).append(" INFO request served in ")
+                    .append(i % 17).append(" ms\n");
+        }
+        text = builder.toString().getBytes();
+        Files.write(inputFile.toPath(), text);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        File[] files = testDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        testDirectory.delete();
+    }
+
+    @Test
+    public void testRoundTripShrinksText() throws IOException {
+        long encryptedSize = CompressedTransposition.encryptFile(inputFile, encryptedFile, TEST_KEY,
+                Deflater.BEST_SPEED);
+        assertEquals(encryptedFile.length(), encryptedSize);
+        assertTrue(encryptedSize < text.length / 4, "Repetitive text should compress well");
+        assertTrue(CompressedTransposition.isCompressed(encryptedFile));
+
+        assertEquals(text.length, CompressedTransposition.decryptFile(encryptedFile, decryptedFile, TEST_KEY));
+        assertArrayEquals(text, Files.readAllBytes(decryptedFile.toPath()));
+    }
+
+    @Test
+    public void testLevelTradesSizeForSpeed() throws IOException {
+        long stored = CompressedTransposition.encryptFile(inputFile, encryptedFile, TEST_KEY, Deflater.NO_COMPRESSION);
+        long best = CompressedTransposition.encryptFile(inputFile, encryptedFile, TEST_KEY, Deflater.BEST_COMPRESSION);
+        assertTrue(stored > text.length, "Level 0 only stores");
+        assertTrue(best < stored);
+
+        assertThrows(IllegalArgumentException.class, () -> {
+            CompressedTransposition.encryptFile(inputFile, encryptedFile, TEST_KEY, 10);
+        });
+    }
+
+    @Test
+    public void testCommandLineRoundTrip() throws IOException {
+        File keyFile = new File(testDirectory, "key.txt");
+        KeyFiles.writeText(TEST_KEY, keyFile);
+
+        assertEquals(0, Crypto.runCompressed(java.util.Arrays.asList("encrypt", inputFile.getPath(),
+                encryptedFile.getPath(), keyFile.getPath(), "9")));
+        assertTrue(CompressedTransposition.isCompressed(encryptedFile));
+        assertEquals(0, Crypto.runCompressed(java.util.Arrays.asList("decrypt", encryptedFile.getPath(),
+                decryptedFile.getPath(), keyFile.getPath())));
+        assertArrayEquals(text, Files.readAllBytes(decryptedFile.toPath()));
+
+        assertEquals(2, Crypto.runCompressed(java.util.Arrays.asList("decrypt", encryptedFile.getPath(),
+                decryptedFile.getPath(), keyFile.getPath(), "9")));
+    }
+
+    @Test
+    public void testStreamsAreLeftOpen() throws IOException {
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        CompressedTransposition.encrypt(new ByteArrayInputStream(text), encrypted, TEST_KEY, 6);
+        encrypted.write('!');
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        byte[] withoutMarker = java.util.Arrays.copyOf(encrypted.toByteArray(), encrypted.size() - 1);
+        CompressedTransposition.decrypt(new ByteArrayInputStream(withoutMarker), decrypted, TEST_KEY);
+        assertArrayEquals(text, decrypted.toByteArray());
+    }
+
+    @Test
+    public void testWrongKeyOrPlainFileFails() throws IOException {
+        CompressedTransposition.encryptFile(inputFile, encryptedFile, TEST_KEY, Deflater.BEST_SPEED);
+        assertThrows(IOException.class, () -> {
+            CompressedTransposition.decryptFile(encryptedFile, decryptedFile, new int[] {1, 0, 2});
+        });
+        assertFalse(decryptedFile.exists(), "Failed output should be removed");
+
+        Exception exception = assertThrows(IOException.class, () -> {
+            CompressedTransposition.decryptFile(inputFile, decryptedFile, TEST_KEY);
+        });
+        assertEquals("Not a compressed Crypto stream", exception.getMessage());
+    }
+}
@@ -0,0 +1,168 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.file.*;
+
+public class CryptoCacheTest {
+
+    private static final int[] TEST_KEY = {2, 0, 3, 1};
+    private static final String TEST_TEXT = "Repeated template\nwith two lines";
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private File cacheDirectory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        cacheDirectory = Files.createTempDirectory("cache_test").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        File[] files = cacheDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDirectory.delete();
+    }
+
+    @Test
+    public void testHitsReturnSameResultAsCrypto() {
+        CryptoCache cache = new CryptoCache(1024 * 1024, HOUR);
+        String expected = Crypto.encrypt(TEST_TEXT, TEST_KEY);
+
+        assertEquals(expected, cache.encrypt(TEST_TEXT, TEST_KEY));
+        assertEquals(expected, cache.encrypt(TEST_TEXT, TEST_KEY));
+        assertEquals(Crypto.decrypt(expected, TEST_KEY), cache.decrypt(expected, TEST_KEY));
+
+        assertEquals(1, cache.getMemoryHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1.0 / 3, cache.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void testDifferentKeyIsADifferentEntry() {
+        CryptoCache cache = new CryptoCache(1024 * 1024, HOUR);
+        int[] otherKey = {1, 0};
+        cache.encrypt(TEST_TEXT, TEST_KEY);
+
+        assertEquals(Crypto.encrypt(TEST_TEXT, otherKey), cache.encrypt(TEST_TEXT, otherKey));
+        assertEquals(0, cache.getMemoryHits());
+        assertEquals(2, cache.getMemoryEntries());
+    }
+
+    @Test
+    public void testMemoryTierEvictsLeastRecentlyUsed() {
+        // Room for two entries of this size: result, input and key
+        CryptoCache cache = new CryptoCache(2 * (96 + 2 * 40 + 2 * 40 + 4 * 4), HOUR);
+        String first = "first payload of forty characters......";
+        String second = "second payload of forty characters.....";
+        String third = "third payload of forty characters......";
+
+        cache.encrypt(first, TEST_KEY);
+        cache.encrypt(second, TEST_KEY);
+        cache.encrypt(first, TEST_KEY);
+        cache.encrypt(third, TEST_KEY);
+
+        assertEquals(2, cache.getMemoryEntries());
+        assertEquals(1, cache.getEvictions());
+        cache.encrypt(first, TEST_KEY);
+        assertEquals(2, cache.getMemoryHits(), "Recently used entry should survive");
+    }
+
+    @Test
+    public void testDiskTierSurvivesNewInstance() {
+        String expected = new CryptoCache(1024, HOUR, cacheDirectory, 1024 * 1024).encrypt(TEST_TEXT, TEST_KEY);
+
+        CryptoCache reopened = new CryptoCache(1024, HOUR, cacheDirectory, 1024 * 1024);
+        assertTrue(reopened.getDiskBytes() > 0);
+        assertEquals(expected, reopened.encrypt(TEST_TEXT, TEST_KEY));
+        assertEquals(1, reopened.getDiskHits());
+        assertEquals(0, reopened.getMisses());
+
+        reopened.clear();
+        assertEquals(0, reopened.getDiskBytes());
+        assertEquals(0, cacheDirectory.listFiles().length);
+    }
+
+    @Test
+    public void testDiskEntryOfAnotherRequestIsNotUsed() throws IOException {
+        // An entry left by another request whose hash collided with this one
+        String other = "Another payload";
+        CryptoCache.CacheKey otherKey = new CryptoCache.CacheKey(other, TEST_KEY, false);
+        Files.write(new File(cacheDirectory, otherKey.fileName()).toPath(), new byte[40]);
+
+        CryptoCache reopened = new CryptoCache(1024, HOUR, cacheDirectory, 1024 * 1024);
+        assertEquals(Crypto.encrypt(other, TEST_KEY), reopened.encrypt(other, TEST_KEY));
+        assertEquals(0, reopened.getDiskHits());
+        assertEquals(1, reopened.getMisses());
+    }
+
+    @Test
+    public void testDecryptResultsStayOffDiskUnlessEnabled() {
+        String encrypted = Crypto.encrypt(TEST_TEXT, TEST_KEY);
+        new CryptoCache(1024 * 1024, HOUR, cacheDirectory, 1024 * 1024).decrypt(encrypted, TEST_KEY);
+        assertEquals(0, cacheDirectory.listFiles().length, "Plain text must not be written by default");
+
+        new CryptoCache(1024 * 1024, HOUR, cacheDirectory, 1024 * 1024, true).decrypt(encrypted, TEST_KEY);
+        CryptoCache reopened = new CryptoCache(1024 * 1024, HOUR, cacheDirectory, 1024 * 1024, true);
+        assertEquals(TEST_TEXT, reopened.decrypt(encrypted, TEST_KEY));
+        assertEquals(1, reopened.getDiskHits());
+    }
+
+    @Test
+    public void testDiskHitKeepsItsAge() throws InterruptedException {
+        long maxAge = 2000;
+        new CryptoCache(1024 * 1024, maxAge, cacheDirectory, 1024 * 1024).encrypt(TEST_TEXT, TEST_KEY);
+        File file = cacheDirectory.listFiles()[0];
+        assertTrue(file.setLastModified(System.currentTimeMillis() - maxAge + 300));
+
+        CryptoCache reopened = new CryptoCache(1024 * 1024, maxAge, cacheDirectory, 1024 * 1024);
+        reopened.encrypt(TEST_TEXT, TEST_KEY);
+        assertEquals(1, reopened.getDiskHits());
+        Thread.sleep(600);
+        reopened.encrypt(TEST_TEXT, TEST_KEY);
+        assertEquals(0, reopened.getMemoryHits(), "Result expires by the age it had on disk");
+        assertEquals(1, reopened.getMisses());
+    }
+
+    @Test
+    public void testForeignFilesInTheDiskDirectoryAreLeftAlone() throws IOException {
+        File foreign = new File(cacheDirectory, "notes.txt");
+        Files.write(foreign.toPath(), new byte[5000]);
+
+        CryptoCache cache = new CryptoCache(1024 * 1024, HOUR, cacheDirectory, 1024 * 1024);
+        assertEquals(0, cache.getDiskBytes(), "Only cache entries count against the budget");
+        cache.encrypt(TEST_TEXT, TEST_KEY);
+        assertTrue(cache.getDiskBytes() > 0);
+
+        cache.clear();
+        assertEquals(0, cache.getDiskBytes());
+        assertTrue(foreign.isFile(), "A file the cache did not write survives clear");
+        assertEquals(1, cacheDirectory.listFiles().length);
+    }
+
+    @Test
+    public void testExpiredEntriesAreRecomputed() throws InterruptedException {
+        CryptoCache cache = new CryptoCache(1024 * 1024, 20);
+        cache.encrypt(TEST_TEXT, TEST_KEY);
+        Thread.sleep(50);
+        cache.encrypt(TEST_TEXT, TEST_KEY);
+
+        assertEquals(0, cache.getMemoryHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testErrorsAreNotCached() {
+        CryptoCache cache = new CryptoCache(1024 * 1024, HOUR);
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            cache.encrypt("", TEST_KEY);
+        });
+        assertEquals("Text cannot be null or empty", exception.getMessage());
+        assertEquals(0, cache.getMemoryEntries());
+    }
+}
@@ -0,0 +1,117 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.file.*;
+
+public class CryptoEngineTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final int[] TEST_KEY = {3, 0, 4, 1, 2};
+    private static final String TEST_TEXT =
+            "  First line\nSecond line\r\nThird\tline with trailing spaces   \n\nLast line  \n";
+
+    private File testDirectory;
+    private File inputFile;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        testDirectory = Files.createTempDirectory("engine_test").toFile();
+        inputFile = new File(testDirectory, "input.txt");
+        Files.write(inputFile.toPath(), TEST_TEXT.getBytes());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        File[] files = testDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        testDirectory.delete();
+    }
+
+    @Test
+    public void testSmallFilesStayInMemory() {
+        CryptoEngine engine = new CryptoEngine(512 * MB, 0, 8);
+        assertEquals(CryptoEngine.Strategy.IN_MEMORY, engine.plan(10_000).strategy);
+    }
+
+    @Test
+    public void testLargeFilesUseAllCoresWhenTheyFit() {
+        CryptoEngine engine = new CryptoEngine(512 * MB, 0, 8);
+        assertEquals(CryptoEngine.Strategy.PARALLEL, engine.plan(20 * MB).strategy);
+
+        CryptoEngine singleCore = new CryptoEngine(512 * MB, 0, 1);
+        assertEquals(CryptoEngine.Strategy.STREAMING, singleCore.plan(20 * MB).strategy);
+    }
+
+    @Test
+    public void testHugeFilesNeverLoadIntoHeap() {
+        CryptoEngine engine = new CryptoEngine(64 * MB, 0, 8);
+        CryptoEngine.Plan plan = engine.plan(10_000 * MB);
+        assertEquals(CryptoEngine.Strategy.STREAMING, plan.strategy);
+        assertTrue(plan.reason.contains("heap budget"), "Reason should mention the budget");
+
+        CryptoEngine mapping = new CryptoEngine(64 * MB, 128 * MB, 8);
+        plan = mapping.plan(10_000 * MB);
+        assertEquals(CryptoEngine.Strategy.MAPPED, plan.strategy);
+        assertEquals(128 * MB, plan.mapWindow);
+    }
+
+    @Test
+    public void testConcurrentFilesShareTheDefaultBudget() {
+        long whole = CryptoEngine.withDefaults().heapBudget();
+        long share = CryptoEngine.withDefaults(4).heapBudget();
+        // Free heap moves a little between the two calls
+        assertTrue(share < whole / 2, "Each of 4 files gets a quarter: " + share + " of " + whole);
+        assertThrows(IllegalArgumentException.class, () -> CryptoEngine.withDefaults(0));
+    }
+
+    @Test
+    public void testAllStrategiesMatchStringApi() throws IOException {
+        String expectedEncrypted = Crypto.encrypt(Crypto.readFileContent(inputFile), TEST_KEY);
+        File reference = new File(testDirectory, "reference.txt");
+        Crypto.saveToFile(expectedEncrypted, reference.getPath());
+        byte[] expected = Files.readAllBytes(reference.toPath());
+
+        File parallel = new File(testDirectory, "parallel.txt");
+        Crypto.saveToFile(CryptoEngine.transposeParallel(Crypto.readFileContent(inputFile), TEST_KEY, false),
+                parallel.getPath());
+        assertArrayEquals(expected, Files.readAllBytes(parallel.toPath()), "Parallel output should match");
+
+        File streamed = new File(testDirectory, "streamed.txt");
+        CryptoEngine.stream(inputFile, streamed, TEST_KEY, false);
+        assertArrayEquals(expected, Files.readAllBytes(streamed.toPath()), "Streamed output should match");
+
+        File mapped = new File(testDirectory, "mapped.txt");
+        CryptoEngine.streamMapped(inputFile, mapped, TEST_KEY, false, 7);
+        assertArrayEquals(expected, Files.readAllBytes(mapped.toPath()), "Mapped output should match");
+    }
+
+    @Test
+    public void testStreamingRoundTrip() throws IOException {
+        File encrypted = new File(testDirectory, "encrypted.txt");
+        File decrypted = new File(testDirectory, "decrypted.txt");
+        CryptoEngine.stream(inputFile, encrypted, TEST_KEY, false);
+        CryptoEngine.stream(encrypted, decrypted, TEST_KEY, true);
+
+        String expected = Crypto.decrypt(Crypto.readFileContent(encrypted), TEST_KEY);
+        assertEquals(expected, Crypto.readFileContent(decrypted), "Streamed decrypt should match decrypt");
+    }
+
+    @Test
+    public void testEmptyFileIsRejected() throws IOException {
+        File blank = new File(testDirectory, "blank.txt");
+        Files.write(blank.toPath(), "   \n ".getBytes());
+        File output = new File(testDirectory, "out.txt");
+
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            CryptoEngine.stream(blank, output, TEST_KEY, false);
+        });
+        assertEquals("Text cannot be null or empty", exception.getMessage());
+        assertFalse(output.exists(), "Partial output should be removed");
+    }
+}
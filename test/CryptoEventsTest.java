@@ -0,0 +1,116 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class CryptoEventsTest {
+
+    private static final int[] KEY = {2, 0, 3, 1};
+
+    @Test
+    public void testCipherEventsCarryTheirFields() throws Exception {
+        List<RecordedEvent> events = record(() -> {
+            String encrypted = Crypto.encrypt("Recorded text\nof 2 lines", KEY);
+            Crypto.decrypt(encrypted, KEY);
+        });
+
+        RecordedEvent encrypt = single(events, "crypto.Encrypt");
+        assertEquals(24, encrypt.getLong("chars"));
+        assertEquals(4, encrypt.getInt("keyLength"));
+        assertEquals(6, encrypt.getInt("rows"), "23 characters without the line break, in rows of 4");
+        assertEquals(Thread.currentThread().getName(), encrypt.getThread().getJavaName());
+        assertFalse(encrypt.getDuration().isNegative());
+
+        RecordedEvent decrypt = single(events, "crypto.Decrypt");
+        assertEquals(25, decrypt.getLong("chars"), "The padded cipher text and its line break");
+        assertEquals(4, decrypt.getInt("keyLength"));
+        assertEquals(6, decrypt.getInt("rows"));
+    }
+
+    @Test
+    public void testFileAndKeyEventsCarryTheirFields() throws Exception {
+        File file = File.createTempFile("events", ".txt");
+        try {
+            List<RecordedEvent> events = record(() -> {
+                Crypto.saveToFile("0123456789", file.getPath());
+                Crypto.readFileContent(file);
+                Crypto.loadEncryptionKey("4\n[2, 0, 3, 1]");
+            });
+
+            RecordedEvent save = single(events, "crypto.SaveFile");
+            assertEquals(file.getPath(), save.getString("path"));
+            assertEquals(10, save.getLong("bytes"));
+
+            RecordedEvent read = single(events, "crypto.ReadFile");
+            assertEquals(file.getPath(), read.getString("path"));
+            assertEquals(10, read.getLong("bytes"));
+
+            RecordedEvent loadKey = single(events, "crypto.LoadKey");
+            assertEquals(14, loadKey.getLong("chars"));
+            assertEquals(4, loadKey.getInt("keyLength"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFailedOperationsAreNotRecorded() throws Exception {
+        List<RecordedEvent> events = record(() -> {
+            assertThrows(IllegalArgumentException.class, () -> Crypto.encrypt("", KEY));
+            assertThrows(IllegalArgumentException.class, () -> Crypto.loadEncryptionKey("[0, 0]"));
+        });
+        assertTrue(events.isEmpty(), "Recorded: " + events);
+    }
+
+    /**
+     * Work done while the Crypto events are recorded
+     */
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    /**
+     * @return the Crypto events the work committed on this thread
+     */
+    private static List<RecordedEvent> record(Work work) throws Exception {
+        Path dump = Files.createTempFile("crypto", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] {"crypto.Encrypt", "crypto.Decrypt", "crypto.ReadFile",
+                    "crypto.SaveFile", "crypto.LoadKey"}) {
+                recording.enable(name);
+            }
+            recording.start();
+            work.run();
+            recording.stop();
+            recording.dump(dump);
+            List<RecordedEvent> events = new ArrayList<>();
+            long thread = Thread.currentThread().getId();
+            for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+                if (event.getThread() != null && event.getThread().getJavaThreadId() == thread) {
+                    events.add(event);
+                }
+            }
+            return events;
+        } finally {
+            Files.deleteIfExists(dump);
+        }
+    }
+
+    private static RecordedEvent single(List<RecordedEvent> events, String name) {
+        RecordedEvent found = null;
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                assertNull(found, "More than one " + name + " event");
+                found = event;
+            }
+        }
+        assertNotNull(found, "No " + name + " event");
+        return found;
+    }
+}
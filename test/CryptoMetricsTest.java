@@ -0,0 +1,140 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class CryptoMetricsTest {
+
+    private static final int[] KEY = {2, 0, 3, 1};
+
+    @Test
+    public void testOperationsAreCounted() throws Exception {
+        CryptoMetrics metrics = CryptoMetrics.get();
+        long encrypts = metrics.getEncryptCount();
+        long decrypts = metrics.getDecryptCount();
+        long charsEncrypted = metrics.getCharsEncrypted();
+        long charsDecrypted = metrics.getCharsDecrypted();
+        long permutes = total(metrics.getLatencyHistograms().get("encrypt.permute"));
+
+        String encrypted = Crypto.encrypt("Metrics test", KEY);
+        Crypto.decrypt(encrypted, KEY);
+
+        assertEquals(encrypts + 1, metrics.getEncryptCount());
+        assertEquals(decrypts + 1, metrics.getDecryptCount());
+        assertEquals(charsEncrypted + 12, metrics.getCharsEncrypted());
+        assertEquals(charsDecrypted + encrypted.length(), metrics.getCharsDecrypted());
+        assertEquals(permutes + 1, total(metrics.getLatencyHistograms().get("encrypt.permute")));
+    }
+
+    @Test
+    public void testBytesAreCounted() throws Exception {
+        CryptoMetrics metrics = CryptoMetrics.get();
+        File file = File.createTempFile("metrics", ".txt");
+        try {
+            long bytesOut = metrics.getBytesOut();
+            Crypto.saveToFile("0123456789", file.getPath());
+            assertEquals(bytesOut + 10, metrics.getBytesOut());
+
+            long bytesIn = metrics.getBytesIn();
+            assertEquals("0123456789", Crypto.readFileContent(file));
+            assertEquals(bytesIn + 10, metrics.getBytesIn());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testErrorsAreCounted() {
+        CryptoMetrics metrics = CryptoMetrics.get();
+        long errors = metrics.getErrorCount();
+        long encrypts = metrics.getEncryptCount();
+
+        assertThrows(IllegalArgumentException.class, () -> Crypto.encrypt("", KEY));
+        assertThrows(IllegalArgumentException.class, () -> Crypto.decrypt("text", new int[] {0, 0}));
+        assertThrows(IllegalArgumentException.class,
+                () -> Crypto.readFileContent(new File("no-such-file-for-metrics.txt")));
+        assertThrows(IllegalArgumentException.class, () -> Crypto.saveToFile(null, "metrics.txt"));
+        assertThrows(IllegalArgumentException.class, () -> Crypto.saveToFile("text", ""));
+        assertThrows(IllegalArgumentException.class, () -> Crypto.loadEncryptionKey(""));
+        assertThrows(IllegalArgumentException.class, () -> Crypto.loadEncryptionKey("[0, 0]"));
+
+        assertEquals(errors + 7, metrics.getErrorCount());
+        assertEquals(encrypts, metrics.getEncryptCount(), "Failed calls are not counted as done");
+    }
+
+    @Test
+    public void testPublishedAsMBean() throws Exception {
+        CryptoMetrics metrics = CryptoMetrics.get();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("Crypto:type=Metrics");
+        assertTrue(server.isRegistered(name));
+
+        long before = (Long) server.getAttribute(name, "EncryptCount");
+        Crypto.encrypt("Seen over JMX", KEY);
+        assertEquals(before + 1, (long) (Long) server.getAttribute(name, "EncryptCount"));
+        assertEquals(metrics.getEncryptCount(), (long) (Long) server.getAttribute(name, "EncryptCount"));
+    }
+
+    @Test
+    public void testCanBeTurnedOff() throws Exception {
+        // The switch is read once per class, so a fresh copy of the class is loaded with it set
+        List<URL> urls = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            urls.add(Paths.get(entry).toUri().toURL());
+        }
+        String previous = System.setProperty("crypto.metrics", "false");
+        try (URLClassLoader loader = new URLClassLoader(urls.toArray(new URL[0]),
+                ClassLoader.getPlatformClassLoader())) {
+            Class<?> type = Class.forName("CryptoMetrics", true, loader);
+            assertNotSame(CryptoMetrics.class, type);
+            Field enabled = type.getDeclaredField("ENABLED");
+            enabled.setAccessible(true);
+            assertFalse(enabled.getBoolean(null));
+
+            Object metrics = call(type, null, "get");
+            call(type, metrics, "encrypted", 100);
+            assertEquals(0L, call(type, null, "now"), "No clock reads when turned off");
+            assertEquals(0L, call(type, metrics, "getEncryptCount"));
+            assertEquals(0L, call(type, metrics, "getCharsEncrypted"));
+        } finally {
+            if (previous == null) {
+                System.clearProperty("crypto.metrics");
+            } else {
+                System.setProperty("crypto.metrics", previous);
+            }
+        }
+        assertTrue(CryptoMetrics.ENABLED, "The loaded class is not affected");
+    }
+
+    /**
+     * Calls a method of a class from another loader, which the package does not share
+     */
+    private static Object call(Class<?> type, Object target, String name, int... args) throws Exception {
+        Class<?>[] parameters = new Class<?>[args.length];
+        Object[] values = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            parameters[i] = int.class;
+            values[i] = args[i];
+        }
+        Method method = type.getDeclaredMethod(name, parameters);
+        method.setAccessible(true);
+        return method.invoke(target, values);
+    }
+
+    private static long total(long[] histogram) {
+        long sum = 0;
+        for (long count : histogram) {
+            sum += count;
+        }
+        return sum;
+    }
+}
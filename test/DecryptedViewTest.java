@@ -0,0 +1,61 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.Random;
+
+public class DecryptedViewTest {
+
+    @Test
+    public void testMatchesDecrypt() {
+        Random random = new Random(42);
+        String alphabet = "abc xyz\n\r\t";
+        for (int round = 0; round < 500; round++) {
+            int[] key = Crypto.generateDynamicKey(1 + random.nextInt(9));
+            StringBuilder text = new StringBuilder("x");
+            int length = random.nextInt(200);
+            for (int i = 0; i < length; i++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String encrypted = Crypto.encrypt(text.toString(), key);
+            String expected;
+            try {
+                expected = Crypto.decrypt(encrypted, key);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            DecryptedView view = new DecryptedView(encrypted, key);
+            assertEquals(expected, view.toString(), "Round " + round);
+            assertEquals(expected.length(), view.length());
+        }
+    }
+
+    @Test
+    public void testCharAtAndSubSequence() {
+        int[] key = {4, 2, 0, 3, 1};
+        String plain = "The quick brown fox\njumps over\r\nthe lazy dog";
+        String expected = Crypto.decrypt(Crypto.encrypt(plain, key), key);
+        DecryptedView view = new DecryptedView(Crypto.encrypt(plain, key), key);
+        for (int i = 0; i < expected.length(); i++) {
+            assertEquals(expected.charAt(i), view.charAt(i), "Index " + i);
+        }
+        CharSequence words = view.subSequence(4, 25);
+        assertEquals(expected.substring(4, 25), words.toString());
+        assertEquals(expected.substring(10, 15), words.subSequence(6, 11).toString());
+        assertEquals(expected.indexOf("lazy"), view.toString().indexOf("lazy"));
+        assertThrows(IndexOutOfBoundsException.class, () -> view.charAt(view.length()));
+        assertThrows(IndexOutOfBoundsException.class, () -> view.subSequence(3, 2));
+    }
+
+    @Test
+    public void testLargeDocumentIsReadLazily() {
+        int[] key = Crypto.generateDynamicKey(16);
+        StringBuilder plain = new StringBuilder();
+        while (plain.length() < 4 * 1024 * 1024) {
+            plain.append("record ").append(plain.length()).append(";\n");
+        }
+        String encrypted = Crypto.encrypt(plain.toString(), key);
+        DecryptedView view = new DecryptedView(encrypted, key);
+        int middle = plain.length() / 2;
+        assertEquals(plain.substring(middle, middle + 100), view.subSequence(middle, middle + 100).toString());
+        assertTrue(java.util.regex.Pattern.compile("record 2097\\d+;").matcher(view).find());
+    }
+}
@@ -0,0 +1,97 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class DropFolderWatcherTest {
+
+    private static final int[] KEY = {2, 0, 1};
+    private static final long QUIET_MILLIS = 300;
+
+    private Path root;
+    private Path inbox;
+    private Path outbox;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("dropfolder");
+        inbox = Files.createDirectory(root.resolve("in"));
+        outbox = root.resolve("out");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testDroppedFilesAreEncryptedAndRemoved() throws Exception {
+        Files.writeString(inbox.resolve("before.txt"), "Already there before the watcher started");
+        try (DropFolderWatcher watcher = new DropFolderWatcher(inbox, outbox, KEY, 2, 4, QUIET_MILLIS)) {
+            watcher.start();
+            for (int i = 0; i < 5; i++) {
+                Files.writeString(inbox.resolve("file" + i + ".txt"), "Payload number " + i);
+            }
+            awaitProcessed(watcher, 6);
+
+            assertEquals(0, watcher.getFailedFiles());
+            assertEquals(0, watcher.getBacklog());
+            assertTrue(watcher.getMeanLatencyMillis() >= QUIET_MILLIS);
+            assertTrue(watcher.getFilesPerSecond() > 0);
+        }
+        for (int i = 0; i < 5; i++) {
+            assertFalse(Files.exists(inbox.resolve("file" + i + ".txt")));
+            assertEquals("Payload number " + i, decrypt(outbox.resolve("encrypted_file" + i + ".txt")));
+        }
+        assertEquals("Already there before the watcher started", decrypt(outbox.resolve("encrypted_before.txt")));
+        try (Stream<Path> left = Files.list(outbox)) {
+            assertTrue(left.noneMatch(path -> path.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    public void testFileStillBeingWrittenIsNotPickedUp() throws Exception {
+        Path file = inbox.resolve("slow.txt");
+        try (DropFolderWatcher watcher = new DropFolderWatcher(inbox, outbox, KEY, 1, 1, QUIET_MILLIS)) {
+            watcher.start();
+            StringBuilder expected = new StringBuilder();
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                for (int i = 0; i < 6; i++) {
+                    String part = "part " + i + " ";
+                    writer.write(part);
+                    writer.flush();
+                    expected.append(part);
+                    Thread.sleep(QUIET_MILLIS / 3);
+                    assertEquals(0, watcher.getProcessedFiles(), "Picked up while still growing");
+                }
+            }
+            awaitProcessed(watcher, 1);
+            assertEquals(expected.toString().trim(), decrypt(outbox.resolve("encrypted_slow.txt")));
+        }
+    }
+
+    @Test
+    public void testRejectsOutputInsideTheInbox() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new DropFolderWatcher(inbox, inbox, KEY, 1, 1, QUIET_MILLIS));
+    }
+
+    private static void awaitProcessed(DropFolderWatcher watcher, long files) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (watcher.getProcessedFiles() + watcher.getFailedFiles() < files) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out, processed " + watcher.getProcessedFiles());
+            Thread.sleep(20);
+        }
+    }
+
+    private static String decrypt(Path file) throws IOException {
+        return Crypto.decrypt(Crypto.readFileContent(file.toFile()), KEY);
+    }
+}
@@ -0,0 +1,136 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+public class InPlaceTransposerTest {
+
+    private static final int[] TEST_KEY = {3, 0, 4, 1, 2};
+
+    @Test
+    public void testCyclesCoverEveryMovedPosition() {
+        // 0 -> 3 -> 1 -> 0 and 2 -> 4 -> 2
+        assertArrayEquals(new int[] {3, 0, 3, 1, 2, 2, 4}, InPlaceTransposer.cycles(TEST_KEY));
+        assertEquals(0, InPlaceTransposer.cycles(new int[] {0, 1, 2}).length, "Identity has no cycles");
+    }
+
+    @Test
+    public void testMatchesStreamingOutputForEveryLength() throws IOException {
+        Random random = new Random(3);
+        for (int length = 0; length <= 23; length++) {
+            byte[] input = new byte[length];
+            random.nextBytes(input);
+            byte[] expected = stream(input, false);
+
+            byte[] data = input.clone();
+            new InPlaceTransposer(TEST_KEY, false).transform(data, 0, data.length);
+            assertArrayEquals(expected, data, "Encrypt of " + length + " bytes");
+
+            new InPlaceTransposer(TEST_KEY, true).transform(data, 0, data.length);
+            assertArrayEquals(input, data, "Round trip of " + length + " bytes");
+        }
+    }
+
+    @Test
+    public void testCharRowsMatchCrypto() {
+        int[] key = Crypto.generateDynamicKey(16);
+        char[] text = "Whole rows of padded text without line breaks....".toCharArray();
+        char[] padded = Arrays.copyOf(text, (text.length + 15) / 16 * 16);
+        Arrays.fill(padded, text.length, padded.length, ' ');
+
+        new InPlaceTransposer(key, false).transform(padded, 0, padded.length);
+        assertEquals(Crypto.encrypt(new String(text), key), new String(padded));
+    }
+
+    @Test
+    public void testByteBufferLeavesPositionAndOtherBytesAlone() throws IOException {
+        byte[] input = new byte[64];
+        new Random(5).nextBytes(input);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(70);
+        buffer.position(3);
+        buffer.put(input);
+        buffer.position(3).limit(67);
+
+        new InPlaceTransposer(TEST_KEY, false).transform(buffer);
+        assertEquals(3, buffer.position());
+        assertEquals(67, buffer.limit());
+        byte[] result = new byte[64];
+        buffer.get(result);
+        assertArrayEquals(stream(input, false), result);
+    }
+
+    @Test
+    public void testFileWindowsMatchStreamingOutput() throws IOException {
+        File file = File.createTempFile("inplace", ".bin");
+        try {
+            byte[] input = new byte[100_003];
+            new Random(9).nextBytes(input);
+            Files.write(file.toPath(), input);
+
+            assertEquals(input.length, InPlaceTransposer.transformFile(file, TEST_KEY, false, 4096));
+            assertArrayEquals(stream(input, false), Files.readAllBytes(file.toPath()));
+
+            InPlaceTransposer.transformFile(file, TEST_KEY, true, 1000);
+            assertArrayEquals(input, Files.readAllBytes(file.toPath()));
+        } finally {
+            file.delete();
+            ChunkChecksums.sidecar(file).delete();
+        }
+    }
+
+    @Test
+    public void testChecksumFileFollowsTheContent() throws IOException {
+        File file = File.createTempFile("inplace", ".bin");
+        File sidecar = ChunkChecksums.sidecar(file);
+        try {
+            byte[] input = new byte[10_000];
+            new Random(3).nextBytes(input);
+            Files.write(file.toPath(), input);
+
+            InPlaceTransposer.transformFile(file, TEST_KEY, false, 4096);
+            assertTrue(ChunkChecksums.verify(file).ok(), ChunkChecksums.verify(file).toString());
+            assertFalse(InPlaceTransposer.marker(file).exists(), "A finished run removes its marker");
+
+            InPlaceTransposer.transformFile(file, TEST_KEY, true, 4096);
+            assertFalse(sidecar.exists(), "The plain file has no checksums to match");
+        } finally {
+            file.delete();
+            sidecar.delete();
+        }
+    }
+
+    @Test
+    public void testInterruptedRunIsRefused() throws IOException {
+        File file = File.createTempFile("inplace", ".bin");
+        File marker = InPlaceTransposer.marker(file);
+        try {
+            byte[] input = new byte[1000];
+            Files.write(file.toPath(), input);
+            Files.write(marker.toPath(), "encrypt 500\n".getBytes());
+
+            IOException exception = assertThrows(IOException.class,
+                    () -> InPlaceTransposer.transformFile(file, TEST_KEY, true));
+            assertTrue(exception.getMessage().contains("got through 500 bytes"), exception.getMessage());
+            assertArrayEquals(input, Files.readAllBytes(file.toPath()), "The file is left alone");
+
+            marker.delete();
+            InPlaceTransposer.transformFile(file, TEST_KEY, false);
+            assertFalse(marker.exists());
+        } finally {
+            file.delete();
+            marker.delete();
+            ChunkChecksums.sidecar(file).delete();
+        }
+    }
+
+    private static byte[] stream(byte[] input, boolean decrypt) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TranspositionOutputStream stream = new TranspositionOutputStream(out, TEST_KEY, decrypt)) {
+            stream.write(input);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,127 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.Arrays;
+
+public class IncrementalEncryptorTest {
+
+    private static final int[] TEST_KEY = {4, 2, 0, 3, 1};
+    private static final int CHUNK_ROWS = 20; // 100 characters per chunk
+
+    private File testDirectory;
+    private File inputFile;
+    private File outputFile;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        testDirectory = Files.createTempDirectory("incremental_test").toFile();
+        inputFile = new File(testDirectory, "document.txt");
+        outputFile = new File(testDirectory, "encrypted_document.txt");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        File[] files = testDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        testDirectory.delete();
+    }
+
+    @Test
+    public void testFirstRunMatchesFullEncrypt() throws IOException {
+        writeInput(document(50));
+        IncrementalEncryptor.Result result = new IncrementalEncryptor(TEST_KEY, CHUNK_ROWS).encrypt(inputFile, outputFile);
+
+        assertEquals(result.chunks, result.rewrittenChunks, "First run writes every chunk");
+        assertArrayEquals(fullEncrypt(), Files.readAllBytes(outputFile.toPath()));
+        assertTrue(new File(outputFile.getPath() + IncrementalEncryptor.MANIFEST_SUFFIX).exists());
+    }
+
+    @Test
+    public void testAppendRewritesOnlyTheTail() throws IOException {
+        writeInput(document(50));
+        new IncrementalEncryptor(TEST_KEY, CHUNK_ROWS).encrypt(inputFile, outputFile);
+
+        writeInput(document(55));
+        IncrementalEncryptor.Result result = new IncrementalEncryptor(TEST_KEY, CHUNK_ROWS).encrypt(inputFile, outputFile);
+
+        assertTrue(result.rewrittenChunks <= 4, "Only the old last chunk and new chunks should change: " + result);
+        assertArrayEquals(fullEncrypt(), Files.readAllBytes(outputFile.toPath()));
+    }
+
+    @Test
+    public void testEditInTheMiddle() throws IOException {
+        String original = document(50);
+        writeInput(original);
+        new IncrementalEncryptor(TEST_KEY, CHUNK_ROWS).encrypt(inputFile, outputFile);
+
+        int middle = original.length() / 2;
+        writeInput(original.substring(0, middle) + "X" + original.substring(middle + 1));
+        IncrementalEncryptor.Result result = new IncrementalEncryptor(TEST_KEY, CHUNK_ROWS).encrypt(inputFile, outputFile);
+
+        assertEquals(2, result.rewrittenChunks, "The edited chunk and the final chunk are rewritten");
+        assertArrayEquals(fullEncrypt(), Files.readAllBytes(outputFile.toPath()));
+    }
+
+    @Test
+    public void testShrinkingAndKeyChange() throws IOException {
+        writeInput(document(50));
+        new IncrementalEncryptor(TEST_KEY, CHUNK_ROWS).encrypt(inputFile, outputFile);
+
+        writeInput(document(20));
+        new IncrementalEncryptor(TEST_KEY, CHUNK_ROWS).encrypt(inputFile, outputFile);
+        assertArrayEquals(fullEncrypt(), Files.readAllBytes(outputFile.toPath()), "Output should be truncated");
+
+        int[] otherKey = {1, 0, 2};
+        IncrementalEncryptor.Result result = new IncrementalEncryptor(otherKey, CHUNK_ROWS).encrypt(inputFile, outputFile);
+        assertEquals(result.chunks, result.rewrittenChunks, "A new key rewrites everything");
+        Crypto.saveToFile(Crypto.encrypt(Crypto.readFileContent(inputFile), otherKey),
+                new File(testDirectory, "expected.txt").getPath());
+        assertArrayEquals(Files.readAllBytes(new File(testDirectory, "expected.txt").toPath()),
+                Files.readAllBytes(outputFile.toPath()));
+    }
+
+    @Test
+    public void testChecksumFileFollowsTheRewrittenOutput() throws IOException {
+        File keyFile = new File(testDirectory, "key.txt");
+        KeyFiles.writeText(TEST_KEY, keyFile);
+        String original = document(50);
+        writeInput(original);
+        assertEquals(0, Crypto.runIncremental(Arrays.asList(inputFile.getPath(), outputFile.getPath(),
+                keyFile.getPath())));
+        ChunkChecksums.write(outputFile, 64);
+
+        writeInput(original.substring(0, 10) + "X" + original.substring(11));
+        assertEquals(0, Crypto.runIncremental(Arrays.asList(inputFile.getPath(), outputFile.getPath(),
+                keyFile.getPath())));
+        assertArrayEquals(fullEncrypt(), Files.readAllBytes(outputFile.toPath()));
+        ChunkChecksums.Report report = ChunkChecksums.verify(outputFile);
+        assertTrue(report.ok(), report.toString());
+
+        assertEquals(2, Crypto.runIncremental(Arrays.asList(inputFile.getPath(), outputFile.getPath())));
+    }
+
+    private String document(int lines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            text.append("Entry ").append(i).append(": appended log line with some text\n");
+        }
+        return text.toString();
+    }
+
+    private void writeInput(String text) throws IOException {
+        Files.write(inputFile.toPath(), text.getBytes());
+    }
+
+    private byte[] fullEncrypt() throws IOException {
+        File expected = new File(testDirectory, "expected.txt");
+        Crypto.saveToFile(Crypto.encrypt(Crypto.readFileContent(inputFile), TEST_KEY), expected.getPath());
+        return Files.readAllBytes(expected.toPath());
+    }
+}
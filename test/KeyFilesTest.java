@@ -0,0 +1,125 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class KeyFilesTest {
+
+    private File dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("keyfiles").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testParsesEveryTextForm() {
+        int[] expected = {2, 0, 1};
+        assertArrayEquals(expected, KeyFiles.parse("[2, 0, 1]"));
+        assertArrayEquals(expected, KeyFiles.parse("2,0,1"));
+        assertArrayEquals(expected, KeyFiles.parse("  [ 2 ,0,\t1 ]\n"));
+        assertArrayEquals(expected, KeyFiles.parse("3\n[2, 0, 1]"));
+        assertArrayEquals(expected, KeyFiles.parse("3\r\n2, 0, 1"));
+        assertArrayEquals(new int[]{0}, KeyFiles.parse("[0]"));
+    }
+
+    @Test
+    public void testRejectsMalformedText() {
+        for (String text : new String[]{"[2, a, 1]", "[2, 0, 1", "[]", "2,,0", "[2, 0] 1", "99999999999"}) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> KeyFiles.parse(text));
+            assertTrue(e.getMessage().startsWith("Invalid key format"), text + ": " + e.getMessage());
+        }
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> KeyFiles.parse("4\n[2, 0, 1]"));
+        assertEquals("Invalid key format: key size is 4 but 3 values were given", e.getMessage());
+    }
+
+    @Test
+    public void testValidatesPermutationWhileReading() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> KeyFiles.parse("[3, 1, 2]"));
+        assertEquals("Invalid key: values must be between 0 and 2", e.getMessage());
+        e = assertThrows(IllegalArgumentException.class, () -> KeyFiles.parse("3\n[1, 1, 2]"));
+        assertEquals("Invalid key: key contains duplicate values.", e.getMessage());
+        e = assertThrows(IllegalArgumentException.class, () -> KeyFiles.parse("[-1, 0]"));
+        assertEquals("Invalid key: values must be between 0 and 1", e.getMessage());
+    }
+
+    @Test
+    public void testDeclaredSizeIsNotTrustedForAllocation() throws IOException {
+        // Would need gigabytes if the size line were allocated up front
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> KeyFiles.parse("2000000000\n[0]"));
+        assertEquals("Invalid key format: key size is 2000000000 but 1 values were given", e.getMessage());
+        e = assertThrows(IllegalArgumentException.class, () -> KeyFiles.parse("2000000000\n[1999999999, 7]"));
+        assertTrue(e.getMessage().startsWith("Invalid key format"), e.getMessage());
+
+        File file = File.createTempFile("huge", ".key");
+        try {
+            Files.writeString(file.toPath(), "2147483647\n[0, 1]");
+            assertThrows(IllegalArgumentException.class, () -> KeyFiles.load(file));
+        } finally {
+            file.delete();
+        }
+
+        // Values past the first array growth are still checked for duplicates
+        StringBuilder text = new StringBuilder("40\n[");
+        for (int i = 0; i < 40; i++) {
+            text.append(i == 39 ? 30 : 39 - i).append(i < 39 ? ", " : "]");
+        }
+        e = assertThrows(IllegalArgumentException.class, () -> KeyFiles.parse(text.toString()));
+        assertEquals("Invalid key: key contains duplicate values.", e.getMessage());
+    }
+
+    @Test
+    public void testLargeTextKeyRoundTrip() throws IOException {
+        int[] key = Crypto.generateDynamicKey(500_000);
+        File file = new File(dir, "key.txt");
+        KeyFiles.writeText(key, file);
+        assertFalse(KeyFiles.isBinary(file));
+        assertArrayEquals(key, KeyFiles.load(file));
+        assertArrayEquals(key, Crypto.loadEncryptionKey(Arrays.toString(key)));
+    }
+
+    @Test
+    public void testBinaryRoundTripAndMapping() throws IOException {
+        int[] key = Crypto.generateDynamicKey(100_000);
+        File file = new File(dir, "key.bin");
+        KeyFiles.writeBinary(key, file);
+        assertEquals(KeyFiles.HEADER_SIZE + 4L * key.length, file.length());
+        assertTrue(KeyFiles.isBinary(file));
+        assertArrayEquals(key, KeyFiles.load(file));
+
+        IntBuffer mapped = KeyFiles.map(file);
+        assertTrue(mapped.isReadOnly());
+        assertEquals(key.length, mapped.remaining());
+        assertEquals(key[12345], mapped.get(12345));
+    }
+
+    @Test
+    public void testBinaryCorruptionIsDetected() throws IOException {
+        File file = new File(dir, "key.bin");
+        KeyFiles.writeBinary(new int[]{3, 1, 4, 0, 2}, file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        bytes[KeyFiles.HEADER_SIZE + 3] ^= 1;
+        Files.write(file.toPath(), bytes);
+        IOException e = assertThrows(IOException.class, () -> KeyFiles.load(file));
+        assertTrue(e.getMessage().contains("checksum"));
+
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 2));
+        e = assertThrows(IOException.class, () -> KeyFiles.load(file));
+        assertTrue(e.getMessage().contains("truncated"));
+    }
+}
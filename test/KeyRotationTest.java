@@ -0,0 +1,126 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class KeyRotationTest {
+
+    private static final int[] OLD_KEY = {2, 0, 3, 1};
+    private static final int[] NEW_KEY = {1, 3, 0, 2};
+
+    private static final String[] TEXTS = {
+        "Short",
+        "Exactly twelve chars",
+        "Several lines\nof text that\n\ndo not fill\nthe last row",
+        "Windows\r\nline breaks\r\nand tabs\tinside",
+    };
+
+    private File dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("rekey").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testComposedOrderMatchesDecryptThenEncrypt() {
+        int[] order = KeyRotation.compose(OLD_KEY, NEW_KEY);
+        String plain = "abcdefgh";
+        String encrypted = Crypto.encrypt(plain, OLD_KEY);
+        StringBuilder rekeyed = new StringBuilder();
+        for (int row = 0; row < encrypted.length(); row += order.length) {
+            for (int j = 0; j < order.length; j++) {
+                rekeyed.append(encrypted.charAt(row + order[j]));
+            }
+        }
+        assertEquals(Crypto.encrypt(plain, NEW_KEY), rekeyed.toString());
+        assertThrows(IllegalArgumentException.class, () -> KeyRotation.compose(OLD_KEY, new int[] {1, 0}));
+    }
+
+    @Test
+    public void testFileMatchesTwoStepRotation() throws IOException {
+        int[] longerKey = {4, 2, 0, 3, 1};
+        for (int[] newKey : List.of(NEW_KEY, longerKey)) {
+            for (String text : TEXTS) {
+                File encrypted = encryptedFile(text);
+                File decrypted = new File(dir, "decrypted.txt");
+                File expected = new File(dir, "expected.txt");
+                CryptoEngine.stream(encrypted, decrypted, OLD_KEY, true);
+                CryptoEngine.stream(decrypted, expected, newKey, false);
+
+                File rekeyed = new File(dir, "rekeyed.txt");
+                KeyRotation.rekeyFile(encrypted, rekeyed, OLD_KEY, newKey);
+                assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(rekeyed.toPath()),
+                        "Key length " + newKey.length + ": " + text);
+                assertEquals(Crypto.decrypt(Crypto.readFileContent(encrypted), OLD_KEY),
+                        Crypto.decrypt(Crypto.readFileContent(rekeyed), newKey));
+            }
+        }
+    }
+
+    @Test
+    public void testDirectoryIsRekeyedWithChecksums() throws Exception {
+        File first = encryptedFile("First file\nof the archive");
+        File second = new File(dir, "encrypted_second.txt");
+        Crypto.saveToFile(Crypto.encrypt("Second file", OLD_KEY), second.getPath());
+        ChunkChecksums.write(first);
+
+        List<KeyRotation.Outcome> outcomes = KeyRotation.rekeyAll(
+                Arrays.asList(first, second, new File(dir, "missing")), OLD_KEY, NEW_KEY, 2);
+        assertTrue(outcomes.get(0).ok());
+        assertTrue(outcomes.get(1).ok());
+        assertFalse(outcomes.get(2).ok());
+
+        assertEquals("First file\nof the archive", Crypto.decrypt(Crypto.readFileContent(first), NEW_KEY));
+        assertEquals("Second file", Crypto.decrypt(Crypto.readFileContent(second), NEW_KEY));
+        assertTrue(ChunkChecksums.verify(first).ok(), "Checksums follow the new content");
+        assertFalse(ChunkChecksums.sidecar(second).exists(), "No checksum file is created");
+        assertEquals(3, dir.listFiles().length, "No temporary files are left");
+    }
+
+    @Test
+    public void testBinaryJobOutputIsRefused() throws Exception {
+        File file = new File(dir, CheckpointedJob.OUTPUT_PREFIX + "data.bin");
+        byte[] bytes = "Binary transposition".getBytes();
+        Files.write(file.toPath(), bytes);
+
+        List<KeyRotation.Outcome> outcomes = KeyRotation.rekeyAll(Arrays.asList(file), OLD_KEY, NEW_KEY, 1);
+        assertFalse(outcomes.get(0).ok());
+        assertArrayEquals(bytes, Files.readAllBytes(file.toPath()), "The file is left as it was");
+        assertEquals(1, dir.listFiles().length, "No temporary files are left");
+    }
+
+    @Test
+    public void testBinaryContentIsRefusedWhateverItsName() throws Exception {
+        // What --shard, --zip or --in-place write when told to call it encrypted_*
+        File file = new File(dir, "encrypted_archive.bin");
+        byte[] bytes = new byte[4096];
+        new Random(8).nextBytes(bytes);
+        Files.write(file.toPath(), bytes);
+
+        List<KeyRotation.Outcome> outcomes = KeyRotation.rekeyAll(Arrays.asList(file), OLD_KEY, NEW_KEY, 1);
+        assertFalse(outcomes.get(0).ok());
+        assertTrue(outcomes.get(0).error.contains("binary content cannot be rekeyed"), outcomes.get(0).error);
+        assertArrayEquals(bytes, Files.readAllBytes(file.toPath()), "The file is left as it was");
+        assertEquals(1, dir.listFiles().length, "No temporary files are left");
+    }
+
+    private File encryptedFile(String text) throws IOException {
+        File file = new File(dir, "encrypted_text.txt");
+        Crypto.saveToFile(Crypto.encrypt(text, OLD_KEY), file.getPath());
+        return file;
+    }
+}
@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class LineTransposerTest {
+
+    private static final int[] KEY = {2, 0, 3, 1};
+
+    @Test
+    public void testEachLineIsPaddedAndPermutedOnItsOwn() {
+        String encrypted = LineTransposer.encrypt("abcdef\n\nxy\r\nwxyz", KEY);
+        assertEquals("cadb e f\n\n x y\r\nywzx", encrypted);
+        assertEquals("abcdef\n\nxy\r\nwxyz", LineTransposer.decrypt(encrypted, KEY));
+    }
+
+    @Test
+    public void testSingleLineDecryptsWithoutTheRest() {
+        String[] lines = {"first line of the log", "second", "", "the third one"};
+        String encrypted = LineTransposer.encrypt(String.join("\n", lines), KEY);
+        String[] encryptedLines = encrypted.split("\n", -1);
+        assertEquals(lines.length, encryptedLines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(lines[i], LineTransposer.decryptLine(encryptedLines[i], KEY));
+        }
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        int[] key = Crypto.generateDynamicKey(7);
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(7);
+        while (text.length() < 3 * LineTransposer.PARALLEL_THRESHOLD) {
+            int length = random.nextInt(200);
+            for (int i = 0; i < length; i++) {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+            text.append(random.nextInt(10) == 0 ? "\r\n" : "\n");
+        }
+        text.append("tail without a break");
+        String plain = text.toString();
+
+        String encrypted = LineTransposer.encrypt(plain, key);
+        String[] plainLines = plain.split("\r?\n", -1);
+        String[] encryptedLines = encrypted.split("\r?\n", -1);
+        assertEquals(plainLines.length, encryptedLines.length);
+        for (int i = 0; i < plainLines.length; i += 97) {
+            assertEquals((plainLines[i].length() + 6) / 7 * 7, encryptedLines[i].length());
+            assertEquals(plainLines[i], LineTransposer.decryptLine(encryptedLines[i], key));
+        }
+        assertEquals(plain, LineTransposer.decrypt(encrypted, key));
+    }
+
+    @Test
+    public void testRejectsLinesThatWereNotLineEncrypted() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> LineTransposer.decrypt("abcd\nabc", KEY));
+        assertEquals("Line 2 has length 3, not a multiple of the key size 4", e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> LineTransposer.encrypt("", KEY));
+    }
+
+    @Test
+    public void testFileMatchesInMemory() throws IOException {
+        File dir = Files.createTempDirectory("lines").toFile();
+        File plain = new File(dir, "plain.log");
+        File encrypted = new File(dir, "encrypted.log");
+        File decrypted = new File(dir, "decrypted.log");
+        try {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 20000; i++) {
+                text.append("2024-01-01 request ").append(i).append(" took ").append(i % 97).append(" ms\n");
+            }
+            Files.writeString(plain.toPath(), text, StandardCharsets.UTF_8);
+
+            LineTransposer.transformFile(plain, encrypted, KEY, false);
+            assertEquals(LineTransposer.encrypt(text.toString(), KEY),
+                    Files.readString(encrypted.toPath(), StandardCharsets.UTF_8));
+            LineTransposer.transformFile(encrypted, decrypted, KEY, true);
+            assertEquals(text.toString(), Files.readString(decrypted.toPath(), StandardCharsets.UTF_8));
+        } finally {
+            plain.delete();
+            encrypted.delete();
+            decrypted.delete();
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ShardedEncryptionTest {
+
+    private static final int[] KEY = {4, 1, 6, 0, 3, 5, 2};
+
+    private File dir;
+    private File input;
+    private byte[] plain;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("sharded").toFile();
+        input = new File(dir, "input.bin");
+        plain = new byte[3 * 1024 * 1024 + 5];
+        new Random(1).nextBytes(plain);
+        Files.write(input.toPath(), plain);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testShardsAreRowAligned() {
+        List<ShardedEncryption.Shard> shards = ShardedEncryption.split(100, 7, 3);
+        assertEquals(3, shards.size());
+        long next = 0;
+        for (ShardedEncryption.Shard shard : shards) {
+            assertEquals(next, shard.offset);
+            assertEquals(0, shard.offset % 7);
+            next += shard.length;
+        }
+        assertEquals(100, next);
+        assertEquals(1, ShardedEncryption.split(5, 7, 4).size());
+    }
+
+    @Test
+    public void testMatchesStreamingOutput() throws Exception {
+        File encrypted = new File(dir, "encrypted.bin");
+        File decrypted = new File(dir, "decrypted.bin");
+        ShardedEncryption coordinator = new ShardedEncryption(
+                new ShardedEncryption.LocalLauncher(Collections.emptyList()), 3, 1);
+        assertEquals(3, coordinator.run(input, encrypted, KEY, false).size());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (TranspositionOutputStream out = new TranspositionOutputStream(expected, KEY, false)) {
+            out.write(plain);
+        }
+        assertArrayEquals(expected.toByteArray(), Files.readAllBytes(encrypted.toPath()));
+        assertTrue(ChunkChecksums.verify(encrypted).ok(), "Checksum file from the shard reports");
+
+        coordinator.run(encrypted, decrypted, KEY, true);
+        assertArrayEquals(plain, Files.readAllBytes(decrypted.toPath()));
+    }
+
+    @Test
+    public void testFailedShardIsRetried() throws Exception {
+        AtomicInteger launches = new AtomicInteger();
+        ShardedEncryption.Launcher local = new ShardedEncryption.LocalLauncher(Collections.emptyList());
+        ShardedEncryption.Launcher flaky = args -> {
+            if (launches.getAndIncrement() == 1) {
+                // The second worker dies before doing anything
+                return local.launch(Arrays.asList("encrypt"));
+            }
+            return local.launch(args);
+        };
+        File encrypted = new File(dir, "encrypted.bin");
+        List<ShardedEncryption.Shard> shards = new ShardedEncryption(flaky, 2, 2).run(input, encrypted, KEY, false);
+        assertEquals(3, launches.get());
+        assertEquals(2, shards.get(1).attempts);
+        assertNull(shards.get(1).failure);
+
+        File decrypted = new File(dir, "decrypted.bin");
+        new ShardedEncryption(local, 2, 1).run(encrypted, decrypted, KEY, true);
+        assertArrayEquals(plain, Files.readAllBytes(decrypted.toPath()));
+    }
+
+    @Test
+    public void testGivesUpAfterTheLastAttempt() {
+        ShardedEncryption.Launcher broken = args ->
+                new ShardedEncryption.LocalLauncher(Collections.emptyList()).launch(Arrays.asList("nonsense"));
+        IOException e = assertThrows(IOException.class,
+                () -> new ShardedEncryption(broken, 2, 2).run(input, new File(dir, "out.bin"), KEY, false));
+        assertTrue(e.getMessage().contains("failed after 2 attempts"), e.getMessage());
+    }
+
+    @Test
+    public void testFailedRunStopsItsWorkersAndRemovesTheKey() throws Exception {
+        CountDownLatch destroyed = new CountDownLatch(1);
+        List<String> keyPaths = new ArrayList<>();
+        Process hanging = new Process() {
+            @Override
+            public OutputStream getOutputStream() {
+                return OutputStream.nullOutputStream();
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                return InputStream.nullInputStream();
+            }
+
+            @Override
+            public InputStream getErrorStream() {
+                return InputStream.nullInputStream();
+            }
+
+            @Override
+            public int waitFor() throws InterruptedException {
+                destroyed.await();
+                return 137;
+            }
+
+            @Override
+            public int exitValue() {
+                return 137;
+            }
+
+            @Override
+            public void destroy() {
+                destroyed.countDown();
+            }
+        };
+        List<String> permissions = new ArrayList<>();
+        ShardedEncryption.Launcher failing = args -> {
+            keyPaths.add(args.get(3));
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                permissions.add(PosixFilePermissions.toString(
+                        Files.getPosixFilePermissions(new File(args.get(3)).toPath())));
+            }
+            if (keyPaths.size() == 1) {
+                return hanging;
+            }
+            throw new IOException("cannot start worker");
+        };
+        assertThrows(IOException.class,
+                () -> new ShardedEncryption(failing, 2, 1).run(input, new File(dir, "out.bin"), KEY, false));
+        assertEquals(0, destroyed.getCount(), "The started worker is killed");
+
+        File keyFile = new File(keyPaths.get(0));
+        assertEquals(new File(System.getProperty("java.io.tmpdir")).getCanonicalFile(),
+                keyFile.getParentFile().getCanonicalFile(), "The key is not written next to the output");
+        assertFalse(keyFile.exists());
+        for (String permission : permissions) {
+            assertEquals("rw-------", permission);
+        }
+    }
+}
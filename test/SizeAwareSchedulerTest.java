@@ -0,0 +1,136 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SizeAwareSchedulerTest {
+
+    private static final int[] KEY = {2, 0, 3, 1};
+
+    @Test
+    public void testLanesBySize() {
+        try (SizeAwareScheduler scheduler = new SizeAwareScheduler(1, 100, 1000, 64, new int[]{4, 2, 1})) {
+            assertEquals(SizeAwareScheduler.Lane.SMALL, scheduler.laneFor(100));
+            assertEquals(SizeAwareScheduler.Lane.MEDIUM, scheduler.laneFor(101));
+            assertEquals(SizeAwareScheduler.Lane.LARGE, scheduler.laneFor(1001));
+        }
+    }
+
+    @Test
+    public void testSmallJobsOvertakeALargeFile() throws Exception {
+        File dir = Files.createTempDirectory("scheduler").toFile();
+        File input = new File(dir, "large.bin");
+        File output = new File(dir, "large.enc");
+        byte[] plain = new byte[8 * 1024 * 1024];
+        new Random(3).nextBytes(plain);
+        Files.write(input.toPath(), plain);
+        try {
+            SizeAwareScheduler scheduler = new SizeAwareScheduler(1, 1024, 1024 * 1024, 512 * 1024,
+                    SizeAwareScheduler.DEFAULT_WEIGHTS);
+            try (scheduler) {
+                CompletableFuture<File> large = scheduler.submitFile(input, output, KEY, false);
+                List<CompletableFuture<String>> small = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    small.add(scheduler.submitText("small request " + i, KEY, false));
+                }
+                CompletableFuture<Boolean> smallDoneFirst = large.thenApply(
+                        file -> small.stream().allMatch(CompletableFuture::isDone));
+
+                for (int i = 0; i < small.size(); i++) {
+                    assertEquals(Crypto.encrypt("small request " + i, KEY), small.get(i).get(10, TimeUnit.SECONDS));
+                }
+                assertSame(output, large.get(30, TimeUnit.SECONDS));
+                assertTrue(smallDoneFirst.get(10, TimeUnit.SECONDS), "Small jobs waited for the large file");
+            }
+            // Closing waits for the workers, so every task is counted
+            assertEquals(16, scheduler.completedTasks(SizeAwareScheduler.Lane.LARGE));
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            try (TranspositionOutputStream out = new TranspositionOutputStream(expected, KEY, false)) {
+                out.write(plain);
+            }
+            assertArrayEquals(expected.toByteArray(), Files.readAllBytes(output.toPath()));
+        } finally {
+            input.delete();
+            output.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testLanesShareByWeight() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        String medium = "m".repeat(2000);
+        String large = "l".repeat(20000);
+        try (SizeAwareScheduler scheduler = new SizeAwareScheduler(1, 1000, 10000, 1 << 20, new int[]{1, 1, 10})) {
+            List<CompletableFuture<String>> jobs = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                jobs.add(scheduler.submitText(medium, KEY, false).whenComplete((r, e) -> order.add("M")));
+                jobs.add(scheduler.submitText(large, KEY, false).whenComplete((r, e) -> order.add("L")));
+            }
+            for (CompletableFuture<String> job : jobs) {
+                job.get(10, TimeUnit.SECONDS);
+            }
+        }
+        // Large costs 10x medium per task but has 10x the weight, so they alternate
+        String sequence = String.join("", order);
+        assertEquals(20, sequence.length());
+        assertFalse(sequence.contains("MMM") || sequence.contains("LLL"), sequence);
+    }
+
+    @Test
+    public void testRejectsWorkAfterClose() {
+        SizeAwareScheduler scheduler = new SizeAwareScheduler(1, 10, 100, 64, SizeAwareScheduler.DEFAULT_WEIGHTS);
+        scheduler.close();
+        assertThrows(IllegalStateException.class, () -> scheduler.submitText("late", KEY, false));
+    }
+
+    @Test
+    public void testClosedSchedulerLeavesTheOutputAlone() throws IOException {
+        File input = File.createTempFile("scheduler", ".txt");
+        File output = File.createTempFile("scheduler", ".enc");
+        try {
+            Files.write(input.toPath(), new byte[1000]);
+            Files.write(output.toPath(), "previous".getBytes());
+            SizeAwareScheduler scheduler = new SizeAwareScheduler(1, 10, 100, 64, SizeAwareScheduler.DEFAULT_WEIGHTS);
+            scheduler.close();
+            assertThrows(IllegalStateException.class, () -> scheduler.submitFile(input, output, KEY, false));
+            assertEquals("previous", new String(Files.readAllBytes(output.toPath())));
+        } finally {
+            input.delete();
+            output.delete();
+        }
+    }
+
+    @Test
+    public void testWaitIsAveragedOverStartedTasks() throws Exception {
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        CountDownLatch releaseSecond = new CountDownLatch(1);
+        try (SizeAwareScheduler scheduler = new SizeAwareScheduler(1, 10, 100, 64, SizeAwareScheduler.DEFAULT_WEIGHTS)) {
+            // The first task holds the only worker while the second waits about 200 ms
+            CompletableFuture<Boolean> first = scheduler.submit(1, 1, () -> releaseFirst.await(10, TimeUnit.SECONDS));
+            CompletableFuture<Boolean> second = scheduler.submit(1, 1, () -> {
+                secondStarted.countDown();
+                return releaseSecond.await(10, TimeUnit.SECONDS);
+            });
+            Thread.sleep(200);
+            releaseFirst.countDown();
+            assertTrue(first.get(10, TimeUnit.SECONDS));
+            assertTrue(secondStarted.await(10, TimeUnit.SECONDS));
+            while (scheduler.completedTasks(SizeAwareScheduler.Lane.SMALL) < 1) {
+                Thread.sleep(1);
+            }
+
+            // Two tasks started, one finished: the mean is over the two
+            double mean = scheduler.meanWaitMillis(SizeAwareScheduler.Lane.SMALL);
+            releaseSecond.countDown();
+            assertTrue(second.get(10, TimeUnit.SECONDS));
+            assertTrue(mean >= 90 && mean < 190, "Half of the second task's wait: " + mean);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class TranspositionProcessorTest {
+
+    private static final int[] TEST_KEY = {4, 1, 3, 0, 2};
+
+    @Test
+    public void testOutputMatchesStreamForAnyChunking() throws Exception {
+        byte[] input = new byte[10_007];
+        new Random(11).nextBytes(input);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (TranspositionOutputStream out = new TranspositionOutputStream(expected, TEST_KEY, false)) {
+            out.write(input);
+        }
+
+        Collector collector = new Collector(Long.MAX_VALUE);
+        TranspositionProcessor processor = TranspositionProcessor.encryptor(TEST_KEY);
+        processor.subscribe(collector);
+        try (SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            Random random = new Random(3);
+            for (int off = 0; off < input.length; ) {
+                int n = Math.min(1 + random.nextInt(700), input.length - off);
+                publisher.submit(ByteBuffer.wrap(input, off, n));
+                off += n;
+            }
+        }
+        assertTrue(collector.done.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(expected.toByteArray(), collector.bytes.toByteArray());
+    }
+
+    @Test
+    public void testChainedRoundTripWithDirectBuffers() throws Exception {
+        byte[] input = "Reactive ingestion through two stages\nwith uneven chunks".getBytes();
+        TranspositionProcessor encryptor = new TranspositionProcessor(TEST_KEY, false, 2);
+        TranspositionProcessor decryptor = new TranspositionProcessor(TEST_KEY, true, 3);
+        Collector collector = new Collector(1);
+        encryptor.subscribe(decryptor);
+        decryptor.subscribe(collector);
+
+        try (SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(encryptor);
+            for (int off = 0; off < input.length; off += 7) {
+                ByteBuffer direct = ByteBuffer.allocateDirect(Math.min(7, input.length - off));
+                direct.put(input, off, direct.capacity()).flip();
+                publisher.submit(direct);
+            }
+        }
+        assertTrue(collector.done.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(input, collector.bytes.toByteArray());
+    }
+
+    @Test
+    public void testDemandAndPrefetchAreRespected() {
+        ManualSource source = new ManualSource();
+        TranspositionProcessor processor = new TranspositionProcessor(TEST_KEY, false, 4);
+        Collector collector = new Collector(0);
+        source.subscriber = processor;
+        processor.onSubscribe(source);
+        processor.subscribe(collector);
+
+        assertEquals(4, source.requested, "Only the prefetch is requested up front");
+        for (int i = 0; i < 4; i++) {
+            processor.onNext(ByteBuffer.wrap(new byte[10]));
+        }
+        assertEquals(0, collector.items, "Nothing is delivered without demand");
+        assertEquals(4, source.requested, "No more is requested while the queue is full");
+
+        collector.subscription.request(1);
+        assertEquals(4, source.requested, "Replenishing waits until half the prefetch is free");
+        collector.subscription.request(2);
+        assertEquals(3, collector.items);
+        assertEquals(7, source.requested, "Every delivered item is replenished");
+
+        processor.onComplete();
+        assertEquals(1, collector.done.getCount(), "Completion waits for queued items");
+        collector.subscription.request(1);
+        assertEquals(0, collector.done.getCount());
+    }
+
+    @Test
+    public void testCancelStopsUpstream() {
+        ManualSource source = new ManualSource();
+        TranspositionProcessor processor = TranspositionProcessor.decryptor(TEST_KEY);
+        Collector collector = new Collector(1);
+        processor.onSubscribe(source);
+        processor.subscribe(collector);
+
+        collector.subscription.cancel();
+        assertTrue(source.cancelled);
+        processor.onNext(ByteBuffer.wrap(new byte[10]));
+        assertEquals(0, collector.items);
+    }
+
+    /**
+     * Subscriber that requests a fixed amount up front and one more per item
+     * when the initial request is 1
+     */
+    private static final class Collector implements Flow.Subscriber<ByteBuffer> {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final CountDownLatch done = new CountDownLatch(1);
+        final long initial;
+        Flow.Subscription subscription;
+        int items;
+        Throwable error;
+
+        Collector(long initial) {
+            this.initial = initial;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initial > 0) {
+                subscription.request(initial);
+            }
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            items++;
+            byte[] chunk = new byte[item.remaining()];
+            item.get(chunk);
+            bytes.write(chunk, 0, chunk.length);
+            if (initial == 1) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+
+    private static final class ManualSource implements Flow.Subscription {
+        Flow.Subscriber<ByteBuffer> subscriber;
+        long requested;
+        boolean cancelled;
+
+        @Override
+        public void request(long n) {
+            requested += n;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.security.*;
+import java.util.Arrays;
+import java.util.Random;
+import javax.crypto.*;
+import javax.crypto.spec.SecretKeySpec;
+
+public class TranspositionProviderTest {
+
+    private static final int[] TEST_KEY = {2, 5, 0, 3, 1, 4};
+    private static final Provider PROVIDER = new TranspositionProvider();
+
+    @Test
+    public void testUpdateKeepsOnlyThePartialRow() throws Exception {
+        Cipher cipher = Cipher.getInstance("Transposition/ECB/NoPadding", PROVIDER);
+        cipher.init(Cipher.ENCRYPT_MODE, TranspositionProvider.secretKey(TEST_KEY));
+
+        assertEquals(0, cipher.update(new byte[4]).length, "Incomplete row is held back");
+        assertEquals(6, cipher.update(new byte[5]).length, "Completed row is returned");
+        assertEquals(12, cipher.update(new byte[12]).length);
+        assertEquals(3, cipher.doFinal().length, "Short last row is returned by doFinal");
+    }
+
+    @Test
+    public void testCipherStreamsMatchTranspositionStream() throws Exception {
+        byte[] input = new byte[100_001];
+        new Random(9).nextBytes(input);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (TranspositionOutputStream out = new TranspositionOutputStream(expected, TEST_KEY, false)) {
+            out.write(input);
+        }
+
+        SecretKey key = TranspositionProvider.secretKey(TEST_KEY);
+        Cipher encryptor = Cipher.getInstance(TranspositionProvider.ALGORITHM, PROVIDER);
+        encryptor.init(Cipher.ENCRYPT_MODE, key);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (CipherOutputStream out = new CipherOutputStream(encrypted, encryptor)) {
+            for (int off = 0; off < input.length; off += 997) {
+                out.write(input, off, Math.min(997, input.length - off));
+            }
+        }
+        assertArrayEquals(expected.toByteArray(), encrypted.toByteArray());
+
+        Cipher decryptor = Cipher.getInstance(TranspositionProvider.ALGORITHM, PROVIDER);
+        decryptor.init(Cipher.DECRYPT_MODE, key);
+        try (InputStream in = new CipherInputStream(new ByteArrayInputStream(encrypted.toByteArray()), decryptor)) {
+            assertArrayEquals(input, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void testInputAndOutputMayBeTheSameArray() throws Exception {
+        Cipher cipher = Cipher.getInstance(TranspositionProvider.ALGORITHM, PROVIDER);
+        cipher.init(Cipher.ENCRYPT_MODE, TranspositionProvider.secretKey(new int[] {2, 0, 1}));
+        byte[] buffer = "abcdefghi".getBytes();
+        assertEquals(9, cipher.doFinal(buffer, 0, 9, buffer, 0));
+        assertEquals("cabfdeigh", new String(buffer));
+
+        // Shifted ranges of one array, with a partial row held between calls
+        cipher.init(Cipher.ENCRYPT_MODE, TranspositionProvider.secretKey(TEST_KEY));
+        byte[] input = new byte[1000];
+        new Random(5).nextBytes(input);
+        byte[] expected = cipher.doFinal(input);
+        byte[] shared = new byte[1010];
+        System.arraycopy(input, 0, shared, 10, input.length);
+        int produced = cipher.update(shared, 10, 7, shared, 0);
+        produced += cipher.update(shared, 17, 500, shared, produced);
+        produced += cipher.doFinal(shared, 517, 493, shared, produced);
+        assertEquals(1000, produced);
+        assertArrayEquals(expected, Arrays.copyOf(shared, 1000));
+
+        cipher.init(Cipher.DECRYPT_MODE, TranspositionProvider.secretKey(TEST_KEY));
+        byte[] back = expected.clone();
+        cipher.doFinal(back, 0, back.length, back, 0);
+        assertArrayEquals(input, back);
+    }
+
+    @Test
+    public void testCipherIsReusableAfterDoFinal() throws Exception {
+        Cipher cipher = Cipher.getInstance(TranspositionProvider.ALGORITHM, PROVIDER);
+        cipher.init(Cipher.ENCRYPT_MODE, TranspositionProvider.secretKey(TEST_KEY));
+        byte[] message = "same message twice".getBytes();
+        byte[] first = cipher.doFinal(message);
+        assertArrayEquals(first, cipher.doFinal(message));
+
+        cipher.init(Cipher.DECRYPT_MODE, TranspositionProvider.secretKey(TEST_KEY));
+        byte[] output = new byte[message.length];
+        assertEquals(message.length, cipher.doFinal(first, 0, first.length, output, 0));
+        assertArrayEquals(message, output);
+    }
+
+    @Test
+    public void testInvalidKeysAndModesAreRejected() {
+        assertThrows(InvalidKeyException.class, () -> {
+            Cipher cipher = Cipher.getInstance(TranspositionProvider.ALGORITHM, PROVIDER);
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[] {0, 0, 0, 1, 0, 0, 0, 1}, "Transposition"));
+        });
+        assertThrows(InvalidKeyException.class, () -> {
+            Cipher cipher = Cipher.getInstance(TranspositionProvider.ALGORITHM, PROVIDER);
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[16], "AES"));
+        });
+        assertThrows(NoSuchAlgorithmException.class, () -> {
+            Cipher.getInstance("Transposition/CBC/NoPadding", PROVIDER);
+        });
+        assertThrows(NoSuchPaddingException.class, () -> {
+            Cipher.getInstance("Transposition/ECB/PKCS5Padding", PROVIDER);
+        });
+    }
+}
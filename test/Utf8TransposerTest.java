@@ -0,0 +1,131 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+public class Utf8TransposerTest {
+
+    private static final int[] TEST_KEY = {3, 0, 4, 1, 2};
+
+    @Test
+    public void testAsciiMatchesStringApi() {
+        String text = "First line\nSecond line with more words\nThird";
+        byte[] encrypted = Utf8Transposer.encrypt(utf8(text), TEST_KEY);
+        assertEquals(Crypto.encrypt(text, TEST_KEY), new String(encrypted, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCodePointsAreNeverSplit() {
+        String text = "Emoji 😀 and 𠮷 stay whole\nKöln 東京\n";
+        byte[] encrypted = Utf8Transposer.encrypt(utf8(text), TEST_KEY);
+
+        String decoded = new String(encrypted, StandardCharsets.UTF_8);
+        assertFalse(decoded.contains("�"), "Encrypted bytes should still be valid UTF-8");
+        assertEquals(text.codePointCount(0, text.length()) + 4, decoded.codePointCount(0, decoded.length()),
+                "Only the padding should be added");
+        assertEquals(text, new String(Utf8Transposer.decrypt(encrypted, TEST_KEY), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testChunkedUpdatesMatchWholeInput() throws IOException {
+        String text = "été 🌞\r\nline two\n\n中文 three";
+        byte[] input = utf8(text);
+        byte[] expected = Utf8Transposer.encrypt(input, TEST_KEY);
+
+        for (int chunk = 1; chunk <= 7; chunk++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Utf8Transposer transposer = new Utf8Transposer(TEST_KEY, false, out);
+            for (int off = 0; off < input.length; off += chunk) {
+                transposer.update(input, off, Math.min(chunk, input.length - off));
+            }
+            transposer.finish();
+            assertArrayEquals(expected, out.toByteArray(), "Chunk size " + chunk);
+        }
+    }
+
+    @Test
+    public void testFileRoundTrip() throws IOException {
+        Path directory = Files.createTempDirectory("utf8_test");
+        File input = directory.resolve("input.txt").toFile();
+        File encrypted = directory.resolve("encrypted.txt").toFile();
+        File decrypted = directory.resolve("decrypted.txt").toFile();
+        File keyFile = directory.resolve("key.txt").toFile();
+        String text = "こんにちは\n👋 world\n";
+        Files.write(input.toPath(), utf8(text));
+        try {
+            Utf8Transposer.transformFile(input, encrypted, TEST_KEY, false);
+            KeyFiles.writeText(TEST_KEY, keyFile);
+            assertEquals(0, Crypto.runUtf8(java.util.Arrays.asList("decrypt", encrypted.getPath(),
+                    decrypted.getPath(), keyFile.getPath())));
+            assertEquals(text, new String(Files.readAllBytes(decrypted.toPath()), StandardCharsets.UTF_8));
+            assertEquals(2, Crypto.runUtf8(java.util.Arrays.asList("decrypt", encrypted.getPath())));
+        } finally {
+            keyFile.delete();
+            input.delete();
+            encrypted.delete();
+            decrypted.delete();
+            directory.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testMalformedInputIsRejected() {
+        byte[] truncated = {'a', 'b', (byte) 0xE6, (byte) 0x9D};
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            Utf8Transposer.encrypt(truncated, TEST_KEY);
+        });
+        assertEquals("Input is not valid UTF-8", exception.getMessage());
+
+        assertThrows(IllegalArgumentException.class, () -> {
+            Utf8Transposer.encrypt(new byte[] {'a', (byte) 0x80, 'b'}, TEST_KEY);
+        });
+    }
+
+    @Test
+    public void testOverlongSurrogateAndOutOfRangeFormsAreRejected() {
+        byte[][] invalid = {
+            {(byte) 0xC0, (byte) 0xAF},                           // overlong '/'
+            {(byte) 0xC1, (byte) 0xBF},                           // overlong two-byte form
+            {(byte) 0xE0, (byte) 0x80, (byte) 0xAF},              // overlong three-byte form
+            {(byte) 0xED, (byte) 0xA0, (byte) 0x80},              // surrogate U+D800
+            {(byte) 0xF0, (byte) 0x80, (byte) 0x80, (byte) 0xAF}, // overlong four-byte form
+            {(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80}, // U+110000
+            {(byte) 0xF5, (byte) 0x80, (byte) 0x80, (byte) 0x80}, // lead byte above U+10FFFF
+        };
+        for (byte[] bytes : invalid) {
+            byte[] input = new byte[bytes.length + 2];
+            input[0] = 'a';
+            System.arraycopy(bytes, 0, input, 1, bytes.length);
+            input[input.length - 1] = 'b';
+            Exception exception = assertThrows(IllegalArgumentException.class,
+                    () -> Utf8Transposer.encrypt(input, TEST_KEY));
+            assertEquals("Input is not valid UTF-8", exception.getMessage());
+
+            // Same when the code point is split between calls
+            Utf8Transposer transposer = new Utf8Transposer(TEST_KEY, false, new ByteArrayOutputStream());
+            assertThrows(IllegalArgumentException.class, () -> {
+                for (int i = 0; i < input.length; i++) {
+                    transposer.update(input, i, 1);
+                }
+                transposer.finish();
+            });
+        }
+        // Code points right at the limits are fine
+        String edges = "\u0080\u07FF\u0800\uD7FF\uE000\uFFFF\uD800\uDC00\uDBFF\uDFFF";
+        assertEquals(edges, new String(Utf8Transposer.decrypt(
+                Utf8Transposer.encrypt(utf8(edges), TEST_KEY), TEST_KEY), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEmptyInputIsRejected() {
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> {
+            Utf8Transposer.encrypt(utf8("\n\n"), TEST_KEY);
+        });
+        assertEquals("Text cannot be null or empty", exception.getMessage());
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
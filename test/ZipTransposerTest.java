@@ -0,0 +1,92 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+public class ZipTransposerTest {
+
+    private static final int[] KEY = {3, 0, 4, 1, 2};
+
+    @Test
+    public void testEntriesAreTransposedInOrder() throws Exception {
+        Map<String, byte[]> entries = sampleEntries();
+        byte[] archive = zip(entries);
+        for (int threads : new int[] {1, 4}) {
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            assertEquals(entries.size(), new ZipTransposer(KEY, false, threads, 1024 * 1024)
+                    .transform(new ByteArrayInputStream(archive), encrypted));
+
+            Map<String, byte[]> result = unzip(encrypted.toByteArray());
+            assertEquals(new ArrayList<>(entries.keySet()), new ArrayList<>(result.keySet()), "Order and names");
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                assertArrayEquals(stream(entry.getValue()), result.get(entry.getKey()), entry.getKey());
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTripWithSmallBudget() throws Exception {
+        Map<String, byte[]> entries = sampleEntries();
+        // Entries bigger than the budget share are streamed, the rest go to workers
+        ZipTransposer encrypt = new ZipTransposer(KEY, false, 3, 64 * 1024);
+        ZipTransposer decrypt = new ZipTransposer(KEY, true, 2, 64 * 1024);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        encrypt.transform(new ByteArrayInputStream(zip(entries)), encrypted);
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        decrypt.transform(new ByteArrayInputStream(encrypted.toByteArray()), decrypted);
+
+        Map<String, byte[]> result = unzip(decrypted.toByteArray());
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            assertArrayEquals(entry.getValue(), result.get(entry.getKey()), entry.getKey());
+        }
+    }
+
+    private static Map<String, byte[]> sampleEntries() {
+        Random random = new Random(4);
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("docs/", new byte[0]);
+        entries.put("docs/empty.txt", new byte[0]);
+        entries.put("docs/readme.txt", "A short text entry".getBytes());
+        for (int size : new int[] {3, 50_000, 700_001, 12_345}) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+            entries.put("data/" + size + ".bin", bytes);
+        }
+        return entries;
+    }
+
+    private static byte[] zip(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Map<String, byte[]> unzip(byte[] archive) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), in.readAllBytes());
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] stream(byte[] input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TranspositionOutputStream stream = new TranspositionOutputStream(out, KEY, false)) {
+            stream.write(input);
+        }
+        return out.toByteArray();
+    }
+}